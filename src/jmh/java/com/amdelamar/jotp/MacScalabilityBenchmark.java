@@ -0,0 +1,70 @@
+package com.amdelamar.jotp;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * OTP.create from 1 to all available threads. Total throughput should grow with the thread count
+ * now that each thread reuses its own Mac instead of going through the provider lookup.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class MacScalabilityBenchmark {
+
+    private String secret;
+    private String base;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        secret = OTP.randomBase32(OTP.BYTES);
+        base = "42";
+    }
+
+    @Benchmark
+    public String create() throws InvalidKeyException, NoSuchAlgorithmException {
+        return OTP.create(secret, base, 6, Type.HOTP);
+    }
+
+    @Threads(1)
+    public static class Threads1 extends MacScalabilityBenchmark {
+    }
+
+    @Threads(2)
+    public static class Threads2 extends MacScalabilityBenchmark {
+    }
+
+    @Threads(4)
+    public static class Threads4 extends MacScalabilityBenchmark {
+    }
+
+    @Threads(8)
+    public static class Threads8 extends MacScalabilityBenchmark {
+    }
+
+    @Threads(Threads.MAX)
+    public static class ThreadsMax extends MacScalabilityBenchmark {
+    }
+}
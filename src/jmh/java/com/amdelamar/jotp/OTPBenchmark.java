@@ -0,0 +1,75 @@
+package com.amdelamar.jotp;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Benchmarks for the static OTP methods.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OTPBenchmark {
+
+    @Param({ "6", "8" })
+    public int digits;
+
+    @Param({ "HOTP", "TOTP" })
+    public Type type;
+
+    private String secret;
+    private String base;
+    private String code;
+    private long time;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InvalidKeyException, NoSuchAlgorithmException {
+        secret = OTP.randomBase32(OTP.BYTES);
+        time = 1573788090000L;
+        base = type == Type.HOTP ? "42" : OTP.timeInHex(time);
+        code = OTP.create(secret, base, digits, type);
+    }
+
+    @Benchmark
+    public String create() throws InvalidKeyException, NoSuchAlgorithmException {
+        return OTP.create(secret, base, digits, type);
+    }
+
+    @Benchmark
+    public boolean verify() throws InvalidKeyException, NoSuchAlgorithmException {
+        return OTP.verify(secret, base, code, digits, type);
+    }
+
+    @Benchmark
+    public String timeInHex() throws IOException {
+        return OTP.timeInHex(time);
+    }
+
+    @Benchmark
+    public String randomBase32() {
+        return OTP.randomBase32(OTP.BYTES);
+    }
+}
@@ -0,0 +1,62 @@
+package com.amdelamar.jotp.type;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the HOTP and TOTP generators.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratorBenchmark {
+
+    @Param({ "6", "8" })
+    public int digits;
+
+    @Param({ "HmacSHA1", "HmacSHA256", "HmacSHA512" })
+    public String algorithm;
+
+    private byte[] secret;
+    private String hexSecret;
+    private String hexTime;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // RFC 4226 and 6238 test secret
+        hexSecret = "3132333435363738393031323334353637383930";
+        secret = hexSecret.getBytes(StandardCharsets.US_ASCII);
+        hexTime = "0000000003207D9B";
+    }
+
+    @Benchmark
+    public String generateHotp() throws InvalidKeyException, NoSuchAlgorithmException {
+        return HOTP.generateHotp(secret, 42L, digits, false, 0, algorithm);
+    }
+
+    @Benchmark
+    public String generateTotp() throws InvalidKeyException, NoSuchAlgorithmException {
+        return TOTP.generateTotp(hexSecret, hexTime, digits, algorithm);
+    }
+}
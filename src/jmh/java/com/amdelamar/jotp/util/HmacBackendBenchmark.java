@@ -0,0 +1,58 @@
+package com.amdelamar.jotp.util;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amdelamar.jotp.OTP;
+import com.amdelamar.jotp.OTPKey;
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Compiled key codes on the JCE and built-in HMAC backends. Whether JAVA wins depends on the JVM,
+ * since JCE HmacSHA1 uses the SHA intrinsics where the CPU has them.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HmacBackendBenchmark {
+
+    @Param({ "HmacSHA1", "HmacSHA256", "HmacSHA512" })
+    public String algorithm;
+
+    @Param({ "JCE", "JAVA" })
+    public HmacBackend backend;
+
+    private OTPKey key;
+    private long base;
+
+    @Setup(Level.Trial)
+    public void setup() throws InvalidKeyException, NoSuchAlgorithmException {
+        key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, OTPKey.PERIOD, Type.TOTP, algorithm, backend);
+    }
+
+    @Benchmark
+    public int generate() throws InvalidKeyException, NoSuchAlgorithmException {
+        // a new step every call keeps the JIT from folding the input
+        return key.generate(base++);
+    }
+}
@@ -0,0 +1,75 @@
+package com.amdelamar.jotp.util;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amdelamar.jotp.OTP;
+
+/**
+ * A batch of codes through MultiHmac, against the same batch one HMAC at a time. Scores are per
+ * HMAC, so the two compare directly.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiHmacBenchmark {
+
+    private static final int BATCH = 256;
+
+    @Param({ "HmacSHA1", "HmacSHA256" })
+    public String algorithm;
+
+    private final Hmac[] hmacs = new Hmac[BATCH];
+    private final long[] messages = new long[BATCH];
+    private final int[] truncations = new int[BATCH];
+    private final int[] out = new int[BATCH];
+
+    @Setup(Level.Trial)
+    public void setup() throws InvalidKeyException, NoSuchAlgorithmException {
+        for (int i = 0; i < BATCH; i++) {
+            hmacs[i] = Hmac.getInstance(algorithm, Base32.decode(OTP.randomBase32(OTP.BYTES)), HmacBackend.JAVA);
+            messages[i] = 52435959L + i;
+            truncations[i] = -1;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int[] multiBuffer() throws InvalidKeyException, NoSuchAlgorithmException {
+        for (int i = 0; i < BATCH; i++) {
+            messages[i]++;
+        }
+        MultiHmac.truncate(hmacs, messages, truncations, out, BATCH);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int[] scalar() throws InvalidKeyException, NoSuchAlgorithmException {
+        for (int i = 0; i < BATCH; i++) {
+            out[i] = hmacs[i].truncate(++messages[i], truncations[i]);
+        }
+        return out;
+    }
+}
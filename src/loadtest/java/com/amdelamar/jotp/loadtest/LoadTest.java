@@ -0,0 +1,304 @@
+package com.amdelamar.jotp.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amdelamar.jotp.OTP;
+import com.amdelamar.jotp.metrics.HistogramSnapshot;
+import com.amdelamar.jotp.metrics.LatencyHistogram;
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Base32;
+
+/**
+ * Load test that drives OTP.create() and OTP.verify() the way a fleet of users does. Each login
+ * picks an account by a Zipf distribution, so a few accounts are hot, and the user's device
+ * creates a TOTP code on its own drifted clock. Some users make a typo first and retry, and some
+ * log in right after a step boundary. The server checks the current step, then one behind and
+ * one ahead. Time is simulated and runs faster than real time, so a short run crosses many
+ * steps.
+ *
+ * Reports throughput, latency percentiles, allocation rate and GC time for the measured part of
+ * the run. Options are given as --name=value:
+ *
+ * <pre>
+ * ./gradlew loadtest -PloadtestArgs="--accounts=1000000 --threads=8 --duration=60"
+ * </pre>
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class LoadTest {
+
+    private static final int PERIOD = 30;
+    private static final long PERIOD_MILLIS = PERIOD * 1000L;
+
+    /**
+     * Steps the server checks, in order.
+     */
+    private static final int[] WINDOW = { 0, -1, 1 };
+
+    /**
+     * Simulated time at the start of every run.
+     */
+    private static final long START_MILLIS = 1700000000000L;
+
+    private final long accounts;
+    private final int threads;
+    private final int warmup;
+    private final int duration;
+    private final double zipf;
+    private final double driftMillis;
+    private final double speed;
+    private final double typos;
+    private final double burst;
+    private final int digits;
+    private final long seed;
+
+    private volatile Stats stats = new Stats();
+    private volatile boolean running = true;
+
+    private LoadTest(Map<String, String> options) {
+        this.accounts = Long.parseLong(option(options, "accounts", "1000000"));
+        this.threads = Integer.parseInt(option(options, "threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        this.warmup = Integer.parseInt(option(options, "warmup", "10"));
+        this.duration = Integer.parseInt(option(options, "duration", "30"));
+        this.zipf = Double.parseDouble(option(options, "zipf", "1.1"));
+        this.driftMillis = Double.parseDouble(option(options, "drift", "15")) * 1000.0;
+        this.speed = Double.parseDouble(option(options, "speed", "60"));
+        this.typos = Double.parseDouble(option(options, "typos", "0.03"));
+        this.burst = Double.parseDouble(option(options, "burst", "0.25"));
+        this.digits = Integer.parseInt(option(options, "digits", "6"));
+        this.seed = Long.parseLong(option(options, "seed", "42"));
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + options.keySet());
+        }
+        if (accounts < 1 || threads < 1 || warmup < 0 || duration < 1) {
+            throw new IllegalArgumentException("Accounts, threads and duration must be positive.");
+        }
+    }
+
+    /**
+     * Runs the load test and prints the report.
+     *
+     * @param args
+     *            options as --name=value: accounts, threads, warmup and duration (seconds), zipf
+     *            (exponent), drift (standard deviation of device clocks, seconds), speed
+     *            (simulated seconds per second), typos and burst (fractions of logins), digits,
+     *            and seed
+     * @throws InterruptedException if interrupted while waiting for the run
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Options must be --name=value, not " + arg);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        new LoadTest(options).run(System.out);
+    }
+
+    private void run(PrintStream out) throws InterruptedException {
+        out.printf("accounts=%d threads=%d warmup=%ds duration=%ds zipf=%.2f drift=%.0fs speed=%.0fx typos=%.2f "
+                + "burst=%.2f digits=%d seed=%d%n", accounts, threads, warmup, duration, zipf, driftMillis / 1000.0,
+                speed, typos, burst, digits, seed);
+
+        final ZipfSampler sampler = new ZipfSampler(accounts, zipf);
+        final SimulatedClock clock = new SimulatedClock(START_MILLIS, speed);
+        final SplittableRandom root = new SplittableRandom(seed);
+        final Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final SplittableRandom random = root.split();
+            workers[t] = new Thread(() -> work(sampler, clock, random), "loadtest-" + t);
+            workers[t].setDaemon(true);
+            workers[t].start();
+        }
+
+        Thread.sleep(warmup * 1000L);
+        final Stats measured = new Stats();
+        final Usage before = new Usage(workers);
+        stats = measured;
+        Thread.sleep(duration * 1000L);
+        stats = new Stats();
+        final Usage after = new Usage(workers);
+        running = false;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        report(out, measured, before, after);
+    }
+
+    private void work(ZipfSampler sampler, SimulatedClock clock, SplittableRandom random) {
+        final byte[] key = new byte[OTP.BYTES];
+        final char[] chars = new char[Base32.encodedLength(OTP.BYTES)];
+        while (running) {
+            final Stats current = stats;
+            final long account = sampler.sample(random) - 1;
+            try {
+                login(current, account, secret(account, key, chars), clock, random);
+            } catch (GeneralSecurityException | IOException | RuntimeException e) {
+                current.errors.increment();
+            }
+        }
+    }
+
+    private void login(Stats counts, long account, String secret, SimulatedClock clock, SplittableRandom random)
+            throws GeneralSecurityException, IOException {
+        long now = clock.millis();
+        if (random.nextDouble() < burst) {
+            // waiting for a fresh code, right after the boundary
+            now = now - now % PERIOD_MILLIS + random.nextInt(2000);
+        }
+        final long device = now + drift(account);
+
+        final long start = System.nanoTime();
+        final String code = OTP.create(secret, OTP.timeInHex(device, PERIOD), digits, Type.TOTP);
+        counts.create.record(System.nanoTime() - start);
+
+        if (random.nextDouble() < typos) {
+            final char last = code.charAt(digits - 1);
+            final String typo = code.substring(0, digits - 1) + (char) (last == '9' ? '0' : last + 1);
+            counts.logins.increment();
+            if (verify(counts, secret, typo, now)) {
+                counts.successes.increment();
+            }
+        }
+        counts.logins.increment();
+        if (verify(counts, secret, code, now)) {
+            counts.successes.increment();
+        }
+    }
+
+    /**
+     * Checks the current step, then one behind and one ahead, as a server would.
+     */
+    private boolean verify(Stats counts, String secret, String code, long now)
+            throws GeneralSecurityException, IOException {
+        final long login = System.nanoTime();
+        boolean valid = false;
+        for (int offset : WINDOW) {
+            final String base = OTP.timeInHex(now + offset * PERIOD_MILLIS, PERIOD);
+            final long start = System.nanoTime();
+            valid = OTP.verify(secret, base, code, digits, Type.TOTP);
+            final long end = System.nanoTime();
+            counts.verify.record(end - start);
+            counts.verifies.increment();
+            if (valid) {
+                break;
+            }
+        }
+        counts.login.record(System.nanoTime() - login);
+        return valid;
+    }
+
+    /**
+     * Derives the account's secret from the seed, so millions of accounts need no memory.
+     */
+    private String secret(long account, byte[] key, char[] chars) {
+        final SplittableRandom random = new SplittableRandom(seed ^ account * 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) random.nextInt();
+        }
+        Base32.encode(key, 0, key.length, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * @return the account's device clock offset, normally distributed and fixed per account
+     */
+    private long drift(long account) {
+        final SplittableRandom random = new SplittableRandom(~seed ^ account * 0xC2B2AE3D27D4EB4FL);
+        // Box-Muller
+        final double gaussian = Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble()))
+                * Math.cos(2.0 * Math.PI * random.nextDouble());
+        return (long) (gaussian * driftMillis);
+    }
+
+    private void report(PrintStream out, Stats counts, Usage before, Usage after) {
+        final double seconds = (after.nanos - before.nanos) / 1e9;
+        final long logins = counts.logins.sum();
+        final long verifies = counts.verifies.sum();
+        out.printf("logins     %,12d  %,12.0f/s  success %.2f%%  errors %d%n", logins, logins / seconds,
+                logins == 0 ? 0.0 : 100.0 * counts.successes.sum() / logins, counts.errors.sum());
+        out.printf("verifies   %,12d  %,12.0f/s  %.2f per login%n", verifies, verifies / seconds,
+                logins == 0 ? 0.0 : (double) verifies / logins);
+        out.println("latency (us)        p50        p99       p999        max");
+        latency(out, "create", counts.create.snapshot());
+        latency(out, "verify", counts.verify.snapshot());
+        latency(out, "login", counts.login.snapshot());
+
+        final long allocated = after.allocated - before.allocated;
+        if (before.allocated >= 0 && after.allocated >= 0) {
+            out.printf("allocation %,12.1f MB/s  %,d bytes per login%n", allocated / seconds / 1e6,
+                    logins == 0 ? 0 : allocated / logins);
+        } else {
+            out.println("allocation not available on this jvm");
+        }
+        final long gcTime = after.gcMillis - before.gcMillis;
+        out.printf("gc         %,12d collections  %,d ms  %.2f%% of time%n", after.gcCount - before.gcCount, gcTime,
+                100.0 * gcTime / (seconds * 1000.0));
+    }
+
+    private static void latency(PrintStream out, String name, HistogramSnapshot snapshot) {
+        out.printf("%-12s %10.1f %10.1f %10.1f %10.1f%n", name, snapshot.getValueAt(0.50) / 1e3,
+                snapshot.getValueAt(0.99) / 1e3, snapshot.getValueAt(0.999) / 1e3, snapshot.getMax() / 1e3);
+    }
+
+    private static String option(Map<String, String> options, String name, String value) {
+        final String given = options.remove(name);
+        return given == null ? value : given;
+    }
+
+    /**
+     * Counters for one part of the run.
+     */
+    private static final class Stats {
+        private final LatencyHistogram create = new LatencyHistogram();
+        private final LatencyHistogram verify = new LatencyHistogram();
+        private final LatencyHistogram login = new LatencyHistogram();
+        private final LongAdder logins = new LongAdder();
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder verifies = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+    }
+
+    /**
+     * Bytes allocated by the workers and GC totals at one point in the run.
+     */
+    private static final class Usage {
+        private final long nanos = System.nanoTime();
+        private final long allocated;
+        private long gcCount;
+        private long gcMillis;
+
+        private Usage(Thread[] workers) {
+            final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long bytes = -1L;
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                final com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+                if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+                    bytes = 0L;
+                    for (Thread worker : workers) {
+                        bytes += Math.max(0L, sun.getThreadAllocatedBytes(worker.getId()));
+                    }
+                }
+            }
+            this.allocated = bytes;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcCount += Math.max(0L, gc.getCollectionCount());
+                gcMillis += Math.max(0L, gc.getCollectionTime());
+            }
+        }
+    }
+}
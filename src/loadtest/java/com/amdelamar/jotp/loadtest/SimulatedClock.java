@@ -0,0 +1,36 @@
+package com.amdelamar.jotp.loadtest;
+
+/**
+ * Wall clock time that runs faster than real time, so a short run crosses many TOTP step
+ * boundaries. Starts at a fixed instant, so runs with the same seed see the same steps.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+final class SimulatedClock {
+
+    private final long start;
+    private final double speed;
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param startMillis
+     *            simulated time when the clock is created
+     * @param speed
+     *            simulated milliseconds per real millisecond
+     */
+    SimulatedClock(long startMillis, double speed) {
+        if (!(speed > 0.0)) {
+            throw new IllegalArgumentException("Speed must be greater than 0.");
+        }
+        this.start = startMillis;
+        this.speed = speed;
+    }
+
+    /**
+     * @return simulated time in milliseconds
+     */
+    long millis() {
+        return start + (long) ((System.nanoTime() - origin) / 1e6 * speed);
+    }
+}
@@ -0,0 +1,162 @@
+package com.amdelamar.jotp.loadtest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amdelamar.jotp.OTP;
+import com.amdelamar.jotp.Warmup;
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Measures time to first verify: how long a fresh process takes from launch until its first
+ * OTP.verify() returns, as a short-lived function would see it. Each run starts a new process,
+ * either this JVM with the same class path or a native image built from this class, and the
+ * child reports how long its startup work and first verify took.
+ *
+ * Options are given as --name=value. The mode is lazy (nothing up front), prepare
+ * (Warmup.prepare()) or warmup (Warmup.warmUp()):
+ *
+ * <pre>
+ * ./gradlew startup -PstartupArgs="--runs=20 --mode=prepare"
+ * native-image -cp build/classes/java/main:build/classes/java/loadtest:build/resources/main \
+ *     com.amdelamar.jotp.loadtest.StartupBenchmark build/jotp-startup
+ * ./gradlew startup -PstartupArgs="--runs=20 --mode=prepare --command=build/jotp-startup"
+ * </pre>
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class StartupBenchmark {
+
+    private static final String RESULT = "result ";
+    private static final String SECRET = "MFRGGZDFMZTWQ2LKNNWG23TPOBYXE43U";
+    private static final String[] MODES = { "lazy", "prepare", "warmup" };
+
+    private StartupBenchmark() {
+        // main only
+    }
+
+    /**
+     * Runs the benchmark and prints the report, or runs one child.
+     *
+     * @param args
+     *            options as --name=value: runs, mode, and command (a native image to launch
+     *            instead of this JVM). --child=true runs one measurement in this process.
+     * @throws IOException if a child cannot be started or fails
+     * @throws InterruptedException if interrupted while waiting for a child
+     * @throws GeneralSecurityException if HMAC is not available in a child
+     */
+    public static void main(String[] args) throws IOException, InterruptedException, GeneralSecurityException {
+        // read first, before parsing touches more classes
+        final long start = System.nanoTime();
+        final Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Options must be --name=value, not " + arg);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        final String mode = option(options, "mode", "lazy");
+        if (!Arrays.asList(MODES).contains(mode)) {
+            throw new IllegalArgumentException("Mode must be one of " + Arrays.toString(MODES));
+        }
+        if (Boolean.parseBoolean(option(options, "child", "false"))) {
+            child(System.out, mode, start);
+            return;
+        }
+        final int runs = Integer.parseInt(option(options, "runs", "10"));
+        final String command = option(options, "command", null);
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + options.keySet());
+        }
+        if (runs < 1) {
+            throw new IllegalArgumentException("Runs must be positive.");
+        }
+        parent(System.out, runs, mode, command);
+    }
+
+    /**
+     * Does the mode's startup work and one verify, and prints how long each took.
+     */
+    private static void child(PrintStream out, String mode, long start) throws GeneralSecurityException,
+            IOException {
+        if ("prepare".equals(mode)) {
+            Warmup.prepare();
+        } else if ("warmup".equals(mode)) {
+            Warmup.warmUp();
+        }
+        final long ready = System.nanoTime();
+        final boolean valid = OTP.verify(SECRET, OTP.timeInHex(System.currentTimeMillis(), 30), "000000", 6,
+                Type.TOTP);
+        final long verified = System.nanoTime();
+        out.println(RESULT + (ready - start) + " " + (verified - ready) + " " + valid);
+    }
+
+    private static void parent(PrintStream out, int runs, String mode, String command)
+            throws IOException, InterruptedException {
+        final List<String> launch = new ArrayList<>();
+        if (command == null) {
+            launch.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            launch.add("-cp");
+            launch.add(System.getProperty("java.class.path"));
+            launch.add(StartupBenchmark.class.getName());
+        } else {
+            launch.add(command);
+        }
+        launch.add("--child=true");
+        launch.add("--mode=" + mode);
+        out.printf("runs=%d mode=%s command=%s%n", runs, mode, command == null ? "jvm" : command);
+
+        final long[] total = new long[runs];
+        final long[] startup = new long[runs];
+        final long[] verify = new long[runs];
+        for (int r = 0; r < runs; r++) {
+            final long start = System.nanoTime();
+            final Process process = new ProcessBuilder(launch).redirectErrorStream(true).start();
+            String result = null;
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (result == null && line.startsWith(RESULT)) {
+                        total[r] = System.nanoTime() - start;
+                        result = line;
+                    }
+                }
+            }
+            if (process.waitFor() != 0 || result == null) {
+                throw new IOException("Run " + r + " failed with exit code " + process.exitValue());
+            }
+            final String[] fields = result.substring(RESULT.length()).split(" ");
+            startup[r] = Long.parseLong(fields[0]);
+            verify[r] = Long.parseLong(fields[1]);
+        }
+
+        out.println("ms                     min     median        max");
+        report(out, "launch to verify", total);
+        report(out, "startup work", startup);
+        report(out, "first verify", verify);
+    }
+
+    private static void report(PrintStream out, String name, long[] nanos) {
+        Arrays.sort(nanos);
+        out.printf("%-18s %10.2f %10.2f %10.2f%n", name, nanos[0] / 1e6, nanos[nanos.length / 2] / 1e6,
+                nanos[nanos.length - 1] / 1e6);
+    }
+
+    private static String option(Map<String, String> options, String name, String value) {
+        final String given = options.remove(name);
+        return given == null ? value : given;
+    }
+}
@@ -0,0 +1,97 @@
+package com.amdelamar.jotp.loadtest;
+
+import java.util.SplittableRandom;
+
+/**
+ * Draws ranks 1 ... n with probability proportional to 1 / rank^exponent, in constant time and
+ * memory however large n is. Uses rejection-inversion sampling (Hormann and Derflinger, 1996).
+ * Immutable, so one sampler can be shared by threads that each have their own random.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+final class ZipfSampler {
+
+    private final long n;
+    private final double exponent;
+    private final double hIntegralX1;
+    private final double hIntegralN;
+    private final double s;
+
+    /**
+     * @param n
+     *            number of ranks
+     * @param exponent
+     *            skew, greater than 0. Around 1 is typical for account activity.
+     */
+    ZipfSampler(long n, double exponent) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Number of ranks must be positive.");
+        }
+        if (!(exponent > 0.0)) {
+            throw new IllegalArgumentException("Exponent must be greater than 0.");
+        }
+        this.n = n;
+        this.exponent = exponent;
+        this.hIntegralX1 = hIntegral(1.5) - 1.0;
+        this.hIntegralN = hIntegral(n + 0.5);
+        this.s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+    }
+
+    /**
+     * @return a rank between 1 and n, 1 being the most likely
+     */
+    long sample(SplittableRandom random) {
+        while (true) {
+            final double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+            final double x = hIntegralInverse(u);
+            long k = (long) (x + 0.5);
+            if (k < 1) {
+                k = 1;
+            } else if (k > n) {
+                k = n;
+            }
+            if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                return k;
+            }
+        }
+    }
+
+    private double hIntegral(double x) {
+        final double logX = Math.log(x);
+        return helper2((1.0 - exponent) * logX) * logX;
+    }
+
+    private double h(double x) {
+        return Math.exp(-exponent * Math.log(x));
+    }
+
+    private double hIntegralInverse(double x) {
+        double t = x * (1.0 - exponent);
+        if (t < -1.0) {
+            // rounding near the end of the range
+            t = -1.0;
+        }
+        return Math.exp(helper1(t) * x);
+    }
+
+    /**
+     * @return log(1 + x) / x, accurate near 0
+     */
+    private static double helper1(double x) {
+        if (Math.abs(x) > 1e-8) {
+            return Math.log1p(x) / x;
+        }
+        return 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+    }
+
+    /**
+     * @return (exp(x) - 1) / x, accurate near 0
+     */
+    private static double helper2(double x) {
+        if (Math.abs(x) > 1e-8) {
+            return Math.expm1(x) / x;
+        }
+        return 1.0 + x * 0.5 * (1.0 + x * (1.0 / 3.0) * (1.0 + 0.25 * x));
+    }
+}
@@ -0,0 +1,331 @@
+package com.amdelamar.jotp;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Non-blocking verification. Each call returns a CompletableFuture right away, and the work runs
+ * on virtual threads on Java 21 and later, or on a bounded thread pool before that. Checked JCE
+ * exceptions complete the future exceptionally instead of being thrown.
+ *
+ * Requests are queued, and every dispatch to the executor drains up to a batch of them, so a
+ * burst of requests arriving together shares a few dispatches instead of one each. At most
+ * maxPending requests wait at once; beyond that futures fail with RejectedExecutionException.
+ *
+ * A future cancelled before its turn is skipped. With a timeout set, a future that is not done
+ * in time fails with TimeoutException.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class AsyncVerifier implements Closeable {
+
+    /**
+     * Default number of requests each dispatch drains.
+     */
+    public static final int BATCH = 64;
+
+    /**
+     * Default number of requests allowed to wait.
+     */
+    public static final int MAX_PENDING = 1 << 16;
+
+    private static final ScheduledThreadPoolExecutor TIMER = timer();
+
+    private final Executor executor;
+    private final boolean owned;
+    private final int parallelism;
+    private final int batch;
+    private final int maxPending;
+    private final long timeoutMillis;
+
+    private final ConcurrentLinkedQueue<Request> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Async verifier with one worker per processor and no timeout.
+     */
+    public AsyncVerifier() {
+        this(Runtime.getRuntime().availableProcessors(), MAX_PENDING, 0L);
+    }
+
+    /**
+     * Async verifier on virtual threads when available, otherwise on a bounded pool of its own.
+     *
+     * @param workers
+     *            number of batches that run at once, and the pool size when there are no virtual
+     *            threads
+     * @param maxPending
+     *            maximum number of requests waiting
+     * @param timeoutMillis
+     *            time each request may take before it fails, or 0 for none
+     */
+    public AsyncVerifier(int workers, int maxPending, long timeoutMillis) {
+        this(defaultExecutor(workers), true, workers, BATCH, maxPending, timeoutMillis);
+    }
+
+    /**
+     * Async verifier on the given executor, which is not shut down by close().
+     *
+     * @param executor
+     *            executor to run batches on
+     * @param workers
+     *            number of batches submitted to the executor at once
+     * @param batch
+     *            maximum number of requests per batch
+     * @param maxPending
+     *            maximum number of requests waiting
+     * @param timeoutMillis
+     *            time each request may take before it fails, or 0 for none
+     */
+    public AsyncVerifier(Executor executor, int workers, int batch, int maxPending, long timeoutMillis) {
+        this(executor, false, workers, batch, maxPending, timeoutMillis);
+    }
+
+    private AsyncVerifier(Executor executor, boolean owned, int workers, int batch, int maxPending,
+            long timeoutMillis) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null.");
+        }
+        if (workers < 1 || batch < 1 || maxPending < 1) {
+            throw new IllegalArgumentException("Workers, batch and maxPending must be positive integers.");
+        }
+        this.executor = executor;
+        this.owned = owned;
+        this.parallelism = workers;
+        this.batch = batch;
+        this.maxPending = maxPending;
+        this.timeoutMillis = timeoutMillis > 0 ? timeoutMillis : 0L;
+    }
+
+    /**
+     * Verify a code against a window of bases, as OTPKey.verifyWindow().
+     *
+     * @param key
+     *            compiled key
+     * @param code
+     *            An OTP code to check.
+     * @param base
+     *            The counter (HOTP) or time step (TOTP) expected.
+     * @param lookBehind
+     *            number of earlier bases to accept
+     * @param lookAhead
+     *            number of later bases to accept
+     * @return future result
+     */
+    public CompletableFuture<VerifyResult> verify(final OTPKey key, final CharSequence code, final long base,
+            final int lookBehind, final int lookAhead) {
+        return submit(new Request() {
+            @Override
+            VerifyResult verify() throws Exception {
+                return VerifyResult.of(key.verifyWindow(code, base, lookBehind, lookAhead));
+            }
+        });
+    }
+
+    /**
+     * Verify a code, as OTP.verify().
+     *
+     * @param secret
+     *            Shhhhh. (Base32)
+     * @param base
+     *            The base or counter.
+     * @param code
+     *            An OTP code to check.
+     * @param digits
+     *            Length of code (Commonly '6')
+     * @param type
+     *            Type.TOTP or Type.HOTP
+     * @return future result
+     */
+    public CompletableFuture<VerifyResult> verify(final String secret, final String base, final String code,
+            final int digits, final Type type) {
+        return submit(new Request() {
+            @Override
+            VerifyResult verify() throws Exception {
+                return VerifyResult.of(OTP.verify(secret, base, code, digits, type));
+            }
+        });
+    }
+
+    /**
+     * @return number of requests waiting
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stops accepting requests. Queued requests still run, unless the executor is owned and
+     * rejects them, in which case they fail with CancellationException.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (owned && executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    private CompletableFuture<VerifyResult> submit(Request request) {
+        if (closed) {
+            request.completeExceptionally(new RejectedExecutionException("Verifier is closed."));
+            return request;
+        }
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            request.completeExceptionally(new RejectedExecutionException("Too many pending verifications."));
+            return request;
+        }
+        if (timeoutMillis > 0) {
+            final ScheduledFuture<?> timer = TIMER.schedule(
+                    () -> request.completeExceptionally(new TimeoutException("Verification timed out.")),
+                    timeoutMillis, TimeUnit.MILLISECONDS);
+            request.whenComplete((result, error) -> timer.cancel(false));
+        }
+        queue.add(request);
+        signal();
+        return request;
+    }
+
+    /**
+     * Starts another worker if there is room for one.
+     */
+    private void signal() {
+        while (true) {
+            final int running = active.get();
+            if (running >= parallelism) {
+                return;
+            }
+            if (active.compareAndSet(running, running + 1)) {
+                dispatch();
+                return;
+            }
+        }
+    }
+
+    private void dispatch() {
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            active.decrementAndGet();
+            Request request;
+            while ((request = queue.poll()) != null) {
+                pending.decrementAndGet();
+                request.completeExceptionally(new CancellationException("Executor rejected the verification."));
+            }
+        }
+    }
+
+    /**
+     * Runs one batch, then hands the worker back to the executor so other tasks get a turn.
+     */
+    private void drain() {
+        try {
+            Request request;
+            for (int n = 0; n < batch && (request = queue.poll()) != null; n++) {
+                pending.decrementAndGet();
+                request.run();
+            }
+        } finally {
+            // the worker is never lost, even if the batch threw
+            release();
+        }
+    }
+
+    /**
+     * Hands the worker back to the executor while requests are queued, or else frees it.
+     */
+    private void release() {
+        if (!queue.isEmpty()) {
+            dispatch();
+            return;
+        }
+        active.decrementAndGet();
+        // a request may have arrived after the queue looked empty
+        if (!queue.isEmpty()) {
+            signal();
+        }
+    }
+
+    /**
+     * @return number of timeouts still scheduled, for tests
+     */
+    static int scheduledTimeouts() {
+        return TIMER.getQueue().size();
+    }
+
+    /**
+     * Timeout scheduler that drops cancelled timeouts right away, instead of keeping them and
+     * their futures queued until the full timeout has passed.
+     */
+    private static ScheduledThreadPoolExecutor timer() {
+        final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "jotp-async-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private static Executor defaultExecutor(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Workers must be a positive integer.");
+        }
+        try {
+            // Java 21 and later
+            final Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) virtual.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // workers only ever submit this many tasks at once, the queue is just slack
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(workers), r -> {
+                        final Thread thread = new Thread(r, "jotp-async");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    /**
+     * A queued verification and its result.
+     */
+    private abstract static class Request extends CompletableFuture<VerifyResult> {
+
+        abstract VerifyResult verify() throws Exception;
+
+        private void run() {
+            if (isDone()) {
+                // cancelled or timed out while waiting
+                return;
+            }
+            try {
+                complete(verify());
+            } catch (Throwable e) {
+                // also an Error, e.g. from a provider, so the caller never waits forever
+                completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.amdelamar.jotp;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Verifies many one-time-passwords at once. Large batches are split across a ForkJoinPool, and
+ * each worker reuses its own cached Mac. Batches at or below the threshold run sequentially on
+ * the calling thread. Compiled keys are verified a range at a time through OTPKey.verifyAll(),
+ * which computes the built-in HMACs in multi-buffer pairs.
+ *
+ * An entry with invalid parameters (bad secret, base, or code) is reported as not valid instead
+ * of failing the whole batch.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class BatchVerifier {
+
+    /**
+     * Default number of entries per task.
+     */
+    public static final int THRESHOLD = 256;
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    /**
+     * Batch verifier on the common pool with the default threshold.
+     */
+    public BatchVerifier() {
+        this(ForkJoinPool.commonPool(), THRESHOLD);
+    }
+
+    /**
+     * Batch verifier.
+     *
+     * @param pool
+     *            pool to run large batches in
+     * @param threshold
+     *            batches (and tasks) of this size or smaller run sequentially
+     */
+    public BatchVerifier(ForkJoinPool pool, int threshold) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool cannot be null.");
+        }
+        this.pool = pool;
+        this.threshold = threshold < 1 ? 1 : threshold;
+    }
+
+    /**
+     * Verify parallel arrays of secrets, bases and codes, as with OTP.verify().
+     *
+     * @param secrets
+     *            Base32 secrets
+     * @param bases
+     *            The base or counter for each secret.
+     * @param codes
+     *            OTP codes to check.
+     * @param digits
+     *            Length of codes (Commonly '6')
+     * @param type
+     *            Type.TOTP or Type.HOTP
+     * @return true at each index where the code is valid
+     * @throws IllegalArgumentException when the arrays differ in length, or digits/type are invalid
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     */
+    public boolean[] verify(final String[] secrets, final String[] bases, final String[] codes, final int digits,
+            final Type type) throws IllegalArgumentException, NoSuchAlgorithmException {
+        if (secrets.length != bases.length || secrets.length != codes.length) {
+            throw new IllegalArgumentException("Secrets, bases and codes must be the same length.");
+        }
+        validate(digits, type);
+        return run(secrets.length, new Verifier() {
+            @Override
+            public boolean verify(int i) throws NoSuchAlgorithmException {
+                return verifyOne(secrets[i], bases[i], codes[i], digits, type);
+            }
+        });
+    }
+
+    /**
+     * Verify lists of secrets, bases and codes, as with OTP.verify().
+     *
+     * @param secrets
+     *            Base32 secrets
+     * @param bases
+     *            The base or counter for each secret.
+     * @param codes
+     *            OTP codes to check.
+     * @param digits
+     *            Length of codes (Commonly '6')
+     * @param type
+     *            Type.TOTP or Type.HOTP
+     * @return true at each index where the code is valid
+     * @throws IllegalArgumentException when the lists differ in length, or digits/type are invalid
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     */
+    public boolean[] verify(List<String> secrets, List<String> bases, List<String> codes, int digits, Type type)
+            throws IllegalArgumentException, NoSuchAlgorithmException {
+        return verify(secrets.toArray(new String[0]), bases.toArray(new String[0]), codes.toArray(new String[0]),
+                digits, type);
+    }
+
+    /**
+     * Verify codes against compiled keys, skipping the secret decode entirely.
+     *
+     * @param keys
+     *            compiled keys
+     * @param bases
+     *            The counter (HOTP) or time step (TOTP) for each key.
+     * @param codes
+     *            OTP codes to check.
+     * @return true at each index where the code is valid
+     * @throws IllegalArgumentException when the arrays differ in length
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     */
+    public boolean[] verify(final OTPKey[] keys, final long[] bases, final CharSequence[] codes)
+            throws IllegalArgumentException, NoSuchAlgorithmException {
+        if (keys.length != bases.length || keys.length != codes.length) {
+            throw new IllegalArgumentException("Keys, bases and codes must be the same length.");
+        }
+        return run(keys.length, new Verifier() {
+            @Override
+            public boolean verify(int i) throws NoSuchAlgorithmException {
+                final CharSequence code = codes[i];
+                if (keys[i] == null || code == null || code.length() == 0) {
+                    return false;
+                }
+                try {
+                    return keys[i].verify(code, bases[i]);
+                } catch (InvalidKeyException e) {
+                    return false;
+                }
+            }
+
+            @Override
+            public void verify(int from, int to, boolean[] results) throws NoSuchAlgorithmException {
+                verifyKeys(keys, bases, codes, from, to, results);
+            }
+        });
+    }
+
+    private static void validate(int digits, Type type) throws IllegalArgumentException {
+        if (type == null) {
+            throw new IllegalArgumentException("Type cannot be null or empty.");
+        }
+        if (digits <= 0) {
+            throw new IllegalArgumentException("Digits must be a positive integer (e.g. '6').");
+        }
+    }
+
+    private static boolean verifyOne(String secret, String base, String code, int digits, Type type)
+            throws NoSuchAlgorithmException {
+        if (code == null || code.length() != digits || base == null || base.isEmpty()) {
+            return false;
+        }
+        try {
+            final OTPKey key = new OTPKey(secret, digits, type);
+            return key.verify(code, OTPKey.parseBase(base, type));
+        } catch (IllegalArgumentException | InvalidKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Verifies a range of compiled keys together through OTPKey.verifyAll(), which computes the
+     * HMACs in multi-buffer pairs. Falls back to one at a time if a key is rejected.
+     */
+    private static void verifyKeys(OTPKey[] keys, long[] bases, CharSequence[] codes, int from, int to,
+            boolean[] results) throws NoSuchAlgorithmException {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (keys[i] != null && codes[i] != null && codes[i].length() > 0) {
+                count++;
+            }
+        }
+        final OTPKey[] batchKeys = new OTPKey[count];
+        final long[] batchBases = new long[count];
+        final CharSequence[] batchCodes = new CharSequence[count];
+        final int[] index = new int[count];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (keys[i] != null && codes[i] != null && codes[i].length() > 0) {
+                batchKeys[n] = keys[i];
+                batchBases[n] = bases[i];
+                batchCodes[n] = codes[i];
+                index[n++] = i;
+            }
+        }
+        final int[] offsets = new int[count];
+        try {
+            OTPKey.verifyAll(batchKeys, batchCodes, batchBases, 0, 0, offsets);
+        } catch (InvalidKeyException e) {
+            for (int p = 0; p < count; p++) {
+                try {
+                    results[index[p]] = batchKeys[p].verify(batchCodes[p], batchBases[p]);
+                } catch (InvalidKeyException invalid) {
+                    results[index[p]] = false;
+                }
+            }
+            return;
+        }
+        for (int p = 0; p < count; p++) {
+            results[index[p]] = offsets[p] != OTPKey.NO_MATCH;
+        }
+    }
+
+    private boolean[] run(int size, Verifier verifier) throws NoSuchAlgorithmException {
+        final boolean[] results = new boolean[size];
+        if (size <= threshold) {
+            verifier.verify(0, size, results);
+            return results;
+        }
+        try {
+            pool.invoke(new Task(verifier, results, 0, size, threshold));
+        } catch (UndeclaredAlgorithm e) {
+            throw e.cause;
+        }
+        return results;
+    }
+
+    /**
+     * Verifies a single entry of the batch.
+     */
+    private interface Verifier {
+        boolean verify(int index) throws NoSuchAlgorithmException;
+
+        /**
+         * Verifies the entries from (inclusive) to (exclusive) into results.
+         */
+        default void verify(int from, int to, boolean[] results) throws NoSuchAlgorithmException {
+            for (int i = from; i < to; i++) {
+                results[i] = verify(i);
+            }
+        }
+    }
+
+    /**
+     * Carries the checked exception out of the pool.
+     */
+    private static final class UndeclaredAlgorithm extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final NoSuchAlgorithmException cause;
+
+        private UndeclaredAlgorithm(NoSuchAlgorithmException cause) {
+            super(cause);
+            this.cause = cause;
+        }
+    }
+
+    private static final class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Verifier verifier;
+        private final boolean[] results;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        private Task(Verifier verifier, boolean[] results, int from, int to, int threshold) {
+            this.verifier = verifier;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                try {
+                    verifier.verify(from, to, results);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new UndeclaredAlgorithm(e);
+                }
+                return;
+            }
+            final int mid = (from + to) >>> 1;
+            invokeAll(new Task(verifier, results, from, mid, threshold), new Task(verifier, results, mid, to, threshold));
+        }
+    }
+}
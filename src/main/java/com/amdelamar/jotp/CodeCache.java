@@ -0,0 +1,345 @@
+package com.amdelamar.jotp;
+
+import java.io.Closeable;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Utils;
+
+/**
+ * Precomputed TOTP codes for keys that are verified many times per period, such as service
+ * accounts and shared kiosks. For each cached account the codes of the previous, current and
+ * next step are kept ready, so verifying is an int comparison instead of an HMAC.
+ *
+ * Once started, a background thread computes the codes of the coming step shortly before each
+ * step boundary. Cached codes are tagged with the steps they belong to and are only used when
+ * they cover the clock's current window, otherwise the codes are computed on the spot. A late
+ * refresh costs speed, never correctness.
+ *
+ * The cache holds at most capacity accounts. When it is nearly full the refresh evicts the least
+ * frequently verified accounts, with counts halved every period so old traffic fades out. A new
+ * account arriving at a full cache also evicts a few, so hot accounts get in between refreshes
+ * and without the background thread.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class CodeCache implements Closeable {
+
+    /**
+     * Default time before a step boundary that the refresh runs.
+     */
+    public static final long LEAD_MILLIS = 1000L;
+
+    /**
+     * Steps covered by each cached entry: one behind to two ahead of the step it was computed in,
+     * so it stays valid through the next step too.
+     */
+    private static final int SPAN = 4;
+
+    private final StepClock clock;
+    private final int capacity;
+    private final long leadMillis;
+    private final ConcurrentMap<Long, Slot> slots = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Code cache with the default lead time. Call start() to refresh in the background.
+     *
+     * @param clock
+     *            shared clock, with the same period as the cached keys
+     * @param capacity
+     *            maximum number of accounts cached
+     */
+    public CodeCache(StepClock clock, int capacity) {
+        this(clock, capacity, LEAD_MILLIS);
+    }
+
+    /**
+     * Code cache. Call start() to refresh in the background.
+     *
+     * @param clock
+     *            shared clock, with the same period as the cached keys
+     * @param capacity
+     *            maximum number of accounts cached
+     * @param leadMillis
+     *            time before each step boundary that the refresh runs
+     */
+    public CodeCache(StepClock clock, int capacity, long leadMillis) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock cannot be null.");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be a positive integer.");
+        }
+        this.clock = clock;
+        this.capacity = capacity;
+        this.leadMillis = Math.max(0L, Math.min(leadMillis, clock.getPeriod() * 1000L / 2));
+    }
+
+    /**
+     * Starts refreshing on a daemon thread before every step boundary.
+     */
+    public synchronized void start() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "jotp-code-cache");
+                thread.setDaemon(true);
+                return thread;
+            });
+            schedule(scheduler);
+        }
+    }
+
+    /**
+     * Stops the background refresh. Verification keeps working, computing codes as needed.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Checks a TOTP code against the previous, current and next step, newest first, using cached
+     * codes when they are current.
+     *
+     * @param accountId
+     *            account id to cache the codes under
+     * @param key
+     *            the account's TOTP key, with the clock's period. Pass the same instance every
+     *            time, a different one replaces the cached codes.
+     * @param code
+     *            An OTP code to check.
+     * @return offset in steps that matched (-1, 0 or 1), or OTPKey.NO_MATCH
+     * @throws IllegalArgumentException when code is null or empty, or the key does not fit the
+     *             clock
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public int verify(long accountId, OTPKey key, CharSequence code)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        if (key.getType() != Type.TOTP || key.getPeriod() != clock.getPeriod()) {
+            throw new IllegalArgumentException("Key must be Type.TOTP with the clock's period.");
+        }
+        if (code == null || code.length() == 0) {
+            throw new IllegalArgumentException("Code cannot be null or empty.");
+        }
+        if (code.length() != key.getDigits()) {
+            return OTPKey.NO_MATCH;
+        }
+        final int value = Utils.parse(code);
+        if (value < 0) {
+            return OTPKey.NO_MATCH;
+        }
+
+        final long step = clock.step();
+        Slot slot = slots.get(accountId);
+        if (slot == null || slot.key != key) {
+            slot = admit(accountId, key);
+            if (slot == null) {
+                // full, or another key for the account won a race, verify without caching
+                return key.verifyWindow(code, step, 1, 1);
+            }
+        }
+        slot.hits.incrementAndGet();
+
+        Codes codes = slot.codes;
+        if (codes == null || !codes.covers(step)) {
+            codes = compute(key, step, null);
+            slot.codes = codes;
+        }
+        for (int offset = 1; offset >= -1; offset--) {
+            if (codes.get(step + offset) == value) {
+                return offset;
+            }
+        }
+        return OTPKey.NO_MATCH;
+    }
+
+    /**
+     * Computes the codes of the coming step for every cached account, and evicts the least
+     * used accounts when the cache is nearly full. Runs on the background thread once started.
+     *
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public void refresh() throws InvalidKeyException, NoSuchAlgorithmException {
+        final long step = clock.step();
+        for (Slot slot : slots.values()) {
+            slot.codes = compute(slot.key, step, slot.codes);
+            slot.score = slot.score / 2 + slot.hits.getAndSet(0);
+        }
+        if (slots.size() > capacity - capacity / 8) {
+            evict(capacity - capacity / 4);
+        }
+    }
+
+    /**
+     * @return number of accounts cached
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * @return true if the account is cached, for tests
+     */
+    boolean isCached(long accountId) {
+        return slots.containsKey(accountId);
+    }
+
+    /**
+     * Removes an account, for example after its key was rotated.
+     *
+     * @param accountId
+     *            account id
+     */
+    public void remove(long accountId) {
+        slots.remove(accountId);
+    }
+
+    /**
+     * Caches the key for the account.
+     *
+     * @return the account's slot for this key, or null when there is no room or another key
+     *         took the account meanwhile
+     */
+    private Slot admit(long accountId, OTPKey key) {
+        final Slot slot = new Slot(key);
+        final Slot previous = slots.get(accountId);
+        if (previous != null) {
+            // new key for the account, never serve codes of the old one
+            return slots.replace(accountId, previous, slot) ? slot : current(accountId, key);
+        }
+        if (slots.size() >= capacity) {
+            // make room for a few, so the sort is shared by the next admissions
+            evict(Math.min(capacity - 1, capacity - capacity / 8));
+            if (slots.size() >= capacity) {
+                return null;
+            }
+        }
+        final Slot existing = slots.putIfAbsent(accountId, slot);
+        return existing == null ? slot : current(accountId, key);
+    }
+
+    /**
+     * @return the account's slot if it holds this key, or null
+     */
+    private Slot current(long accountId, OTPKey key) {
+        final Slot slot = slots.get(accountId);
+        return slot != null && slot.key == key ? slot : null;
+    }
+
+    /**
+     * Evicts the least used accounts until at most target are left.
+     */
+    private synchronized void evict(int target) {
+        if (slots.size() <= target) {
+            return;
+        }
+        // hits move while sorting, so rank on a snapshot
+        final List<Map.Entry<Long, Slot>> entries = new ArrayList<>(slots.size());
+        final Map<Slot, Long> uses = new HashMap<>();
+        for (Map.Entry<Long, Slot> entry : slots.entrySet()) {
+            entries.add(entry);
+            uses.put(entry.getValue(), entry.getValue().score + entry.getValue().hits.get());
+        }
+        Collections.sort(entries, Comparator.comparingLong(e -> uses.get(e.getValue())));
+        for (int i = 0; i < entries.size() && slots.size() > target; i++) {
+            slots.remove(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+    }
+
+    /**
+     * Codes for SPAN steps starting one behind the step, reusing what the previous codes have.
+     */
+    private static Codes compute(OTPKey key, long step, Codes previous)
+            throws InvalidKeyException, NoSuchAlgorithmException {
+        final long base = step - 1;
+        final int[] values = new int[SPAN];
+        for (int i = 0; i < SPAN; i++) {
+            values[i] = previous != null && previous.key == key && previous.has(base + i)
+                    ? previous.get(base + i)
+                    : key.generate(base + i);
+        }
+        return new Codes(key, base, values);
+    }
+
+    private void schedule(final ScheduledExecutorService executor) {
+        final long delay = Math.max(0L, clock.millisUntilNextStep() - leadMillis);
+        executor.schedule(() -> {
+            try {
+                refresh();
+            } catch (InvalidKeyException | NoSuchAlgorithmException e) {
+                // verify computes the codes itself when the cache misses
+            } finally {
+                if (!executor.isShutdown()) {
+                    // wait out the lead time so the next delay is a full period
+                    schedule(executor, leadMillis + 1);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void schedule(final ScheduledExecutorService executor, long pause) {
+        executor.schedule(() -> schedule(executor), pause, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Immutable codes for consecutive steps.
+     */
+    private static final class Codes {
+        private final OTPKey key;
+        private final long base;
+        private final int[] values;
+
+        private Codes(OTPKey key, long base, int[] values) {
+            this.key = key;
+            this.base = base;
+            this.values = values;
+        }
+
+        private boolean has(long step) {
+            return step >= base && step < base + values.length;
+        }
+
+        private boolean covers(long step) {
+            return has(step - 1) && has(step + 1);
+        }
+
+        private int get(long step) {
+            return values[(int) (step - base)];
+        }
+    }
+
+    /**
+     * A cached account.
+     */
+    private static final class Slot {
+        private final OTPKey key;
+        private final AtomicInteger hits = new AtomicInteger();
+        private volatile Codes codes;
+        /** aged use count, updated by refresh */
+        private volatile long score;
+
+        private Slot(OTPKey key) {
+            this.key = key;
+        }
+    }
+}
@@ -1,15 +1,15 @@
 package com.amdelamar.jotp;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
-import com.amdelamar.jotp.type.HOTP;
-import com.amdelamar.jotp.type.TOTP;
+import com.amdelamar.jotp.metrics.OTPMetrics;
 import com.amdelamar.jotp.type.Type;
-import org.apache.commons.codec.binary.Hex;
+import com.amdelamar.jotp.util.Base32;
+import com.amdelamar.jotp.util.SecureRandoms;
+import com.amdelamar.jotp.util.Utils;
 
 /**
  * OTP (One Time Password) utility in Java. To enable two-factor authentication (2FA) using
@@ -39,7 +39,7 @@ public final class OTP {
     @Deprecated
     public static String random(String characters, int length) {
         final int len = length < 1 ? BYTES : length;
-        final SecureRandom random = new SecureRandom();
+        final SecureRandom random = SecureRandoms.current();
         char[] text = new char[len];
         for (int i = 0; i < len; i++) {
             text[i] = characters.charAt(random.nextInt(characters.length()));
@@ -57,10 +57,9 @@ public final class OTP {
     public static String randomBase32(int length) {
         final int len = length < 1 ? BYTES : length;
         byte[] bytes = new byte[len];
-        final SecureRandom random = new SecureRandom();
-        random.nextBytes(bytes);
+        SecureRandoms.current().nextBytes(bytes);
 
-        return new org.apache.commons.codec.binary.Base32().encodeToString(bytes);
+        return Base32.encode(bytes);
     }
 
     /**
@@ -92,16 +91,35 @@ public final class OTP {
      * @throws IOException
      */
     public static String timeInHex(long timeInMillis, int periodInSec) throws IOException {
-        double period = 1d;
-        if (periodInSec > 1) {
-            // ensure period is 1 or greater value
-            period = periodInSec;
-        }
-        final long time = (long) Math.floor(Math.round(((double) timeInMillis) / 1000d) / period);
-        final byte[] longBytes = ByteBuffer.allocate(Long.SIZE / Byte.SIZE)
-                .putLong(time)
-                .array();
-        return new String(Hex.encodeHex(longBytes));
+        return Utils.toHex(timeStep(timeInMillis, periodInSec));
+    }
+
+    /**
+     * Gets the time step for a time with the default 30 second period, the same value as
+     * timeInHex() without the hex encoding.
+     *
+     * @param timeInMillis
+     *            long (like <code>System.currentTimeMillis()</code>)
+     * @return time step
+     */
+    public static long timeStep(long timeInMillis) {
+        return timeStep(timeInMillis, OTPKey.PERIOD);
+    }
+
+    /**
+     * Gets the time step for a time, rounded to the nearest second and then down to the period.
+     * Pass the result to OTPKey.create() or verify() directly.
+     *
+     * @param timeInMillis
+     *            long (like <code>System.currentTimeMillis()</code>)
+     * @param periodInSec
+     *            int seconds period for the time to be rounded down to
+     * @return time step
+     */
+    public static long timeStep(long timeInMillis, int periodInSec) {
+        // ensure period is 1 or greater value
+        final int period = periodInSec > 1 ? periodInSec : 1;
+        return Math.floorDiv(Math.floorDiv(timeInMillis + 500L, 1000L), period);
     }
 
     /**
@@ -127,22 +145,10 @@ public final class OTP {
             throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
 
         // validate
-        validateParameters(secret, base, digits, type);
+        validate(secret, base, digits, type);
 
-        // Base32 Secret should be UPPERCASED
-        final String uppercaseSecret = secret.toUpperCase();
-
-        // convert Base32 secret to Hex
-        final byte[] bytes = new org.apache.commons.codec.binary.Base32().decode(uppercaseSecret);
-        final String key = new String(Hex.encodeHex(bytes));
-
-        if (type == Type.HOTP) {
-            final HOTP hotp = new HOTP();
-            return hotp.create(key, base, digits);
-        } else {
-            final TOTP totp = new TOTP();
-            return totp.create(key, base, digits);
-        }
+        final OTPKey key = new OTPKey(secret, digits, type);
+        return key.create(OTPKey.parseBase(base, type));
     }
 
     /**
@@ -172,35 +178,42 @@ public final class OTP {
             throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
 
         // validate
-        validateParameters(secret, base, digits, type);
-
-        // Base32 Secret should be UPPERCASED
-        final String uppercaseSecret = secret.toUpperCase();
+        validate(secret, base, digits, type);
 
+        final OTPMetrics metrics = OTPMetrics.current();
         if (code == null || code.isEmpty()) {
+            if (metrics != null) {
+                metrics.recordInvalid();
+            }
             throw new IllegalArgumentException("Code cannot be null or empty.");
         }
         if (code.length() != digits) {
             // code length must match digits
+            if (metrics != null) {
+                metrics.recordInvalid();
+                metrics.recordVerify(false);
+            }
             return false;
         }
 
-        // convert Base32 secret to Hex
-        final byte[] bytes = new org.apache.commons.codec.binary.Base32().decode(uppercaseSecret);
-        final String key = new String(Hex.encodeHex(bytes));
+        final OTPKey key = new OTPKey(secret, digits, type);
+        return key.verify(code, OTPKey.parseBase(base, type));
+    }
 
-        // generate code to compare
-        String ncode = null;
-        if (type == Type.HOTP) {
-            final HOTP hotp = new HOTP();
-            ncode = hotp.create(key, base, digits);
-        } else {
-            final TOTP totp = new TOTP();
-            ncode = totp.create(key, base, digits);
+    /**
+     * Validates the parameters, counting rejected ones when metrics are enabled.
+     */
+    private static void validate(String secret, String base, int digits, Type type)
+            throws IllegalArgumentException {
+        try {
+            validateParameters(secret, base, digits, type);
+        } catch (IllegalArgumentException e) {
+            final OTPMetrics metrics = OTPMetrics.current();
+            if (metrics != null) {
+                metrics.recordInvalid();
+            }
+            throw e;
         }
-
-        // compare OTP codes
-        return code.equals(ncode);
     }
 
     /**
@@ -235,7 +248,8 @@ public final class OTP {
     }
 
     /**
-     * Gets the "otpauth://" URL for adding to 2FA compatible devices/apps.
+     * Gets the "otpauth://" URL for adding to 2FA compatible devices/apps. Issuer and email are
+     * percent-encoded. See OTPAuthWriter for other algorithms and periods, or for many accounts.
      *
      * @param secret
      *            Shhhhh. (Base32)
@@ -254,27 +268,6 @@ public final class OTP {
             throws IllegalArgumentException {
 
         validateParameters(secret, secret, digits, type);
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("otpauth://");
-
-        if (type == Type.HOTP) {
-            sb.append("hotp/");
-        } else {
-            sb.append("totp/");
-        }
-
-        sb.append(issuer + ":");
-        sb.append(email + "?");
-        sb.append("secret=" + secret);
-        sb.append("&issuer=" + issuer);
-        sb.append("&algorithm=SHA1");
-        sb.append("&digits=" + digits);
-
-        if (type == Type.TOTP) {
-            sb.append("&period=30");
-        }
-
-        return sb.toString();
+        return new OTPAuthWriter(issuer, digits, type).toURL(secret, email);
     }
 }
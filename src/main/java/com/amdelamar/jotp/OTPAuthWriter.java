@@ -0,0 +1,377 @@
+package com.amdelamar.jotp;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Hmac;
+
+/**
+ * Writes "otpauth://" enrollment URIs, in the Key Uri Format read by 2FA apps. The label and
+ * parameters are percent-encoded as UTF-8, and each URI is appended straight to a caller supplied
+ * Appendable. Bulk exports of many accounts are streamed as CSV or JSON lines through a reused
+ * buffer, so memory stays constant however many accounts are written.
+ *
+ * Instances are immutable and safe to share between threads.
+ *
+ * @author amdelamar
+ * @see <a href="https://github.com/google/google-authenticator/wiki/Key-Uri-Format">Key Uri Format</a>
+ * @since 1.4.0
+ */
+public final class OTPAuthWriter {
+
+    /**
+     * First line of a CSV export.
+     */
+    public static final String CSV_HEADER = "account,secret,uri";
+
+    /**
+     * Buffered characters before a bulk export writes them out.
+     */
+    private static final int CHUNK = 8192;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final String issuer;
+    private final int digits;
+    private final int period;
+    private final Type type;
+    private final String algorithm;
+
+    /**
+     * Writer of HmacSHA1 URIs with the default 30 second period.
+     *
+     * @param issuer
+     *            Company or Domain name, or null for none
+     * @param digits
+     *            Length of code (Commonly '6')
+     * @param type
+     *            Type.TOTP or Type.HOTP
+     * @throws IllegalArgumentException when parameters are invalid
+     */
+    public OTPAuthWriter(String issuer, int digits, Type type) throws IllegalArgumentException {
+        this(issuer, digits, OTPKey.PERIOD, type, Hmac.HMACSHA1);
+    }
+
+    /**
+     * Writer of URIs with the given algorithm and period.
+     *
+     * @param issuer
+     *            Company or Domain name, or null for none
+     * @param digits
+     *            Length of code (Commonly '6')
+     * @param period
+     *            TOTP period in seconds (Commonly '30'), not written for HOTP
+     * @param type
+     *            Type.TOTP or Type.HOTP
+     * @param algorithm
+     *            Hmac.HMACSHA1, Hmac.HMACSHA256 or Hmac.HMACSHA512
+     * @throws IllegalArgumentException when parameters are invalid
+     */
+    public OTPAuthWriter(String issuer, int digits, int period, Type type, String algorithm)
+            throws IllegalArgumentException {
+        if (type == null) {
+            throw new IllegalArgumentException("Type cannot be null or empty.");
+        }
+        if (digits <= 0) {
+            throw new IllegalArgumentException("Digits must be a positive integer (e.g. '6').");
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be a positive integer (e.g. '30').");
+        }
+        this.issuer = issuer == null || issuer.isEmpty() ? null : issuer;
+        this.digits = digits;
+        this.period = period;
+        this.type = type;
+        this.algorithm = algorithmName(algorithm);
+    }
+
+    /**
+     * Gets the URI for one account, without a HOTP counter.
+     *
+     * @param secret
+     *            Shhhhh. (Base32)
+     * @param account
+     *            Username or Email address
+     * @return otpauth://...
+     * @throws IllegalArgumentException when parameters are invalid
+     */
+    public String toURL(CharSequence secret, CharSequence account) throws IllegalArgumentException {
+        final StringBuilder sb = new StringBuilder(96);
+        append(sb, secret, account, -1L);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the URI for one account.
+     *
+     * @param out
+     *            destination
+     * @param secret
+     *            Shhhhh. (Base32)
+     * @param account
+     *            Username or Email address
+     * @param counter
+     *            initial HOTP counter, or negative to leave it out. Not written for TOTP.
+     * @param <A>
+     *            type of destination
+     * @return out
+     * @throws IOException when appending fails
+     * @throws IllegalArgumentException when parameters are invalid
+     */
+    public <A extends Appendable> A append(A out, CharSequence secret, CharSequence account, long counter)
+            throws IOException, IllegalArgumentException {
+        write(out, secret, account, counter);
+        return out;
+    }
+
+    /**
+     * Appends the URI for one account, as StringBuilder.append, without the checked exception.
+     *
+     * @param sb
+     *            destination
+     * @param secret
+     *            Shhhhh. (Base32)
+     * @param account
+     *            Username or Email address
+     * @param counter
+     *            initial HOTP counter, or negative to leave it out. Not written for TOTP.
+     * @return sb
+     * @throws IllegalArgumentException when parameters are invalid
+     */
+    public StringBuilder append(StringBuilder sb, CharSequence secret, CharSequence account, long counter)
+            throws IllegalArgumentException {
+        try {
+            write(sb, secret, account, counter);
+            return sb;
+        } catch (IOException e) {
+            // StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes a header line and then one "account,secret,uri" line per account. Fields are quoted
+     * as RFC 4180 when needed. HOTP URIs start at counter 0. The writer is not flushed or closed.
+     *
+     * @param accounts
+     *            account name to Base32 secret, e.g. a Map entry set, read once
+     * @param out
+     *            destination
+     * @return number of accounts written
+     * @throws IOException when writing fails
+     * @throws IllegalArgumentException when an account or secret is invalid
+     */
+    public long writeCsv(Iterable<? extends Map.Entry<? extends CharSequence, ? extends CharSequence>> accounts,
+            Writer out) throws IOException, IllegalArgumentException {
+        final Chunk chunk = new Chunk(out);
+        chunk.sb.append(CSV_HEADER).append('\n');
+        long count = 0;
+        for (Map.Entry<? extends CharSequence, ? extends CharSequence> entry : accounts) {
+            final StringBuilder sb = chunk.sb;
+            csv(entry.getKey(), sb);
+            sb.append(',');
+            csv(entry.getValue(), sb);
+            sb.append(',');
+            // percent-encoded, so never needs quoting
+            append(sb, entry.getValue(), entry.getKey(), 0L).append('\n');
+            chunk.written();
+            count++;
+        }
+        chunk.flush();
+        return count;
+    }
+
+    /**
+     * Writes one {"account":..,"secret":..,"uri":..} object per line. HOTP URIs start at counter
+     * 0. The writer is not flushed or closed.
+     *
+     * @param accounts
+     *            account name to Base32 secret, e.g. a Map entry set, read once
+     * @param out
+     *            destination
+     * @return number of accounts written
+     * @throws IOException when writing fails
+     * @throws IllegalArgumentException when an account or secret is invalid
+     */
+    public long writeJsonLines(Iterable<? extends Map.Entry<? extends CharSequence, ? extends CharSequence>> accounts,
+            Writer out) throws IOException, IllegalArgumentException {
+        final Chunk chunk = new Chunk(out);
+        long count = 0;
+        for (Map.Entry<? extends CharSequence, ? extends CharSequence> entry : accounts) {
+            final StringBuilder sb = chunk.sb;
+            sb.append("{\"account\":");
+            json(entry.getKey(), sb);
+            sb.append(",\"secret\":");
+            json(entry.getValue(), sb);
+            // percent-encoded, so never needs escaping
+            sb.append(",\"uri\":\"");
+            append(sb, entry.getValue(), entry.getKey(), 0L).append("\"}\n");
+            chunk.written();
+            count++;
+        }
+        chunk.flush();
+        return count;
+    }
+
+    private void write(Appendable out, CharSequence secret, CharSequence account, long counter)
+            throws IOException {
+        // the Key Uri Format omits Base32 padding, and some apps reject it
+        int end = secret == null ? 0 : secret.length();
+        while (end > 0 && secret.charAt(end - 1) == '=') {
+            end--;
+        }
+        if (end == 0) {
+            throw new IllegalArgumentException("Secret cannot be null or empty.");
+        }
+        if (account == null) {
+            throw new IllegalArgumentException("Account cannot be null.");
+        }
+        out.append(type == Type.HOTP ? "otpauth://hotp/" : "otpauth://totp/");
+        if (issuer != null) {
+            encode(issuer, out);
+            out.append(':');
+        }
+        encode(account, out);
+        out.append("?secret=");
+        encode(end == secret.length() ? secret : secret.subSequence(0, end), out);
+        if (issuer != null) {
+            out.append("&issuer=");
+            encode(issuer, out);
+        }
+        out.append("&algorithm=").append(algorithm);
+        out.append("&digits=").append(Integer.toString(digits));
+        if (type == Type.TOTP) {
+            out.append("&period=").append(Integer.toString(period));
+        } else if (counter >= 0) {
+            out.append("&counter=").append(Long.toString(counter));
+        }
+    }
+
+    /**
+     * Percent-encodes the value as UTF-8. Unreserved characters and '@' are kept, everything else
+     * is encoded, including ':' '&amp;' '=' and spaces.
+     *
+     * @param value
+     *            text to encode
+     * @param out
+     *            destination
+     * @throws IOException when appending fails
+     */
+    static void encode(CharSequence value, Appendable out) throws IOException {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                if (isUnreserved(c)) {
+                    out.append(c);
+                } else {
+                    escape(c, out);
+                }
+            } else if (c < 0x800) {
+                escape(0xc0 | c >> 6, out);
+                escape(0x80 | c & 0x3f, out);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, value.charAt(++i));
+                escape(0xf0 | cp >> 18, out);
+                escape(0x80 | cp >> 12 & 0x3f, out);
+                escape(0x80 | cp >> 6 & 0x3f, out);
+                escape(0x80 | cp & 0x3f, out);
+            } else if (Character.isSurrogate(c)) {
+                throw new IllegalArgumentException("Unpaired surrogate at index " + i + ".");
+            } else {
+                escape(0xe0 | c >> 12, out);
+                escape(0x80 | c >> 6 & 0x3f, out);
+                escape(0x80 | c & 0x3f, out);
+            }
+        }
+    }
+
+    private static boolean isUnreserved(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '.'
+                || c == '_' || c == '~' || c == '@';
+    }
+
+    private static void escape(int b, Appendable out) throws IOException {
+        out.append('%').append(HEX[b >> 4 & 0xf]).append(HEX[b & 0xf]);
+    }
+
+    private static void csv(CharSequence value, StringBuilder sb) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            final char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    private static void json(CharSequence value, StringBuilder sb) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private static String algorithmName(String algorithm) {
+        if (Hmac.HMACSHA1.equals(algorithm)) {
+            return "SHA1";
+        } else if (Hmac.HMACSHA256.equals(algorithm)) {
+            return "SHA256";
+        } else if (Hmac.HMACSHA512.equals(algorithm)) {
+            return "SHA512";
+        }
+        throw new IllegalArgumentException("Algorithm must be HmacSHA1, HmacSHA256 or HmacSHA512.");
+    }
+
+    /**
+     * Reused line buffer for a bulk export, written out in chunks.
+     */
+    private static final class Chunk {
+        private final StringBuilder sb = new StringBuilder(CHUNK + 512);
+        private final char[] chars = new char[CHUNK + 512];
+        private final Writer out;
+
+        private Chunk(Writer out) {
+            this.out = out;
+        }
+
+        /**
+         * Called after each line, writes the buffer out once it is full.
+         */
+        private void written() throws IOException {
+            if (sb.length() >= CHUNK) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            final int n = sb.length();
+            final char[] buffer = n <= chars.length ? chars : new char[n];
+            sb.getChars(0, n, buffer, 0);
+            out.write(buffer, 0, n);
+            sb.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,636 @@
+package com.amdelamar.jotp;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.amdelamar.jotp.metrics.OTPMetrics;
+import com.amdelamar.jotp.metrics.Phase;
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Base32;
+import com.amdelamar.jotp.util.Hmac;
+import com.amdelamar.jotp.util.HmacBackend;
+import com.amdelamar.jotp.util.MultiHmac;
+import com.amdelamar.jotp.util.Utils;
+
+/**
+ * A compiled one-time-password key. The Base32 secret is decoded once, and the resulting key
+ * material is reused for every create and verify call.
+ *
+ * Instances are immutable and safe to share between threads, until destroy() wipes the key.
+ *
+ * @author amdelamar
+ * @see <a href="https://tools.ietf.org/html/rfc4226">https://tools.ietf.org/html/rfc4226</a>
+ * @see <a href="https://tools.ietf.org/html/rfc6238">https://tools.ietf.org/html/rfc6238</a>
+ * @since 1.4.0
+ */
+public final class OTPKey {
+
+    /**
+     * Default TOTP period in seconds.
+     */
+    public static final int PERIOD = 30;
+
+    /**
+     * Returned by the window verify methods when no step in the window matches.
+     */
+    public static final int NO_MATCH = Integer.MIN_VALUE;
+
+    /**
+     * HOTP has always used a fixed truncation offset of 0, while TOTP uses dynamic truncation.
+     */
+    private static final int HOTP_TRUNCATE_OFFSET = 0;
+    private static final int DYNAMIC_TRUNCATION = -1;
+
+    /**
+     * Hash buffer for the instrumented path, large enough for HmacSHA512.
+     */
+    private static final ThreadLocal<byte[]> HASH = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[64];
+        }
+    };
+
+    private final Type type;
+    private final int digits;
+    private final int period;
+    private final int truncationOffset;
+    private final Hmac hmac;
+
+    /**
+     * Compile a key with the default 30 second period.
+     *
+     * @param secret
+     *            Shhhhh. (Base32)
+     * @param digits
+     *            Length of code (Commonly '6')
+     * @param type
+     *            Type.TOTP or Type.HOTP
+     * @throws IllegalArgumentException when parameters are invalid
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public OTPKey(String secret, int digits, Type type)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        this(secret, digits, PERIOD, type);
+    }
+
+    /**
+     * Compile a HmacSHA1 key, with the backend chosen by HmacCalibration.
+     *
+     * @param secret
+     *            Shhhhh. (Base32)
+     * @param digits
+     *            Length of code (Commonly '6')
+     * @param period
+     *            TOTP period in seconds (Commonly '30'). Ignored for HOTP.
+     * @param type
+     *            Type.TOTP or Type.HOTP
+     * @throws IllegalArgumentException when parameters are invalid
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public OTPKey(String secret, int digits, int period, Type type)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        this(secret, digits, period, type, Hmac.HMACSHA1, HmacBackend.AUTO);
+    }
+
+    /**
+     * Compile a key.
+     *
+     * @param secret
+     *            Shhhhh. (Base32)
+     * @param digits
+     *            Length of code (Commonly '6')
+     * @param period
+     *            TOTP period in seconds (Commonly '30'). Ignored for HOTP.
+     * @param type
+     *            Type.TOTP or Type.HOTP
+     * @param algorithm
+     *            HmacSHA1, HmacSHA256, HmacSHA512
+     * @param backend
+     *            HmacBackend.JCE, HmacBackend.JAVA or HmacBackend.AUTO
+     * @throws IllegalArgumentException when parameters are invalid
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public OTPKey(String secret, int digits, int period, Type type, String algorithm, HmacBackend backend)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("Secret cannot be null or empty.");
+        }
+        validate(digits, type, backend);
+
+        final OTPMetrics metrics = OTPMetrics.current();
+        final long start = metrics == null ? 0L : System.nanoTime();
+
+        // Base32 Secret in either case
+        final byte[] bytes = Base32.decode(secret);
+        final byte[] key;
+        if (type == Type.HOTP) {
+            // HOTP keys are the hex encoded secret, same as HOTP.create()
+            key = Utils.hexKey(bytes);
+            Arrays.fill(bytes, (byte) 0);
+            this.truncationOffset = HOTP_TRUNCATE_OFFSET;
+        } else {
+            key = bytes;
+            this.truncationOffset = DYNAMIC_TRUNCATION;
+        }
+        if (metrics != null) {
+            metrics.recordLatency(Phase.DECODE, System.nanoTime() - start);
+        }
+
+        this.type = type;
+        this.digits = digits;
+        this.period = period > 1 ? period : 1;
+        this.hmac = Hmac.getInstance(algorithm, key, backend);
+    }
+
+    /**
+     * Compile a key from the raw secret bytes, for secrets that are never held as a Base32
+     * String (e.g. just unwrapped). The array is not kept or changed, so the caller can clear it
+     * right after.
+     *
+     * @param secret
+     *            Shhhhh. (raw bytes)
+     * @param digits
+     *            Length of code (Commonly '6')
+     * @param period
+     *            TOTP period in seconds (Commonly '30'). Ignored for HOTP.
+     * @param type
+     *            Type.TOTP or Type.HOTP
+     * @param algorithm
+     *            HmacSHA1, HmacSHA256, HmacSHA512
+     * @param backend
+     *            HmacBackend.JCE, HmacBackend.JAVA or HmacBackend.AUTO
+     * @throws IllegalArgumentException when parameters are invalid
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public OTPKey(byte[] secret, int digits, int period, Type type, String algorithm, HmacBackend backend)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        if (secret == null || secret.length == 0) {
+            throw new IllegalArgumentException("Secret cannot be null or empty.");
+        }
+        validate(digits, type, backend);
+
+        // HOTP keys are the hex encoded secret, same as HOTP.create()
+        final byte[] key = type == Type.HOTP ? Utils.hexKey(secret) : secret;
+        try {
+            this.hmac = Hmac.getInstance(algorithm, key, backend);
+        } finally {
+            if (key != secret) {
+                Arrays.fill(key, (byte) 0);
+            }
+        }
+        this.truncationOffset = type == Type.HOTP ? HOTP_TRUNCATE_OFFSET : DYNAMIC_TRUNCATION;
+        this.type = type;
+        this.digits = digits;
+        this.period = period > 1 ? period : 1;
+    }
+
+    private static void validate(int digits, Type type, HmacBackend backend) throws IllegalArgumentException {
+        if (type == null) {
+            throw new IllegalArgumentException("Type cannot be null or empty.");
+        }
+        if (digits <= 0) {
+            throw new IllegalArgumentException("Digits must be a positive integer (e.g. '6').");
+        }
+        if (backend == null) {
+            throw new IllegalArgumentException("Backend cannot be null.");
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getDigits() {
+        return digits;
+    }
+
+    public int getPeriod() {
+        return period;
+    }
+
+    public String getAlgorithm() {
+        return hmac.getAlgorithm();
+    }
+
+    /**
+     * Generate a one-time-password for the given base as an int. Allocates nothing once the
+     * calling thread is warmed up.
+     *
+     * @param base
+     *            The counter (HOTP) or time step (TOTP).
+     * @return code, without leading zeros
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public int generate(long base) throws InvalidKeyException, NoSuchAlgorithmException {
+        final OTPMetrics metrics = OTPMetrics.current();
+        if (metrics != null) {
+            return generate(base, metrics);
+        }
+        final int binary = hmac.truncate(base, truncationOffset);
+        return binary % Utils.modulus(digits);
+    }
+
+    /**
+     * Same as generate(), with the HMAC and truncation timed separately.
+     */
+    private int generate(long base, OTPMetrics metrics) throws InvalidKeyException, NoSuchAlgorithmException {
+        final byte[] hash = HASH.get();
+        final long start = System.nanoTime();
+        hmac.doFinal(base, hash, 0);
+        final long computed = System.nanoTime();
+        final int binary = Utils.truncate(hash, hmac.getMacLength(), truncationOffset);
+        final int code = binary % Utils.modulus(digits);
+        metrics.recordLatency(Phase.HMAC, computed - start);
+        metrics.recordLatency(Phase.TRUNCATE, System.nanoTime() - computed);
+        return code;
+    }
+
+    /**
+     * Create a one-time-password for the given base.
+     *
+     * @param base
+     *            The counter (HOTP) or time step (TOTP).
+     * @return code
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public String create(long base) throws InvalidKeyException, NoSuchAlgorithmException {
+        recordCreate();
+        return Utils.toString(generate(base), digits);
+    }
+
+    /**
+     * Create a one-time-password for the given base, writing the zero padded digits into dst.
+     *
+     * @param base
+     *            The counter (HOTP) or time step (TOTP).
+     * @param dst
+     *            destination, with room for digits characters
+     * @param offset
+     *            index of the first character
+     * @return code as an int
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public int create(long base, char[] dst, int offset) throws InvalidKeyException, NoSuchAlgorithmException {
+        recordCreate();
+        final int code = generate(base);
+        Utils.format(code, digits, dst, offset);
+        return code;
+    }
+
+    /**
+     * Create a one-time-password for the given base, writing the zero padded ASCII digits into
+     * dst.
+     *
+     * @param base
+     *            The counter (HOTP) or time step (TOTP).
+     * @param dst
+     *            destination, with room for digits bytes
+     * @param offset
+     *            index of the first byte
+     * @return code as an int
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public int create(long base, byte[] dst, int offset) throws InvalidKeyException, NoSuchAlgorithmException {
+        recordCreate();
+        final int code = generate(base);
+        Utils.format(code, digits, dst, offset);
+        return code;
+    }
+
+    /**
+     * Returns true if the code is valid for the given base.
+     *
+     * @param code
+     *            An OTP code to check.
+     * @param base
+     *            The counter (HOTP) or time step (TOTP).
+     * @return true if valid
+     * @throws IllegalArgumentException when code is null or empty
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public boolean verify(CharSequence code, long base)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        if (code == null || code.length() == 0) {
+            throw new IllegalArgumentException("Code cannot be null or empty.");
+        }
+        if (code.length() != digits) {
+            // code length must match digits
+            recordRejected();
+            return false;
+        }
+        final int expected = generate(base);
+        final OTPMetrics metrics = OTPMetrics.current();
+        if (metrics == null) {
+            return Utils.matches(expected, digits, code);
+        }
+        final long start = System.nanoTime();
+        final boolean valid = Utils.matches(expected, digits, code);
+        metrics.recordLatency(Phase.COMPARE, System.nanoTime() - start);
+        metrics.recordVerify(valid);
+        return valid;
+    }
+
+    /**
+     * Returns true if the int code is valid for the given base.
+     *
+     * @param code
+     *            An OTP code to check, as returned by generate().
+     * @param base
+     *            The counter (HOTP) or time step (TOTP).
+     * @return true if valid
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public boolean verify(int code, long base) throws InvalidKeyException, NoSuchAlgorithmException {
+        final boolean valid = code == generate(base);
+        final OTPMetrics metrics = OTPMetrics.current();
+        if (metrics != null) {
+            metrics.recordVerify(valid);
+        }
+        return valid;
+    }
+
+    /**
+     * Checks the code against a window of bases around the given one, newest first, and returns
+     * the offset of the base that matched. The key is prepared once for the whole window.
+     *
+     * @param code
+     *            An OTP code to check.
+     * @param base
+     *            The counter (HOTP) or time step (TOTP) expected.
+     * @param lookBehind
+     *            number of earlier bases to accept (e.g. '1' for one step of clock drift)
+     * @param lookAhead
+     *            number of later bases to accept
+     * @return offset from base that matched (e.g. -1, 0, 1), or NO_MATCH
+     * @throws IllegalArgumentException when code is null or empty, or the window is negative
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public int verifyWindow(CharSequence code, long base, int lookBehind, int lookAhead)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        if (code == null || code.length() == 0) {
+            throw new IllegalArgumentException("Code cannot be null or empty.");
+        }
+        if (lookBehind < 0 || lookAhead < 0) {
+            throw new IllegalArgumentException("Window cannot be negative.");
+        }
+        if (code.length() != digits) {
+            // code length must match digits
+            recordRejected();
+            return NO_MATCH;
+        }
+        final int value = Utils.parse(code);
+        if (value < 0) {
+            // not a number, no need to compute anything
+            recordRejected();
+            return NO_MATCH;
+        }
+        final OTPMetrics metrics = OTPMetrics.current();
+        for (int offset = lookAhead; offset >= -lookBehind; offset--) {
+            if (generate(base + offset) == value) {
+                if (metrics != null) {
+                    metrics.recordVerify(true);
+                    metrics.recordOffset(offset);
+                }
+                return offset;
+            }
+        }
+        if (metrics != null) {
+            metrics.recordVerify(false);
+        }
+        return NO_MATCH;
+    }
+
+    /**
+     * Checks a TOTP code against a window of time steps around the given time, newest first.
+     *
+     * @param code
+     *            An OTP code to check.
+     * @param timeInMillis
+     *            long (like <code>System.currentTimeMillis()</code>)
+     * @param lookBehind
+     *            number of earlier steps to accept (e.g. '1' for one step of clock drift)
+     * @param lookAhead
+     *            number of later steps to accept
+     * @return offset in steps that matched (e.g. -1, 0, 1), or NO_MATCH
+     * @throws IllegalArgumentException when code is null or empty, or the window is negative
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public int verifyTime(CharSequence code, long timeInMillis, int lookBehind, int lookAhead)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        return verifyWindow(code, timeStep(timeInMillis), lookBehind, lookAhead);
+    }
+
+    /**
+     * Checks a TOTP code against a window of time steps around the clock's current step, newest
+     * first.
+     *
+     * @param code
+     *            An OTP code to check.
+     * @param clock
+     *            shared clock with the same period as this key
+     * @param lookBehind
+     *            number of earlier steps to accept (e.g. '1' for one step of clock drift)
+     * @param lookAhead
+     *            number of later steps to accept
+     * @return offset in steps that matched (e.g. -1, 0, 1), or NO_MATCH
+     * @throws IllegalArgumentException when code is null or empty, the window is negative, or
+     *             the clock period differs
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public int verifyTime(CharSequence code, StepClock clock, int lookBehind, int lookAhead)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        if (clock.getPeriod() != period) {
+            throw new IllegalArgumentException("Clock period must match the key period.");
+        }
+        return verifyWindow(code, clock.step(), lookBehind, lookAhead);
+    }
+
+    /**
+     * Checks a batch of codes, each against a window of bases around its own base, newest first.
+     * Gives the same offsets as calling verifyWindow() for each key, but computes each round of
+     * the window for the whole batch at once, with the JAVA backend HmacSHA1 and HmacSHA256 keys
+     * computed in pairs by MultiHmac.
+     *
+     * @param keys
+     *            compiled keys, of any type, algorithm, and backend
+     * @param codes
+     *            An OTP code to check for each key.
+     * @param bases
+     *            The counter (HOTP) or time step (TOTP) for each key.
+     * @param lookBehind
+     *            number of earlier bases to accept
+     * @param lookAhead
+     *            number of later bases to accept
+     * @param offsets
+     *            destination for the offset from base that matched, or NO_MATCH, for each key
+     * @throws IllegalArgumentException when a code is null or empty, the window is negative, or
+     *             the arrays differ in length
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public static void verifyAll(OTPKey[] keys, CharSequence[] codes, long[] bases, int lookBehind, int lookAhead,
+            int[] offsets) throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        final int n = keys.length;
+        if (codes.length != n || bases.length != n || offsets.length != n) {
+            throw new IllegalArgumentException("Keys, codes, bases and offsets must be the same length.");
+        }
+        if (lookBehind < 0 || lookAhead < 0) {
+            throw new IllegalArgumentException("Window cannot be negative.");
+        }
+
+        // keys still looking for a match, and their expected codes
+        final int[] pending = new int[n];
+        final int[] values = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            final CharSequence code = codes[i];
+            if (code == null || code.length() == 0) {
+                throw new IllegalArgumentException("Code cannot be null or empty.");
+            }
+            offsets[i] = NO_MATCH;
+            final int value = code.length() == keys[i].digits ? Utils.parse(code) : -1;
+            if (value < 0) {
+                recordRejected();
+            } else {
+                values[i] = value;
+                pending[count++] = i;
+            }
+        }
+
+        final Hmac[] hmacs = new Hmac[count];
+        final long[] messages = new long[count];
+        final int[] truncations = new int[count];
+        final int[] binaries = new int[count];
+        final OTPMetrics metrics = OTPMetrics.current();
+        for (int offset = lookAhead; offset >= -lookBehind && count > 0; offset--) {
+            for (int p = 0; p < count; p++) {
+                final OTPKey key = keys[pending[p]];
+                hmacs[p] = key.hmac;
+                messages[p] = bases[pending[p]] + offset;
+                truncations[p] = key.truncationOffset;
+            }
+            MultiHmac.truncate(hmacs, messages, truncations, binaries, count);
+            int left = 0;
+            for (int p = 0; p < count; p++) {
+                final int i = pending[p];
+                if (binaries[p] % Utils.modulus(keys[i].digits) == values[i]) {
+                    offsets[i] = offset;
+                    if (metrics != null) {
+                        metrics.recordVerify(true);
+                        metrics.recordOffset(offset);
+                    }
+                } else {
+                    pending[left++] = i;
+                }
+            }
+            count = left;
+        }
+        if (metrics != null) {
+            for (int p = 0; p < count; p++) {
+                metrics.recordVerify(false);
+            }
+        }
+    }
+
+    /**
+     * Checks a batch of TOTP codes against a window of time steps around the given time, as
+     * verifyAll() with each key's own time step.
+     *
+     * @param keys
+     *            compiled keys
+     * @param codes
+     *            An OTP code to check for each key.
+     * @param timeInMillis
+     *            long (like <code>System.currentTimeMillis()</code>)
+     * @param lookBehind
+     *            number of earlier steps to accept
+     * @param lookAhead
+     *            number of later steps to accept
+     * @param offsets
+     *            destination for the offset in steps that matched, or NO_MATCH, for each key
+     * @throws IllegalArgumentException when a code is null or empty, the window is negative, or
+     *             the arrays differ in length
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public static void verifyTimeAll(OTPKey[] keys, CharSequence[] codes, long timeInMillis, int lookBehind,
+            int lookAhead, int[] offsets) throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        final long[] bases = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            bases[i] = keys[i].timeStep(timeInMillis);
+        }
+        verifyAll(keys, codes, bases, lookBehind, lookAhead, offsets);
+    }
+
+    /**
+     * Clears the key material of a key that is no longer needed. Keys compiled with the JAVA
+     * backend are wiped; the JCE keeps its own copy of the key, which is left to the garbage
+     * collector. The key must not be used afterwards.
+     */
+    public void destroy() {
+        hmac.destroy();
+    }
+
+    /**
+     * Gets the time step for a time, rounded to the nearest second and then down to the period,
+     * the same as OTP.timeInHex().
+     *
+     * @param timeInMillis
+     *            long (like <code>System.currentTimeMillis()</code>)
+     * @return time step
+     */
+    public long timeStep(long timeInMillis) {
+        return OTP.timeStep(timeInMillis, period);
+    }
+
+    private static void recordCreate() {
+        final OTPMetrics metrics = OTPMetrics.current();
+        if (metrics != null) {
+            metrics.recordCreate();
+        }
+    }
+
+    /**
+     * Counts a malformed code, and the failed verification it ends.
+     */
+    private static void recordRejected() {
+        final OTPMetrics metrics = OTPMetrics.current();
+        if (metrics != null) {
+            metrics.recordInvalid();
+            metrics.recordVerify(false);
+        }
+    }
+
+    /**
+     * Parses the String base used by the static OTP methods. HOTP uses a decimal counter and
+     * TOTP uses hex time.
+     *
+     * @param base
+     *            The base or counter.
+     * @param type
+     *            Type.TOTP or Type.HOTP
+     * @return base as a long
+     * @throws IllegalArgumentException when base is not a number
+     */
+    static long parseBase(String base, Type type) throws IllegalArgumentException {
+        if (type == Type.HOTP) {
+            return Long.parseLong(base);
+        }
+        return Long.parseUnsignedLong(base, 16);
+    }
+}
@@ -0,0 +1,184 @@
+package com.amdelamar.jotp;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.LongUnaryOperator;
+
+import com.amdelamar.jotp.util.AccountTable;
+
+/**
+ * Rejects one-time-passwords that were already used. RFC 6238 requires a verifier to not accept
+ * the same code twice, so this remembers the last accepted time step per account and only
+ * accepts later steps.
+ *
+ * The steps are kept in a bounded, lock-free AccountTable. An account's entry is dropped once its
+ * last step falls behind every step the verification window can still accept, so the table only
+ * needs to hold accounts that logged in recently.
+ *
+ * A guard is bound to one period and reads the current step from its own StepClock. Only steps in
+ * the window around that step are accepted, so a step from a bad clock or a key with another
+ * period cannot push the window forward for every other account.
+ *
+ * @author amdelamar
+ * @see <a href="https://tools.ietf.org/html/rfc6238#section-5.2">https://tools.ietf.org/html/rfc6238#section-5.2</a>
+ * @since 1.4.0
+ */
+public final class ReplayGuard {
+
+    /**
+     * Default number of lock stripes.
+     */
+    public static final int STRIPES = 64;
+
+    private final AccountTable table;
+    private final int lookBehind;
+    private final int lookAhead;
+    private final StepClock clock;
+
+    /**
+     * Replay guard for 30 second keys on the system time, with a verification window of one step
+     * behind and one ahead.
+     *
+     * @param capacity
+     *            maximum number of accounts remembered at once
+     */
+    public ReplayGuard(int capacity) {
+        this(capacity, STRIPES, 1, 1);
+    }
+
+    /**
+     * Replay guard for 30 second keys on the system time.
+     *
+     * @param capacity
+     *            maximum number of accounts remembered at once
+     * @param stripes
+     *            number of lock stripes
+     * @param lookBehind
+     *            number of earlier steps the verification window accepts
+     * @param lookAhead
+     *            number of later steps the verification window accepts
+     */
+    public ReplayGuard(int capacity, int stripes, int lookBehind, int lookAhead) {
+        this(capacity, stripes, lookBehind, lookAhead, new StepClock());
+    }
+
+    /**
+     * Replay guard for the keys of one period.
+     *
+     * @param capacity
+     *            maximum number of accounts remembered at once
+     * @param stripes
+     *            number of lock stripes
+     * @param lookBehind
+     *            number of earlier steps the verification window accepts
+     * @param lookAhead
+     *            number of later steps the verification window accepts
+     * @param clock
+     *            current time step, with the period of every key verified
+     */
+    public ReplayGuard(int capacity, int stripes, int lookBehind, int lookAhead, StepClock clock) {
+        if (lookBehind < 0 || lookAhead < 0) {
+            throw new IllegalArgumentException("Window cannot be negative.");
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock cannot be null.");
+        }
+        this.lookBehind = lookBehind;
+        this.lookAhead = lookAhead;
+        this.clock = clock;
+        this.table = new AccountTable(capacity, stripes, step -> step < clock.step() - lookBehind);
+    }
+
+    /**
+     * Records the time step as used by the account, if it is later than the last one accepted.
+     *
+     * @param accountId
+     *            account id
+     * @param step
+     *            TOTP time step of the code that was verified
+     * @return true if accepted, false if this step (or a later one) was already used, the step
+     *         is outside the window around the clock's step, or the guard is full of recent
+     *         accounts
+     */
+    public boolean accept(long accountId, final long step) {
+        if (step < 0 || step > AccountTable.MAX_VALUE) {
+            throw new IllegalArgumentException("Step is out of range.");
+        }
+        final long now = clock.step();
+        if (step < now - lookBehind || step > now + lookAhead) {
+            return false;
+        }
+
+        final LongUnaryOperator later = last -> last == AccountTable.MISSING || step > last ? step : last;
+        final long last;
+        try {
+            last = table.getAndUpdate(accountId, later);
+        } catch (IllegalStateException e) {
+            // full of accounts inside the window, fail closed
+            return false;
+        }
+        return last == AccountTable.MISSING || step > last;
+    }
+
+    /**
+     * Verifies a TOTP code in the guard's window and records the matching step.
+     *
+     * @param key
+     *            the account's compiled key
+     * @param accountId
+     *            account id
+     * @param code
+     *            An OTP code to check.
+     * @param timeInMillis
+     *            long (like <code>System.currentTimeMillis()</code>)
+     * @return offset in steps that matched, or OTPKey.NO_MATCH if invalid or already used
+     * @throws IllegalArgumentException when code is null or empty, or the key period differs
+     *             from the guard's
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public int verify(OTPKey key, long accountId, CharSequence code, long timeInMillis)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        if (key.getPeriod() != clock.getPeriod()) {
+            throw new IllegalArgumentException("Key period must match the guard period.");
+        }
+        final long step = key.timeStep(timeInMillis);
+        final int offset = key.verifyWindow(code, step, lookBehind, lookAhead);
+        if (offset == OTPKey.NO_MATCH || !accept(accountId, step + offset)) {
+            return OTPKey.NO_MATCH;
+        }
+        return offset;
+    }
+
+    /**
+     * Gets the last accepted time step of the account.
+     *
+     * @param accountId
+     *            account id
+     * @return step, or -1 if none is remembered
+     */
+    public long lastStep(long accountId) {
+        return table.get(accountId);
+    }
+
+    /**
+     * Drops every account whose last step is outside the window. This also happens on its own
+     * when the guard fills up.
+     *
+     * @return number of accounts dropped
+     */
+    public int expire() {
+        return table.expire();
+    }
+
+    /**
+     * @return number of accounts remembered
+     */
+    public int size() {
+        return table.size();
+    }
+
+    public int getPeriod() {
+        return clock.getPeriod();
+    }
+}
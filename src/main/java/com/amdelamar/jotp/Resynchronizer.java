@@ -0,0 +1,247 @@
+package com.amdelamar.jotp;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amdelamar.jotp.metrics.OTPMetrics;
+import com.amdelamar.jotp.util.Utils;
+
+/**
+ * Finds where a drifted HOTP token is, by searching a large window of counters ahead of the
+ * stored one. RFC 4226 suggests asking the user for two consecutive codes when the window is
+ * large, so a chance match on one code is not enough.
+ *
+ * The search reuses the compiled key, so each counter costs only the message and finalization
+ * blocks. Windows larger than the threshold are split across a ForkJoinPool. Once a match is
+ * found, ranges after it are abandoned, while ranges before it still finish so the earliest
+ * match wins.
+ *
+ * @author amdelamar
+ * @see <a href="https://tools.ietf.org/html/rfc4226#section-7.4">https://tools.ietf.org/html/rfc4226#section-7.4</a>
+ * @since 1.4.0
+ */
+public final class Resynchronizer {
+
+    /**
+     * Default number of counters per task.
+     */
+    public static final int THRESHOLD = 512;
+
+    /**
+     * Counters between checks for a match found by another task.
+     */
+    private static final int CHECK_EVERY = 64;
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    /**
+     * Resynchronizer on the common pool with the default threshold.
+     */
+    public Resynchronizer() {
+        this(ForkJoinPool.commonPool(), THRESHOLD);
+    }
+
+    /**
+     * Resynchronizer.
+     *
+     * @param pool
+     *            pool to search large windows in
+     * @param threshold
+     *            windows (and tasks) of this many counters or fewer are searched sequentially
+     */
+    public Resynchronizer(ForkJoinPool pool, int threshold) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool cannot be null.");
+        }
+        this.pool = pool;
+        this.threshold = threshold < 1 ? 1 : threshold;
+    }
+
+    /**
+     * Searches for the first counter from the stored one to lookAhead past it whose code
+     * matches.
+     *
+     * @param key
+     *            the token's compiled key
+     * @param code
+     *            An OTP code from the token.
+     * @param counter
+     *            the stored counter
+     * @param lookAhead
+     *            number of later counters to search
+     * @return offset from counter that matched, or OTPKey.NO_MATCH. The next counter to store
+     *         is counter + offset + 1.
+     * @throws IllegalArgumentException when code is null or empty, or the window is negative
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public int resync(OTPKey key, CharSequence code, long counter, int lookAhead)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        return resync(key, code, null, counter, lookAhead);
+    }
+
+    /**
+     * Searches for the first counter from the stored one to lookAhead past it where code matches
+     * and next matches the counter after it.
+     *
+     * @param key
+     *            the token's compiled key
+     * @param code
+     *            An OTP code from the token.
+     * @param next
+     *            the code the token showed after it, or null to only check one code
+     * @param counter
+     *            the stored counter
+     * @param lookAhead
+     *            number of later counters to search for the first code
+     * @return offset from counter of the first code, or OTPKey.NO_MATCH. The next counter to
+     *         store is counter + offset + 2, or + 1 without a next code.
+     * @throws IllegalArgumentException when a code is empty, or the window is negative
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public int resync(OTPKey key, CharSequence code, CharSequence next, long counter, int lookAhead)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null.");
+        }
+        if (code == null || code.length() == 0 || (next != null && next.length() == 0)) {
+            throw new IllegalArgumentException("Code cannot be null or empty.");
+        }
+        if (lookAhead < 0) {
+            throw new IllegalArgumentException("Window cannot be negative.");
+        }
+        final OTPMetrics metrics = OTPMetrics.current();
+        final int first = parse(key, code);
+        final int second = next == null ? -1 : parse(key, next);
+        if (first < 0 || (next != null && second < 0)) {
+            // not a code of this key, no need to compute anything
+            if (metrics != null) {
+                metrics.recordInvalid();
+                metrics.recordVerify(false);
+            }
+            return OTPKey.NO_MATCH;
+        }
+
+        final Search search = new Search(key, counter, first, second);
+        final long size = lookAhead + 1L;
+        if (size <= threshold) {
+            search.scan(0L, size);
+        } else {
+            try {
+                pool.invoke(new Task(search, 0L, size, threshold));
+            } catch (UndeclaredKey e) {
+                if (e.cause instanceof InvalidKeyException) {
+                    throw (InvalidKeyException) e.cause;
+                }
+                throw (NoSuchAlgorithmException) e.cause;
+            }
+        }
+
+        final long found = search.found.get();
+        if (metrics != null) {
+            metrics.recordVerify(found != Long.MAX_VALUE);
+            if (found != Long.MAX_VALUE) {
+                metrics.recordOffset((int) found);
+            }
+        }
+        return found == Long.MAX_VALUE ? OTPKey.NO_MATCH : (int) found;
+    }
+
+    /**
+     * @return the code as an int, or -1 if it cannot be one of the key's codes
+     */
+    private static int parse(OTPKey key, CharSequence code) {
+        return code.length() == key.getDigits() ? Utils.parse(code) : -1;
+    }
+
+    /**
+     * One search, shared by its tasks.
+     */
+    private static final class Search {
+        private final OTPKey key;
+        private final long counter;
+        private final int first;
+        private final int second;
+        /** lowest offset matched so far */
+        private final AtomicLong found = new AtomicLong(Long.MAX_VALUE);
+
+        private Search(OTPKey key, long counter, int first, int second) {
+            this.key = key;
+            this.counter = counter;
+            this.first = first;
+            this.second = second;
+        }
+
+        /**
+         * Searches the offsets from (inclusive) to (exclusive), stopping early once an earlier
+         * offset has matched.
+         */
+        private void scan(long from, long to) throws InvalidKeyException, NoSuchAlgorithmException {
+            for (long offset = from; offset < to; offset++) {
+                if ((offset - from) % CHECK_EVERY == 0 && found.get() < offset) {
+                    return;
+                }
+                if (key.generate(counter + offset) == first
+                        && (second < 0 || key.generate(counter + offset + 1) == second)) {
+                    long current = found.get();
+                    while (offset < current && !found.compareAndSet(current, offset)) {
+                        current = found.get();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Carries the checked exceptions out of the pool.
+     */
+    private static final class UndeclaredKey extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final Exception cause;
+
+        private UndeclaredKey(Exception cause) {
+            super(cause);
+            this.cause = cause;
+        }
+    }
+
+    private static final class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Search search;
+        private final long from;
+        private final long to;
+        private final int threshold;
+
+        private Task(Search search, long from, long to, int threshold) {
+            this.search = search;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (search.found.get() < from) {
+                // an earlier counter already matched
+                return;
+            }
+            if (to - from <= threshold) {
+                try {
+                    search.scan(from, to);
+                } catch (InvalidKeyException | NoSuchAlgorithmException e) {
+                    throw new UndeclaredKey(e);
+                }
+                return;
+            }
+            final long mid = (from + to) >>> 1;
+            invokeAll(new Task(search, from, mid, threshold), new Task(search, mid, to, threshold));
+        }
+    }
+}
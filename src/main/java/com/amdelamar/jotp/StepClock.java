@@ -0,0 +1,123 @@
+package com.amdelamar.jotp;
+
+import java.time.Clock;
+
+import com.amdelamar.jotp.util.Utils;
+
+/**
+ * Coarse TOTP clock that works out the current time step once per period and shares it. Every
+ * call in the same step gets the cached step, hex time and 8 byte message, so only reading the
+ * clock is left per request.
+ *
+ * Pass a fixed or offset java.time.Clock to control time in tests.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class StepClock {
+
+    private final Clock clock;
+    private final int period;
+    private volatile Step current;
+
+    /**
+     * Clock on the system time with the default 30 second period.
+     */
+    public StepClock() {
+        this(OTPKey.PERIOD, Clock.systemUTC());
+    }
+
+    /**
+     * Clock on the system time.
+     *
+     * @param periodInSec
+     *            TOTP period in seconds (Commonly '30')
+     */
+    public StepClock(int periodInSec) {
+        this(periodInSec, Clock.systemUTC());
+    }
+
+    /**
+     * Clock on the given time source.
+     *
+     * @param periodInSec
+     *            TOTP period in seconds (Commonly '30')
+     * @param clock
+     *            time source
+     */
+    public StepClock(int periodInSec, Clock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock cannot be null.");
+        }
+        this.clock = clock;
+        this.period = periodInSec > 1 ? periodInSec : 1;
+    }
+
+    public int getPeriod() {
+        return period;
+    }
+
+    /**
+     * @return the current time step, as OTP.timeStep()
+     */
+    public long step() {
+        return current().step;
+    }
+
+    /**
+     * @return the current time step in hex, as OTP.timeInHex()
+     */
+    public String hex() {
+        return current().hex;
+    }
+
+    /**
+     * @return copy of the current 8 byte big-endian message
+     */
+    public byte[] message() {
+        return current().message.clone();
+    }
+
+    /**
+     * @return milliseconds until the next time step starts
+     */
+    public long millisUntilNextStep() {
+        final long now = clock.millis();
+        final Step step = current(now);
+        return step.end - now;
+    }
+
+    private Step current() {
+        return current(clock.millis());
+    }
+
+    private Step current(long now) {
+        Step step = current;
+        if (step == null || now < step.start || now >= step.end) {
+            // first call in a new step, or the clock went backwards
+            step = new Step(OTP.timeStep(now, period), period);
+            current = step;
+        }
+        return step;
+    }
+
+    /**
+     * A time step and the range of times that round to it.
+     */
+    private static final class Step {
+        private final long step;
+        private final long start;
+        private final long end;
+        private final String hex;
+        private final byte[] message;
+
+        private Step(long step, int period) {
+            this.step = step;
+            // times are rounded to the nearest second, so each step starts half a second early
+            this.start = step * period * 1000L - 500L;
+            this.end = start + period * 1000L;
+            this.hex = Utils.toHex(step);
+            this.message = Utils.toBytes(step);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.amdelamar.jotp;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import com.amdelamar.jotp.metrics.OTPMetrics;
+import com.amdelamar.jotp.util.AccountTable;
+
+/**
+ * Limits how fast codes can be guessed for an account. Each attempt is counted before the code is
+ * checked, and a successful one clears the count. After a number of free attempts the account is
+ * locked out for a while after each further attempt, twice as long each time up to a maximum.
+ * Refused attempts cost one lock-free read, and no decoding or HMAC work.
+ *
+ * The count and the time of the last attempt are packed into one value per account in a bounded,
+ * lock-free AccountTable, and updated with a single CAS. Accounts are forgotten once they
+ * succeed, or once they have made no attempt for the time-to-live. Times are kept to 10ms.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class Throttle {
+
+    /**
+     * Default number of lock stripes.
+     */
+    public static final int STRIPES = 64;
+
+    /**
+     * Default number of attempts before lockouts start.
+     */
+    public static final int FREE_ATTEMPTS = 5;
+
+    /**
+     * Default first lockout, in milliseconds.
+     */
+    public static final long BASE_LOCKOUT = 1000L;
+
+    /**
+     * Default longest lockout and time-to-live, in milliseconds.
+     */
+    public static final long MAX_LOCKOUT = 15 * 60 * 1000L;
+
+    /**
+     * State layout: attempt count in the top 8 bits, then the time of the last attempt in 40
+     * bits of ticks since the epoch, good until the 24th century.
+     */
+    private static final long TICK = 10L;
+    private static final int TIME_BITS = 40;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+    private static final long MAX_ATTEMPTS = 0xFEL;
+
+    private final AccountTable table;
+    private final int freeAttempts;
+    private final long baseLockout;
+    private final long maxLockout;
+    private final long ttl;
+
+    /**
+     * Latest tick seen, for expiring accounts. Only moves forward.
+     */
+    private volatile long clock;
+
+    /**
+     * Throttle with 5 free attempts, then lockouts from 1 second up to 15 minutes.
+     *
+     * @param capacity
+     *            maximum number of accounts tracked at once
+     */
+    public Throttle(int capacity) {
+        this(capacity, STRIPES, FREE_ATTEMPTS, BASE_LOCKOUT, MAX_LOCKOUT, MAX_LOCKOUT);
+    }
+
+    /**
+     * Throttle.
+     *
+     * @param capacity
+     *            maximum number of accounts tracked at once
+     * @param stripes
+     *            number of lock stripes
+     * @param freeAttempts
+     *            attempts allowed before lockouts start
+     * @param baseLockoutMillis
+     *            first lockout, doubled for every further attempt
+     * @param maxLockoutMillis
+     *            longest lockout
+     * @param ttlMillis
+     *            time without attempts after which an account is forgotten, at least the
+     *            longest lockout
+     */
+    public Throttle(int capacity, int stripes, int freeAttempts, long baseLockoutMillis, long maxLockoutMillis,
+            long ttlMillis) {
+        if (freeAttempts < 0 || freeAttempts > MAX_ATTEMPTS) {
+            throw new IllegalArgumentException("Free attempts must be between 0 and " + MAX_ATTEMPTS + ".");
+        }
+        if (baseLockoutMillis < TICK || maxLockoutMillis < baseLockoutMillis) {
+            throw new IllegalArgumentException("Lockouts must be at least " + TICK + "ms, base up to max.");
+        }
+        if (ttlMillis < maxLockoutMillis) {
+            throw new IllegalArgumentException("Time-to-live cannot be shorter than the longest lockout.");
+        }
+        this.freeAttempts = freeAttempts;
+        this.baseLockout = baseLockoutMillis / TICK;
+        this.maxLockout = maxLockoutMillis / TICK;
+        this.ttl = ttlMillis / TICK;
+        this.table = new AccountTable(capacity, stripes, state -> count(state) == 0 || clock - time(state) >= ttl);
+    }
+
+    /**
+     * Counts an attempt for the account, unless it is locked out. Call before checking the code,
+     * and call succeeded() when it matches.
+     *
+     * @param accountId
+     *            account id
+     * @param timeInMillis
+     *            long (like <code>System.currentTimeMillis()</code>)
+     * @return true if the code may be checked, false if the account is locked out or the
+     *         throttle is full of recent accounts
+     */
+    public boolean tryAcquire(long accountId, long timeInMillis) {
+        final long now = ticks(timeInMillis);
+        if (now > clock) {
+            clock = now;
+        }
+        // refuse a locked out account without writing anything
+        final long state = table.get(accountId);
+        if (state != AccountTable.MISSING && isLocked(state, now)) {
+            return throttled();
+        }
+        final long previous;
+        try {
+            previous = table.getAndUpdate(accountId,
+                    s -> s != AccountTable.MISSING && isLocked(s, now) ? s : attempt(s, now));
+        } catch (IllegalStateException e) {
+            // full of accounts inside their time-to-live, fail closed
+            return throttled();
+        }
+        return previous == AccountTable.MISSING || !isLocked(previous, now) || throttled();
+    }
+
+    /**
+     * Clears the attempts of an account after a code matched.
+     *
+     * @param accountId
+     *            account id
+     */
+    public void succeeded(long accountId) {
+        table.getAndUpdate(accountId, s -> s == AccountTable.MISSING ? s : s & TIME_MASK);
+    }
+
+    /**
+     * Verifies a TOTP code, unless the account is locked out.
+     *
+     * @param key
+     *            the account's compiled key
+     * @param accountId
+     *            account id
+     * @param code
+     *            An OTP code to check.
+     * @param timeInMillis
+     *            long (like <code>System.currentTimeMillis()</code>)
+     * @param lookBehind
+     *            number of earlier steps to accept
+     * @param lookAhead
+     *            number of later steps to accept
+     * @return offset in steps that matched, or OTPKey.NO_MATCH if invalid or locked out
+     * @throws IllegalArgumentException when code is null or empty
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public int verify(OTPKey key, long accountId, CharSequence code, long timeInMillis, int lookBehind,
+            int lookAhead) throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        if (!tryAcquire(accountId, timeInMillis)) {
+            return OTPKey.NO_MATCH;
+        }
+        final int offset = key.verifyTime(code, timeInMillis, lookBehind, lookAhead);
+        if (offset != OTPKey.NO_MATCH) {
+            succeeded(accountId);
+        }
+        return offset;
+    }
+
+    /**
+     * Gets the number of attempts counted since the last success.
+     *
+     * @param accountId
+     *            account id
+     * @return attempts, 0 if none are remembered
+     */
+    public int attempts(long accountId) {
+        final long state = table.get(accountId);
+        return state == AccountTable.MISSING ? 0 : (int) count(state);
+    }
+
+    /**
+     * Gets how long the account stays locked out.
+     *
+     * @param accountId
+     *            account id
+     * @param timeInMillis
+     *            long (like <code>System.currentTimeMillis()</code>)
+     * @return milliseconds until the next attempt is allowed, 0 if it is allowed now
+     */
+    public long lockedFor(long accountId, long timeInMillis) {
+        final long state = table.get(accountId);
+        final long now = ticks(timeInMillis);
+        if (state == AccountTable.MISSING || !isLocked(state, now)) {
+            return 0L;
+        }
+        return (time(state) + lockout(count(state)) - now) * TICK;
+    }
+
+    /**
+     * Forgets every account that succeeded or is past its time-to-live. This also happens on its
+     * own when the throttle fills up.
+     *
+     * @return number of accounts forgotten
+     */
+    public int expire() {
+        return table.expire();
+    }
+
+    /**
+     * @return number of accounts tracked
+     */
+    public int size() {
+        return table.size();
+    }
+
+    private boolean isLocked(long state, long now) {
+        final long attempts = count(state);
+        return attempts >= freeAttempts && now - time(state) < lockout(attempts) && now - time(state) < ttl;
+    }
+
+    private long attempt(long state, long now) {
+        final long attempts = state == AccountTable.MISSING || now - time(state) >= ttl ? 0L : count(state);
+        return Math.min(attempts + 1, MAX_ATTEMPTS) << TIME_BITS | now;
+    }
+
+    /**
+     * @return lockout in ticks after the given number of attempts
+     */
+    private long lockout(long attempts) {
+        final long doublings = attempts - freeAttempts;
+        if (doublings >= Long.numberOfLeadingZeros(baseLockout) - 1) {
+            return maxLockout;
+        }
+        return Math.min(maxLockout, baseLockout << doublings);
+    }
+
+    private static boolean throttled() {
+        final OTPMetrics metrics = OTPMetrics.current();
+        if (metrics != null) {
+            metrics.recordThrottled();
+        }
+        return false;
+    }
+
+    private static long ticks(long timeInMillis) {
+        return Math.max(0L, Math.min(TIME_MASK, timeInMillis / TICK));
+    }
+
+    private static long count(long state) {
+        return state >>> TIME_BITS;
+    }
+
+    private static long time(long state) {
+        return state & TIME_MASK;
+    }
+}
@@ -0,0 +1,61 @@
+package com.amdelamar.jotp;
+
+/**
+ * Outcome of an asynchronous verification.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class VerifyResult {
+
+    private static final VerifyResult INVALID = new VerifyResult(false, OTPKey.NO_MATCH);
+    private static final VerifyResult VALID = new VerifyResult(true, 0);
+
+    private final boolean valid;
+    private final int offset;
+
+    private VerifyResult(boolean valid, int offset) {
+        this.valid = valid;
+        this.offset = offset;
+    }
+
+    /**
+     * @param offset
+     *            window offset that matched, or OTPKey.NO_MATCH
+     * @return result for the offset
+     */
+    static VerifyResult of(int offset) {
+        if (offset == OTPKey.NO_MATCH) {
+            return INVALID;
+        }
+        return offset == 0 ? VALID : new VerifyResult(true, offset);
+    }
+
+    /**
+     * @param valid
+     *            true if the code matched
+     * @return result without a window offset
+     */
+    static VerifyResult of(boolean valid) {
+        return valid ? VALID : INVALID;
+    }
+
+    /**
+     * @return true if the code matched
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @return window offset that matched (e.g. -1, 0, 1), or OTPKey.NO_MATCH
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return valid ? "VerifyResult[valid, offset=" + offset + "]" : "VerifyResult[invalid]";
+    }
+}
@@ -0,0 +1,137 @@
+package com.amdelamar.jotp;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Hmac;
+import com.amdelamar.jotp.util.HmacBackend;
+import com.amdelamar.jotp.util.SecureRandoms;
+import com.amdelamar.jotp.util.Utils;
+
+/**
+ * Moves the one-time costs of the first OTP out of the first request. Without it the first call
+ * looks up the JCE provider, seeds the SecureRandom and runs interpreted.
+ *
+ * prepare() only does the lookups and seeding, which is all that helps a native image. warmUp()
+ * also runs the create and verify paths of both backends until the JIT has compiled them, which
+ * takes a few hundred milliseconds on the JVM. Neither calibrates the backends, see
+ * HmacCalibration.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class Warmup {
+
+    /**
+     * Default number of codes per algorithm and backend, enough for the JIT to compile the hot
+     * paths.
+     */
+    public static final int ITERATIONS = 20000;
+
+    /**
+     * Secret used to warm up, never a real one.
+     */
+    private static final String SECRET = "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ";
+
+    /**
+     * Keeps the results, so the JIT cannot drop the work.
+     */
+    private static volatile int sink;
+
+    private Warmup() {
+        // static
+    }
+
+    /**
+     * Looks up HmacSHA1 and seeds the SecureRandom on this thread.
+     *
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     */
+    public static void prepare() throws NoSuchAlgorithmException {
+        prepare(Hmac.HMACSHA1);
+    }
+
+    /**
+     * Looks up the JCE provider of each algorithm, and seeds the SecureRandom used for secrets on
+     * this thread. Other threads get their own generator, seeded from one that is seeded here.
+     *
+     * @param algorithms
+     *            HmacSHA1, HmacSHA256, HmacSHA512
+     * @throws NoSuchAlgorithmException when an algorithm is not available on this jvm
+     */
+    public static void prepare(String... algorithms) throws NoSuchAlgorithmException {
+        SecureRandoms.current().nextInt();
+        final SecretKeySpec key = new SecretKeySpec(Utils.hexKey(new byte[] { 1 }), "RAW");
+        for (String alg : algorithms) {
+            try {
+                // creates the prototype that this and later threads clone their Mac from
+                Utils.getMac(alg, key);
+            } catch (InvalidKeyException e) {
+                throw new NoSuchAlgorithmException(alg + " rejected a key.", e);
+            }
+        }
+    }
+
+    /**
+     * Prepares and warms up HmacSHA1 with the default number of codes.
+     *
+     * @return time taken in nanoseconds
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     */
+    public static long warmUp() throws NoSuchAlgorithmException {
+        return warmUp(ITERATIONS, Hmac.HMACSHA1);
+    }
+
+    /**
+     * Prepares the algorithms, then creates and verifies codes with TOTP and HOTP keys on the
+     * JCE and JAVA backends, and a few through the static OTP methods.
+     *
+     * @param iterations
+     *            number of codes per algorithm and backend
+     * @param algorithms
+     *            HmacSHA1, HmacSHA256, HmacSHA512
+     * @return time taken in nanoseconds
+     * @throws NoSuchAlgorithmException when an algorithm is not available on this jvm
+     */
+    public static long warmUp(int iterations, String... algorithms) throws NoSuchAlgorithmException {
+        if (iterations < 0) {
+            throw new IllegalArgumentException("Iterations cannot be negative.");
+        }
+        final long start = System.nanoTime();
+        prepare(algorithms);
+        final long time = System.currentTimeMillis();
+        int result = 0;
+        try {
+            for (String alg : algorithms) {
+                for (HmacBackend backend : new HmacBackend[] { HmacBackend.JCE, HmacBackend.JAVA }) {
+                    final OTPKey totp = new OTPKey(SECRET, 6, OTPKey.PERIOD, Type.TOTP, alg, backend);
+                    final OTPKey hotp = new OTPKey(SECRET, 6, OTPKey.PERIOD, Type.HOTP, alg, backend);
+                    final char[] code = new char[6];
+                    for (int i = 0; i < iterations; i++) {
+                        totp.create(i, code, 0);
+                        result += totp.verifyTime(new String(code), time, 1, 1);
+                        result += hotp.generate(i);
+                        result += hotp.verify(hotp.create(i), i) ? 1 : 0;
+                    }
+                    totp.destroy();
+                    hotp.destroy();
+                }
+            }
+            final String hexTime = OTP.timeInHex(time, OTPKey.PERIOD);
+            for (int i = 0; i < iterations / 16; i++) {
+                final String created = OTP.create(SECRET, hexTime, 6, Type.TOTP);
+                result += OTP.verify(SECRET, hexTime, created, 6, Type.TOTP) ? 1 : 0;
+                result += OTP.randomBase32(OTP.BYTES).length();
+            }
+        } catch (InvalidKeyException | IOException e) {
+            // the fixed secret is valid, so only a broken provider gets here
+            throw new NoSuchAlgorithmException("Warm up failed.", e);
+        }
+        sink += result;
+        return System.nanoTime() - start;
+    }
+}
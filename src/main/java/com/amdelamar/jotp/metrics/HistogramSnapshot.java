@@ -0,0 +1,104 @@
+package com.amdelamar.jotp.metrics;
+
+/**
+ * Point in time copy of a LatencyHistogram.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class HistogramSnapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(long[] counts, long sum, long max) {
+        this.counts = counts;
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        this.count = total;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return sum of the values recorded, in nanoseconds
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * @return largest value recorded, in nanoseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return mean in nanoseconds, or 0 if nothing was recorded
+     */
+    public double getMean() {
+        return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    /**
+     * Gets the value at or below which the given fraction of recorded values fall.
+     *
+     * @param quantile
+     *            between 0.0 and 1.0 (e.g. 0.99)
+     * @return latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getValueAt(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0) {
+            throw new IllegalArgumentException("Quantile must be between 0.0 and 1.0.");
+        }
+        if (count == 0) {
+            return 0L;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return number of buckets, for exporting the raw distribution
+     */
+    public int getBucketCount() {
+        return counts.length;
+    }
+
+    /**
+     * @param index
+     *            bucket index
+     * @return number of values in the bucket
+     */
+    public long getBucketCount(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @param index
+     *            bucket index
+     * @return largest value in nanoseconds that falls in the bucket
+     */
+    public long getBucketUpperBound(int index) {
+        return LatencyHistogram.upperBound(index);
+    }
+}
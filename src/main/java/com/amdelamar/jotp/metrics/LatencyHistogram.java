@@ -0,0 +1,71 @@
+package com.amdelamar.jotp.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of nanosecond latencies. Values are counted in log-linear buckets: each
+ * power of two is split into 8 buckets, so a reported value is within 12.5% of the recorded one.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class LatencyHistogram {
+
+    static final int SUB_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos
+     *            latency in nanoseconds, negative values are counted as 0
+     */
+    public void record(long nanos) {
+        final long value = nanos < 0 ? 0 : nanos;
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Copies the current counts. Recording continues while the copy is taken, so the totals may
+     * be off by the few values recorded meanwhile.
+     *
+     * @return snapshot
+     */
+    public HistogramSnapshot snapshot() {
+        final long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new HistogramSnapshot(copy, sum.sum(), max.get());
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Largest value counted in the bucket.
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
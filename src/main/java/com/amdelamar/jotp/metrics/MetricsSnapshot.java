@@ -0,0 +1,77 @@
+package com.amdelamar.jotp.metrics;
+
+/**
+ * Point in time copy of OTPMetrics.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class MetricsSnapshot {
+
+    private final long creates;
+    private final long verifies;
+    private final long successes;
+    private final long failures;
+    private final long invalid;
+    private final long throttled;
+    private final long[] offsets;
+    private final HistogramSnapshot[] latencies;
+
+    MetricsSnapshot(long creates, long verifies, long successes, long failures, long invalid, long throttled,
+            long[] offsets, HistogramSnapshot[] latencies) {
+        this.creates = creates;
+        this.verifies = verifies;
+        this.successes = successes;
+        this.failures = failures;
+        this.invalid = invalid;
+        this.throttled = throttled;
+        this.offsets = offsets;
+        this.latencies = latencies;
+    }
+
+    public long getCreates() {
+        return creates;
+    }
+
+    public long getVerifies() {
+        return verifies;
+    }
+
+    public long getSuccesses() {
+        return successes;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getInvalid() {
+        return invalid;
+    }
+
+    public long getThrottled() {
+        return throttled;
+    }
+
+    /**
+     * @param offset
+     *            window offset, between -MAX_OFFSET and MAX_OFFSET
+     * @return number of codes that matched at the offset
+     */
+    public long getOffsetCount(int offset) {
+        if (offset < -OTPMetrics.MAX_OFFSET || offset > OTPMetrics.MAX_OFFSET) {
+            throw new IllegalArgumentException("Offset must be between -" + OTPMetrics.MAX_OFFSET + " and "
+                    + OTPMetrics.MAX_OFFSET + ".");
+        }
+        return offsets[offset + OTPMetrics.MAX_OFFSET];
+    }
+
+    /**
+     * @param phase
+     *            phase measured
+     * @return latency histogram of the phase
+     */
+    public HistogramSnapshot getLatency(Phase phase) {
+        return latencies[phase.ordinal()];
+    }
+}
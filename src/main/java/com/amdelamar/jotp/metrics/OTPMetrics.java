@@ -0,0 +1,171 @@
+package com.amdelamar.jotp.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional instrumentation for creating and verifying one-time-passwords. Nothing is recorded
+ * until an instance is installed, and while none is, each instrumented call only checks a
+ * volatile field.
+ *
+ * Install one at startup and poll snapshot() to feed your own metrics system:
+ *
+ * <pre>
+ * OTPMetrics metrics = OTPMetrics.enable();
+ * ...
+ * MetricsSnapshot snapshot = metrics.snapshot();
+ * </pre>
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class OTPMetrics {
+
+    /**
+     * Window offsets further than this from 0 are counted with the outermost offset.
+     */
+    public static final int MAX_OFFSET = 16;
+
+    private static volatile OTPMetrics current;
+
+    private final LongAdder creates = new LongAdder();
+    private final LongAdder verifies = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder[] offsets = new LongAdder[2 * MAX_OFFSET + 1];
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Phase.values().length];
+
+    public OTPMetrics() {
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = new LongAdder();
+        }
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Gets the installed metrics.
+     *
+     * @return metrics, or null when disabled
+     */
+    public static OTPMetrics current() {
+        return current;
+    }
+
+    /**
+     * Installs new metrics, unless some are installed already.
+     *
+     * @return the installed metrics
+     */
+    public static synchronized OTPMetrics enable() {
+        if (current == null) {
+            current = new OTPMetrics();
+        }
+        return current;
+    }
+
+    /**
+     * Installs the given metrics, replacing any others.
+     *
+     * @param metrics
+     *            metrics to record to, or null to disable
+     */
+    public static synchronized void install(OTPMetrics metrics) {
+        current = metrics;
+    }
+
+    /**
+     * Stops recording.
+     */
+    public static synchronized void disable() {
+        current = null;
+    }
+
+    /**
+     * Counts a created code.
+     */
+    public void recordCreate() {
+        creates.increment();
+    }
+
+    /**
+     * Counts a verification and its outcome.
+     *
+     * @param valid
+     *            true if the code matched
+     */
+    public void recordVerify(boolean valid) {
+        verifies.increment();
+        if (valid) {
+            successes.increment();
+        } else {
+            failures.increment();
+        }
+    }
+
+    /**
+     * Counts a rejected input, such as a missing secret or a code of the wrong length.
+     */
+    public void recordInvalid() {
+        invalid.increment();
+    }
+
+    /**
+     * Counts an attempt refused by a Throttle before any work was done.
+     */
+    public void recordThrottled() {
+        throttled.increment();
+    }
+
+    /**
+     * Counts the window offset a code matched at.
+     *
+     * @param offset
+     *            offset from the expected base
+     */
+    public void recordOffset(int offset) {
+        final int clamped = Math.max(-MAX_OFFSET, Math.min(MAX_OFFSET, offset));
+        offsets[clamped + MAX_OFFSET].increment();
+    }
+
+    /**
+     * Records the latency of a phase.
+     *
+     * @param phase
+     *            phase measured
+     * @param nanos
+     *            elapsed nanoseconds
+     */
+    public void recordLatency(Phase phase, long nanos) {
+        latencies[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Gets the histogram of a phase.
+     *
+     * @param phase
+     *            phase measured
+     * @return histogram
+     */
+    public LatencyHistogram getLatency(Phase phase) {
+        return latencies[phase.ordinal()];
+    }
+
+    /**
+     * @return copy of the current counters and histograms
+     */
+    public MetricsSnapshot snapshot() {
+        final long[] offsetCounts = new long[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            offsetCounts[i] = offsets[i].sum();
+        }
+        final HistogramSnapshot[] histograms = new HistogramSnapshot[latencies.length];
+        for (int i = 0; i < latencies.length; i++) {
+            histograms[i] = latencies[i].snapshot();
+        }
+        return new MetricsSnapshot(creates.sum(), verifies.sum(), successes.sum(), failures.sum(), invalid.sum(),
+                throttled.sum(), offsetCounts, histograms);
+    }
+}
@@ -0,0 +1,30 @@
+package com.amdelamar.jotp.metrics;
+
+/**
+ * Stages of creating or verifying a one-time-password, each with its own latency histogram.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public enum Phase {
+
+    /**
+     * Decoding the Base32 secret into key material.
+     */
+    DECODE,
+
+    /**
+     * Computing the HMAC of the moving factor.
+     */
+    HMAC,
+
+    /**
+     * Dynamic or fixed truncation of the HMAC down to a code.
+     */
+    TRUNCATE,
+
+    /**
+     * Comparing a generated code with the one given.
+     */
+    COMPARE
+}
@@ -0,0 +1,460 @@
+package com.amdelamar.jotp.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import com.amdelamar.jotp.OTPKey;
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Durable HOTP counters keyed by account id.
+ *
+ * Counters are held in memory and only move forward through compareAndAdvance(). Every change is
+ * appended to a write-ahead log in a memory-mapped file before the call returns. Threads that
+ * append at the same time share one force() of the log (group commit). When the log fills up it
+ * is compacted into a snapshot file and started over. Opening the store loads the snapshot and
+ * replays the log after it.
+ *
+ * @author amdelamar
+ * @see <a href="https://tools.ietf.org/html/rfc4226#section-7.2">https://tools.ietf.org/html/rfc4226#section-7.2</a>
+ * @since 1.4.0
+ */
+public final class CounterStore implements Closeable {
+
+    /**
+     * Default log size in bytes, room for about 43 thousand updates between compactions.
+     */
+    public static final int LOG_SIZE = 1 << 20;
+
+    static final String LOG_FILE = "counters.wal";
+    static final String SNAPSHOT_FILE = "counters.snap";
+
+    private static final int MAGIC = 0x6a6f7470; // "jotp"
+    private static final int HEADER = 16;
+    private static final int RECORD = 24;
+    private static final int VALID = 1;
+
+    private final Path directory;
+    private final Map<Long, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final FileChannel channel;
+    private final MappedByteBuffer log;
+
+    /** guards the log position, generation, and appends */
+    private final Object appendLock = new Object();
+    private long generation;
+    private int position;
+    /** bytes appended since open, written under appendLock */
+    private volatile long written;
+
+    /** guards the group commit state */
+    private final Object syncLock = new Object();
+    private long synced;
+    private boolean syncing;
+
+    private volatile boolean closed;
+
+    /**
+     * Open or create a store with the default log size.
+     *
+     * @param directory
+     *            directory for the log and snapshot files
+     * @throws IOException when the files cannot be read or created
+     */
+    public CounterStore(Path directory) throws IOException {
+        this(directory, LOG_SIZE);
+    }
+
+    /**
+     * Open or create a store.
+     *
+     * @param directory
+     *            directory for the log and snapshot files
+     * @param logSize
+     *            log size in bytes. An existing log keeps its size.
+     * @throws IOException when the files cannot be read or created
+     */
+    public CounterStore(Path directory, int logSize) throws IOException {
+        if (logSize < HEADER + RECORD) {
+            throw new IllegalArgumentException("Log size must be at least " + (HEADER + RECORD) + " bytes.");
+        }
+        this.directory = Files.createDirectories(directory);
+
+        final long snapshotGeneration = readSnapshot();
+
+        final Path logFile = directory.resolve(LOG_FILE);
+        this.channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        final long size = channel.size() >= HEADER + RECORD ? channel.size() : logSize;
+        try {
+            this.log = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(size, Integer.MAX_VALUE));
+            if (log.getInt(0) == MAGIC && log.getInt(4) != RECORD) {
+                throw new IOException("Counter log has another record size: " + logFile);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        if (log.getInt(0) == MAGIC && log.getLong(8) >= snapshotGeneration) {
+            this.generation = log.getLong(8);
+            this.position = replay();
+        } else {
+            // new log, or one that a finished snapshot already covers
+            resetLog(snapshotGeneration);
+        }
+    }
+
+    /**
+     * Gets the counter of an account.
+     *
+     * @param accountId
+     *            account id
+     * @return counter, or -1 if the account has none
+     */
+    public long get(long accountId) {
+        final AtomicLong counter = counters.get(accountId);
+        return counter == null ? -1L : counter.get();
+    }
+
+    /**
+     * Sets the counter of an account, for enrollment or an administrative reset. The counter may
+     * move backwards.
+     *
+     * @param accountId
+     *            account id
+     * @param counter
+     *            new counter
+     * @throws IOException when the log cannot be written
+     */
+    public void set(long accountId, long counter) throws IOException {
+        if (counter < 0) {
+            throw new IllegalArgumentException("Counter cannot be negative.");
+        }
+        final long end;
+        synchronized (appendLock) {
+            counter(accountId).set(counter);
+            end = append(accountId, counter);
+        }
+        sync(end);
+    }
+
+    /**
+     * Moves the counter of an account forward, if it is still the expected value. The change is
+     * durable when this returns true.
+     *
+     * @param accountId
+     *            account id
+     * @param expected
+     *            counter the caller read
+     * @param next
+     *            new counter, greater than expected
+     * @return true if advanced, false if the counter was not the expected value
+     * @throws IOException when the log cannot be written
+     */
+    public boolean compareAndAdvance(long accountId, long expected, long next) throws IOException {
+        if (next <= expected) {
+            throw new IllegalArgumentException("Counter can only move forward.");
+        }
+        final AtomicLong counter = counters.get(accountId);
+        if (counter == null || counter.get() != expected) {
+            return false;
+        }
+        final long end;
+        synchronized (appendLock) {
+            // log order must follow the order counters change in
+            if (!counter.compareAndSet(expected, next)) {
+                return false;
+            }
+            end = append(accountId, next);
+        }
+        sync(end);
+        return true;
+    }
+
+    /**
+     * Verifies an HOTP code against the account's counter and a look-ahead window, and advances
+     * the counter past the match.
+     *
+     * @param key
+     *            the account's compiled HOTP key
+     * @param accountId
+     *            account id
+     * @param code
+     *            An OTP code to check.
+     * @param lookAhead
+     *            number of counters past the stored one to accept
+     * @return offset from the stored counter that matched, or OTPKey.NO_MATCH
+     * @throws IOException when the log cannot be written
+     * @throws IllegalArgumentException when the key is not HOTP, or code is null or empty
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when secret is invalid
+     */
+    public int verify(OTPKey key, long accountId, CharSequence code, int lookAhead)
+            throws IOException, IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        if (key.getType() != Type.HOTP) {
+            throw new IllegalArgumentException("Counters are for Type.HOTP keys.");
+        }
+        final long counter = get(accountId);
+        if (counter < 0) {
+            return OTPKey.NO_MATCH;
+        }
+        final int offset = key.verifyWindow(code, counter, 0, lookAhead);
+        if (offset == OTPKey.NO_MATCH || !compareAndAdvance(accountId, counter, counter + offset + 1)) {
+            // a concurrent verify used this counter first
+            return OTPKey.NO_MATCH;
+        }
+        return offset;
+    }
+
+    /**
+     * @return number of accounts
+     */
+    public int size() {
+        return counters.size();
+    }
+
+    /**
+     * Writes every counter to a new snapshot and empties the log.
+     *
+     * @throws IOException when the snapshot cannot be written
+     */
+    public void snapshot() throws IOException {
+        synchronized (appendLock) {
+            compact();
+        }
+    }
+
+    /**
+     * Forces the log and closes the file. The mapping itself is released by the garbage collector.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            if (!closed) {
+                closed = true;
+                log.force();
+                channel.close();
+            }
+        }
+    }
+
+    private AtomicLong counter(long accountId) {
+        AtomicLong counter = counters.get(accountId);
+        if (counter == null) {
+            counter = new AtomicLong(-1L);
+            final AtomicLong existing = counters.putIfAbsent(accountId, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Appends a record, holding appendLock.
+     *
+     * @return log sequence the record ends at
+     */
+    private long append(long accountId, long counter) throws IOException {
+        if (closed) {
+            throw new IOException("Counter store is closed.");
+        }
+        if (position + RECORD > log.capacity()) {
+            compact();
+        }
+        log.putLong(position, accountId);
+        log.putLong(position + 8, counter);
+        log.putInt(position + 16, checksum(generation, accountId, counter));
+        log.putInt(position + 20, VALID);
+        position += RECORD;
+        written += RECORD;
+        return written;
+    }
+
+    /**
+     * Waits until the log is durable up to the sequence. One thread forces the log while the
+     * others wait, and every record appended before the force starts is covered by it.
+     */
+    private void sync(long end) throws IOException {
+        synchronized (syncLock) {
+            while (synced < end && syncing) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for the log.", e);
+                }
+            }
+            if (synced >= end) {
+                // covered by another thread's force
+                return;
+            }
+            syncing = true;
+        }
+        final long target = written;
+        boolean forced = false;
+        try {
+            force();
+            forced = true;
+        } finally {
+            synchronized (syncLock) {
+                syncing = false;
+                if (forced) {
+                    synced = Math.max(synced, target);
+                }
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    private void force() throws IOException {
+        if (closed) {
+            throw new IOException("Counter store is closed.");
+        }
+        log.force();
+    }
+
+    /**
+     * Writes a snapshot and resets the log, holding appendLock.
+     */
+    private void compact() throws IOException {
+        final long next = generation + 1;
+        writeSnapshot(next);
+        resetLog(next);
+        synchronized (syncLock) {
+            // everything appended so far is in the snapshot
+            synced = Math.max(synced, written);
+            syncLock.notifyAll();
+        }
+    }
+
+    private void resetLog(long gen) {
+        log.putInt(0, MAGIC);
+        log.putInt(4, RECORD);
+        log.putLong(8, gen);
+        // invalidate the first record, older ones fail their checksum
+        log.putInt(HEADER + 20, 0);
+        log.force();
+        this.generation = gen;
+        this.position = HEADER;
+    }
+
+    /**
+     * Applies the records of the current generation, and returns where the next one goes.
+     */
+    private int replay() {
+        int pos = HEADER;
+        while (pos + RECORD <= log.capacity() && log.getInt(pos + 20) == VALID) {
+            final long accountId = log.getLong(pos);
+            final long counter = log.getLong(pos + 8);
+            if (log.getInt(pos + 16) != checksum(generation, accountId, counter)) {
+                break;
+            }
+            counter(accountId).set(counter);
+            pos += RECORD;
+        }
+        return pos;
+    }
+
+    private long readSnapshot() throws IOException {
+        final Path file = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return 0L;
+        }
+        final CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(
+                new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file)), crc))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a counter snapshot: " + file);
+            }
+            final long gen = in.readLong();
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final long accountId = in.readLong();
+                counter(accountId).set(in.readLong());
+            }
+            final long expected = crc.getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("Counter snapshot is corrupt: " + file);
+            }
+            return gen;
+        }
+    }
+
+    private void writeSnapshot(long gen) throws IOException {
+        final Path file = directory.resolve(SNAPSHOT_FILE);
+        final Path tmp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        final CRC32 crc = new CRC32();
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(out), crc)));
+            data.writeInt(MAGIC);
+            data.writeLong(gen);
+            // every change takes appendLock, so the map is stable here
+            data.writeInt(counters.size());
+            for (Map.Entry<Long, AtomicLong> entry : counters.entrySet()) {
+                data.writeLong(entry.getKey());
+                data.writeLong(entry.getValue().get());
+            }
+            data.flush();
+            data.writeLong(crc.getValue());
+            data.flush();
+            out.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // the rename must be durable before the log it replaces is reset
+        syncDirectory();
+    }
+
+    /**
+     * Forces the directory entries, e.g. a rename, to disk.
+     */
+    private void syncDirectory() throws IOException {
+        final FileChannel dir;
+        try {
+            dir = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            // some platforms, e.g. Windows, cannot open a directory and make renames durable
+            return;
+        }
+        try {
+            dir.force(true);
+        } finally {
+            dir.close();
+        }
+    }
+
+    private static int checksum(long gen, long accountId, long counter) {
+        final CRC32 crc = new CRC32();
+        update(crc, gen);
+        update(crc, accountId);
+        update(crc, counter);
+        return (int) crc.getValue();
+    }
+
+    private static void update(CRC32 crc, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (value >>> shift));
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.amdelamar.jotp.store;
+
+import java.io.Closeable;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amdelamar.jotp.OTPKey;
+
+/**
+ * Bounded cache of compiled keys for secrets that are kept wrapped at rest, so hot accounts skip
+ * the unwrap while no secret stays decrypted in memory for long.
+ *
+ * A key is loaded on first use and evicted when its time to live has passed since it was loaded,
+ * or when the cache holds more than its maximum size, oldest first. Evicted keys are destroyed,
+ * which wipes keys compiled with the JAVA backend. A key that is in use while it is evicted is
+ * destroyed when the last call using it finishes.
+ *
+ * Pass a fixed or offset java.time.Clock to control time in tests.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class KeyCache implements Closeable {
+
+    /**
+     * Loads an account's key, e.g. SecretWrapper.loader().
+     */
+    public interface Loader {
+
+        /**
+         * @param accountId
+         *            account id
+         * @return the account's compiled key, or null for an unknown account
+         * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+         * @throws InvalidKeyException when the secret is invalid or cannot be unwrapped
+         */
+        OTPKey load(long accountId) throws InvalidKeyException, NoSuchAlgorithmException;
+    }
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Loader loader;
+    private final Clock clock;
+    private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+    /** entries in load order, which is also expiry order */
+    private final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final LongAdder loads = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Cache on the system time.
+     *
+     * @param maxSize
+     *            maximum number of keys
+     * @param ttlMillis
+     *            how long a key stays after it is loaded, in milliseconds
+     * @param loader
+     *            loads keys on a miss
+     */
+    public KeyCache(int maxSize, long ttlMillis, Loader loader) {
+        this(maxSize, ttlMillis, loader, Clock.systemUTC());
+    }
+
+    /**
+     * Cache on the given time source.
+     *
+     * @param maxSize
+     *            maximum number of keys
+     * @param ttlMillis
+     *            how long a key stays after it is loaded, in milliseconds
+     * @param loader
+     *            loads keys on a miss
+     * @param clock
+     *            time source
+     */
+    public KeyCache(int maxSize, long ttlMillis, Loader loader, Clock clock) {
+        if (maxSize < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("Size and time to live must be positive.");
+        }
+        if (loader == null || clock == null) {
+            throw new IllegalArgumentException("Loader and clock cannot be null.");
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.loader = loader;
+        this.clock = clock;
+    }
+
+    /**
+     * Generate a one-time-password for an account as an int.
+     *
+     * @param accountId
+     *            account id
+     * @param base
+     *            The counter (HOTP) or time step (TOTP).
+     * @return code, without leading zeros
+     * @throws IllegalArgumentException when the account is unknown
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when the secret is invalid or cannot be unwrapped
+     */
+    public int generate(long accountId, long base)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        final Entry entry = acquire(accountId);
+        if (entry == null) {
+            throw new IllegalArgumentException("Account " + accountId + " is unknown.");
+        }
+        try {
+            return entry.key.generate(base);
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * Verify a code for an account, see OTPKey.verify().
+     *
+     * @param accountId
+     *            account id
+     * @param code
+     *            An OTP code to check.
+     * @param base
+     *            The counter (HOTP) or time step (TOTP).
+     * @return true if valid, false for a wrong code or an unknown account
+     * @throws IllegalArgumentException when code is null or empty
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when the secret is invalid or cannot be unwrapped
+     */
+    public boolean verify(long accountId, CharSequence code, long base)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        final Entry entry = acquire(accountId);
+        if (entry == null) {
+            return false;
+        }
+        try {
+            return entry.key.verify(code, base);
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * Verify a code for an account against a window of steps, see OTPKey.verifyWindow().
+     *
+     * @param accountId
+     *            account id
+     * @param code
+     *            An OTP code to check.
+     * @param base
+     *            The counter (HOTP) or time step (TOTP) at the center of the window.
+     * @param lookBehind
+     *            number of earlier steps to accept
+     * @param lookAhead
+     *            number of later steps to accept
+     * @return offset that matched, or OTPKey.NO_MATCH, also for an unknown account
+     * @throws IllegalArgumentException when code is null or empty, or the window is negative
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when the secret is invalid or cannot be unwrapped
+     */
+    public int verifyWindow(long accountId, CharSequence code, long base, int lookBehind, int lookAhead)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        final Entry entry = acquire(accountId);
+        if (entry == null) {
+            return OTPKey.NO_MATCH;
+        }
+        try {
+            return entry.key.verifyWindow(code, base, lookBehind, lookAhead);
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * Verify a TOTP code for an account around the given time, see OTPKey.verifyTime().
+     *
+     * @param accountId
+     *            account id
+     * @param code
+     *            An OTP code to check.
+     * @param timeInMillis
+     *            long (like <code>System.currentTimeMillis()</code>)
+     * @param lookBehind
+     *            number of earlier steps to accept
+     * @param lookAhead
+     *            number of later steps to accept
+     * @return offset in steps that matched, or OTPKey.NO_MATCH, also for an unknown account
+     * @throws IllegalArgumentException when code is null or empty, or the window is negative
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when the secret is invalid or cannot be unwrapped
+     */
+    public int verifyTime(long accountId, CharSequence code, long timeInMillis, int lookBehind, int lookAhead)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        final Entry entry = acquire(accountId);
+        if (entry == null) {
+            return OTPKey.NO_MATCH;
+        }
+        try {
+            return entry.key.verifyTime(code, timeInMillis, lookBehind, lookAhead);
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * Evicts an account's key, e.g. after its secret was replaced.
+     *
+     * @param accountId
+     *            account id
+     */
+    public void invalidate(long accountId) {
+        final Entry entry = entries.get(accountId);
+        if (entry != null) {
+            evict(entry);
+        }
+    }
+
+    /**
+     * Evicts the keys whose time to live has passed. Calls do this as they go, so this is only
+     * needed to wipe idle keys on time, e.g. from a scheduled task.
+     */
+    public void cleanUp() {
+        cleanUp(clock.millis());
+    }
+
+    /**
+     * Evicts and wipes all keys.
+     */
+    public void clear() {
+        for (Entry entry : entries.values()) {
+            evict(entry);
+        }
+        order.clear();
+    }
+
+    /**
+     * @return number of cached keys
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of keys loaded so far, i.e. misses
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * Wipes all keys. Later calls throw IllegalStateException.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        clear();
+    }
+
+    /**
+     * Gets the account's entry for one call, loading it on a miss.
+     *
+     * @return the entry, to be released, or null for an unknown account
+     */
+    private Entry acquire(long accountId) throws InvalidKeyException, NoSuchAlgorithmException {
+        if (closed) {
+            throw new IllegalStateException("Key cache is closed.");
+        }
+        final long now = clock.millis();
+        cleanUp(now);
+        while (true) {
+            final Entry entry = entries.get(accountId);
+            if (entry != null) {
+                if (entry.expires - now > 0 && entry.acquire()) {
+                    return entry;
+                }
+                // expired, or evicted meanwhile
+                evict(entry);
+                continue;
+            }
+            final OTPKey key = loader.load(accountId);
+            if (key == null) {
+                return null;
+            }
+            loads.increment();
+            final Entry loaded = new Entry(accountId, key, now + ttlMillis);
+            if (entries.putIfAbsent(accountId, loaded) != null) {
+                // another thread loaded it first
+                key.destroy();
+                continue;
+            }
+            order.add(loaded);
+            trim();
+            if (closed) {
+                evict(loaded);
+                throw new IllegalStateException("Key cache is closed.");
+            }
+            if (loaded.acquire()) {
+                return loaded;
+            }
+        }
+    }
+
+    private void cleanUp(long now) {
+        Entry head;
+        while ((head = order.peek()) != null && head.expires - now <= 0) {
+            if (order.remove(head)) {
+                evict(head);
+            }
+        }
+    }
+
+    /**
+     * Evicts the oldest keys while there are too many.
+     */
+    private void trim() {
+        Entry head;
+        while (entries.size() > maxSize && (head = order.poll()) != null) {
+            evict(head);
+        }
+    }
+
+    private void evict(Entry entry) {
+        entries.remove(entry.accountId, entry);
+        entry.evict();
+    }
+
+    /**
+     * A cached key and the number of calls using it.
+     */
+    private static final class Entry {
+        /** set once evicted, the low bits count the calls using the key */
+        private static final int EVICTED = 1 << 30;
+        private static final int DESTROYED = -1;
+
+        private final long accountId;
+        private final OTPKey key;
+        private final long expires;
+        private final AtomicInteger state = new AtomicInteger();
+
+        private Entry(long accountId, OTPKey key, long expires) {
+            this.accountId = accountId;
+            this.key = key;
+            this.expires = expires;
+        }
+
+        /**
+         * @return true if the key can be used until release(), false if it was evicted
+         */
+        private boolean acquire() {
+            while (true) {
+                final int current = state.get();
+                if (current < 0 || (current & EVICTED) != 0) {
+                    return false;
+                }
+                if (state.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void release() {
+            if (state.decrementAndGet() == EVICTED) {
+                destroy();
+            }
+        }
+
+        private void evict() {
+            while (true) {
+                final int current = state.get();
+                if (current < 0 || (current & EVICTED) != 0) {
+                    return;
+                }
+                if (state.compareAndSet(current, current | EVICTED)) {
+                    if (current == 0) {
+                        destroy();
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Wipes the key once, when it is evicted and no call uses it.
+         */
+        private void destroy() {
+            if (state.compareAndSet(EVICTED, DESTROYED)) {
+                key.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.amdelamar.jotp.store;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.amdelamar.jotp.OTP;
+import com.amdelamar.jotp.OTPKey;
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Base32;
+import com.amdelamar.jotp.util.HmacBackend;
+
+/**
+ * Derives each account's OTP secret from a master key and the account id with HKDF-SHA256, so
+ * no secret is stored per account. An account then only needs its id and counters, and its
+ * secret is recomputed when needed, e.g. by a KeyCache through loader(), or for the otpauth URI
+ * when it is enrolled.
+ *
+ * The salt separates tenants or key versions that share a master key. Changing the master key
+ * or salt changes every account's secret, so all accounts must enroll again. Each thread reuses
+ * one Mac.
+ *
+ * @author amdelamar
+ * @see <a href="https://tools.ietf.org/html/rfc5869">https://tools.ietf.org/html/rfc5869</a>
+ * @since 1.4.0
+ */
+public final class SecretDeriver {
+
+    /**
+     * Shortest master key accepted, in bytes.
+     */
+    public static final int MIN_MASTER_KEY = 16;
+
+    private static final String HMAC = "HmacSHA256";
+    private static final int HASH_LENGTH = 32;
+
+    /**
+     * Starts the info of every derived secret, so the same master key can serve other purposes.
+     */
+    private static final byte[] LABEL = "jotp account secret".getBytes(StandardCharsets.US_ASCII);
+
+    private final SecretKeySpec prk;
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>();
+
+    /**
+     * Deriver with no salt.
+     *
+     * @param masterKey
+     *            at least 16 random bytes. The array is not kept, so the caller can clear it.
+     * @throws InvalidKeyException when the master key is too short
+     * @throws NoSuchAlgorithmException when HmacSHA256 is not available on this jvm
+     */
+    public SecretDeriver(byte[] masterKey) throws InvalidKeyException, NoSuchAlgorithmException {
+        this(masterKey, null);
+    }
+
+    /**
+     * Deriver.
+     *
+     * @param masterKey
+     *            at least 16 random bytes. The array is not kept, so the caller can clear it.
+     * @param salt
+     *            tenant or key version, or null for none
+     * @throws InvalidKeyException when the master key is too short
+     * @throws NoSuchAlgorithmException when HmacSHA256 is not available on this jvm
+     */
+    public SecretDeriver(byte[] masterKey, byte[] salt) throws InvalidKeyException, NoSuchAlgorithmException {
+        if (masterKey == null || masterKey.length < MIN_MASTER_KEY) {
+            throw new InvalidKeyException("Master key must be at least " + MIN_MASTER_KEY + " bytes.");
+        }
+        final byte[] key = extract(salt, masterKey);
+        this.prk = new SecretKeySpec(key, HMAC);
+        Arrays.fill(key, (byte) 0);
+        mac();
+    }
+
+    /**
+     * Derives an account's secret of the default length.
+     *
+     * @param accountId
+     *            account id
+     * @return secret as raw bytes, OTP.BYTES long. The caller should clear it once it is used.
+     * @throws InvalidKeyException when the master key is rejected
+     * @throws NoSuchAlgorithmException when HmacSHA256 is not available on this jvm
+     */
+    public byte[] derive(long accountId) throws InvalidKeyException, NoSuchAlgorithmException {
+        return derive(accountId, OTP.BYTES);
+    }
+
+    /**
+     * Derives an account's secret.
+     *
+     * @param accountId
+     *            account id
+     * @param length
+     *            secret length in bytes, 1 to 8160
+     * @return secret as raw bytes. The caller should clear it once it is used.
+     * @throws IllegalArgumentException when length is out of range
+     * @throws InvalidKeyException when the master key is rejected
+     * @throws NoSuchAlgorithmException when HmacSHA256 is not available on this jvm
+     */
+    public byte[] derive(long accountId, int length)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        if (length < 1 || length > 255 * HASH_LENGTH) {
+            throw new IllegalArgumentException("Length must be 1 to " + 255 * HASH_LENGTH + " bytes.");
+        }
+        final byte[] info = Arrays.copyOf(LABEL, LABEL.length + 8);
+        for (int i = info.length - 1; i >= LABEL.length; i--) {
+            info[i] = (byte) accountId;
+            accountId >>>= 8;
+        }
+        final byte[] secret = new byte[length];
+        expand(mac(), info, secret);
+        return secret;
+    }
+
+    /**
+     * Derives an account's secret of the default length as Base32, e.g. for OTPAuthWriter when
+     * the account enrolls.
+     *
+     * @param accountId
+     *            account id
+     * @return Shhhhh. (Base32)
+     * @throws InvalidKeyException when the master key is rejected
+     * @throws NoSuchAlgorithmException when HmacSHA256 is not available on this jvm
+     */
+    public String deriveBase32(long accountId) throws InvalidKeyException, NoSuchAlgorithmException {
+        final byte[] secret = derive(accountId);
+        try {
+            return Base32.encode(secret);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    /**
+     * Loader for a KeyCache that derives each account's secret and compiles it with the JAVA
+     * backend, whose keys can be wiped on eviction. The derived secret is cleared right after.
+     * Every account id has a key.
+     *
+     * @param digits
+     *            Length of code (Commonly '6')
+     * @param period
+     *            TOTP period in seconds (Commonly '30'). Ignored for HOTP.
+     * @param type
+     *            Type.TOTP or Type.HOTP
+     * @param algorithm
+     *            HmacSHA1, HmacSHA256, HmacSHA512
+     * @return loader
+     */
+    public KeyCache.Loader loader(int digits, int period, Type type, String algorithm) {
+        return accountId -> {
+            final byte[] secret = derive(accountId);
+            try {
+                return new OTPKey(secret, digits, period, type, algorithm, HmacBackend.JAVA);
+            } finally {
+                Arrays.fill(secret, (byte) 0);
+            }
+        };
+    }
+
+    /**
+     * @return this thread's Mac, initialized with the pseudorandom key
+     */
+    private Mac mac() throws InvalidKeyException, NoSuchAlgorithmException {
+        Mac mac = macs.get();
+        if (mac == null) {
+            mac = Mac.getInstance(HMAC);
+            mac.init(prk);
+            macs.set(mac);
+        }
+        return mac;
+    }
+
+    /**
+     * HKDF-Extract.
+     *
+     * @param salt
+     *            salt, or null or empty for none
+     * @param ikm
+     *            input keying material
+     * @return pseudorandom key
+     */
+    static byte[] extract(byte[] salt, byte[] ikm) throws InvalidKeyException, NoSuchAlgorithmException {
+        final Mac mac = Mac.getInstance(HMAC);
+        // no salt is a block of zeros, RFC 5869 section 2.2
+        mac.init(new SecretKeySpec(salt == null || salt.length == 0 ? new byte[HASH_LENGTH] : salt, HMAC));
+        return mac.doFinal(ikm);
+    }
+
+    /**
+     * HKDF-Expand.
+     *
+     * @param mac
+     *            Mac initialized with the pseudorandom key
+     * @param info
+     *            context info
+     * @param out
+     *            filled with output keying material
+     */
+    static void expand(Mac mac, byte[] info, byte[] out) {
+        final byte[] block = new byte[HASH_LENGTH];
+        try {
+            for (int counter = 1, done = 0; done < out.length; counter++) {
+                if (counter > 1) {
+                    mac.update(block);
+                }
+                mac.update(info);
+                mac.update((byte) counter);
+                mac.doFinal(block, 0);
+                final int n = Math.min(HASH_LENGTH, out.length - done);
+                System.arraycopy(block, 0, out, done, n);
+                done += n;
+            }
+        } catch (ShortBufferException e) {
+            // the block is the length of the mac
+            throw new IllegalStateException(e);
+        } finally {
+            Arrays.fill(block, (byte) 0);
+        }
+    }
+}
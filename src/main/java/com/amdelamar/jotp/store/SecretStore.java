@@ -0,0 +1,696 @@
+package com.amdelamar.jotp.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+import com.amdelamar.jotp.OTP;
+import com.amdelamar.jotp.OTPKey;
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Base32;
+import com.amdelamar.jotp.util.Hmac;
+import com.amdelamar.jotp.util.Utils;
+
+/**
+ * Per-account OTP secrets kept off the Java heap, in a memory-mapped file or a direct buffer.
+ *
+ * Each account is one fixed-size record holding its raw HMAC key, algorithm, digits, period, and
+ * last used step (TOTP) or counter (HOTP). Records live in an open-addressed table indexed by the
+ * long account id, so opening a store only maps the file and nothing is loaded up front. Codes
+ * are computed with the key read straight from the record; it is never copied onto the heap.
+ * Buffers are int-addressed, so the table is mapped in segments of up to 4M records, which lets
+ * one store hold hundreds of millions of accounts.
+ *
+ * Adding and removing accounts is serialized. Reads are lock-free and retried if an account they
+ * looked at changed meanwhile. Verification takes a lock per stripe of accounts, so that the
+ * step or counter it moves forward is never used twice.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class SecretStore implements Closeable {
+
+    /**
+     * Largest HMAC key a record holds, in bytes. This covers Base32 secrets of up to 64 bytes
+     * for TOTP and 32 bytes for HOTP, whose key is the hex encoded secret.
+     */
+    public static final int MAX_KEY = 64;
+
+    /**
+     * Number of lock stripes.
+     */
+    public static final int STRIPES = 64;
+
+    /**
+     * Log2 of the records per segment, 384 MiB of records.
+     */
+    static final int SEGMENT_SHIFT = 22;
+
+    /**
+     * Most slots a store has, so the slot count fits the int in the header.
+     */
+    private static final long MAX_SLOTS = 1L << 30;
+
+    private static final int MAGIC = 0x6a6f746b; // "jotk"
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int RECORD = 96;
+
+    // header fields
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_SLOTS = 8;
+    private static final int H_RECORD = 12;
+    private static final int H_COUNT = 16;
+
+    // record fields
+    private static final int R_ID = 0;
+    private static final int R_STATE = 8;
+    private static final int R_ALGORITHM = 9;
+    private static final int R_DIGITS = 10;
+    private static final int R_TYPE = 11;
+    private static final int R_PERIOD = 12;
+    private static final int R_LAST = 16;
+    private static final int R_KEY_LENGTH = 24;
+    private static final int R_KEY = 32;
+
+    private static final byte EMPTY = 0;
+    private static final byte LIVE = 1;
+    private static final byte REMOVED = 2;
+
+    private static final byte TOTP = 1;
+    private static final byte HOTP = 2;
+
+    private static final String[] ALGORITHMS = { null, Hmac.HMACSHA1, Hmac.HMACSHA256, Hmac.HMACSHA512 };
+
+    private final FileChannel channel;
+    private final ByteBuffer header;
+    private final ByteBuffer[] segments;
+    private final int segmentShift;
+    private final long mask;
+    private final StampedLock[] locks = new StampedLock[STRIPES];
+    private volatile boolean closed;
+
+    /**
+     * Create a store in a direct buffer, for secrets that should stay off the heap but need not
+     * outlive the process.
+     *
+     * @param capacity
+     *            maximum number of accounts
+     */
+    public SecretStore(int capacity) {
+        this(capacity, SEGMENT_SHIFT);
+    }
+
+    /**
+     * Direct buffer store with smaller segments, for tests.
+     */
+    SecretStore(int capacity, int segmentShift) {
+        final long slots = slots(capacity);
+        this.channel = null;
+        this.segmentShift = segmentShift;
+        this.header = ByteBuffer.allocateDirect(HEADER);
+        this.segments = new ByteBuffer[segmentCount(slots, segmentShift)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect(segmentSlots(slots, segmentShift, i) * RECORD);
+        }
+        this.mask = slots - 1;
+        writeHeader(slots);
+        initLocks();
+    }
+
+    /**
+     * Open or create a store in a memory-mapped file.
+     *
+     * @param file
+     *            the store file
+     * @param capacity
+     *            maximum number of accounts. An existing file keeps its capacity.
+     * @throws IOException when the file cannot be read or created, or is not a store
+     */
+    public SecretStore(Path file, int capacity) throws IOException {
+        long slots = slots(capacity);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.segmentShift = SEGMENT_SHIFT;
+        try {
+            final boolean existing = channel.size() > 0;
+            if (existing) {
+                final ByteBuffer read = ByteBuffer.allocate(HEADER);
+                while (read.hasRemaining() && channel.read(read, read.position()) >= 0) {
+                    // read the whole header
+                }
+                slots = read.getInt(H_SLOTS);
+                if (read.getInt(H_MAGIC) != MAGIC || read.getInt(H_VERSION) != VERSION
+                        || read.getInt(H_RECORD) != RECORD || Long.bitCount(slots) != 1 || slots > MAX_SLOTS
+                        || channel.size() != HEADER + slots * RECORD) {
+                    throw new IOException("Not a secret store: " + file);
+                }
+            }
+            // the records are one array in the file, mapped a segment at a time
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+            this.segments = new ByteBuffer[segmentCount(slots, segmentShift)];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER + ((long) i << segmentShift) * RECORD,
+                        (long) segmentSlots(slots, segmentShift, i) * RECORD);
+            }
+            this.mask = slots - 1;
+            if (!existing) {
+                writeHeader(slots);
+                force();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        initLocks();
+    }
+
+    /**
+     * Adds an account, or replaces its secret and resets its step or counter.
+     *
+     * @param accountId
+     *            account id
+     * @param secret
+     *            Shhhhh. (Base32)
+     * @param digits
+     *            Length of code (Commonly '6')
+     * @param period
+     *            TOTP period in seconds (Commonly '30'). Ignored for HOTP.
+     * @param type
+     *            Type.TOTP or Type.HOTP
+     * @param algorithm
+     *            HmacSHA1, HmacSHA256, HmacSHA512
+     * @throws IllegalArgumentException when parameters are invalid, or the key is too long
+     * @throws IllegalStateException when the store is full
+     * @throws NoSuchAlgorithmException when the algorithm is not supported
+     */
+    public void put(long accountId, String secret, int digits, int period, Type type, String algorithm)
+            throws IllegalArgumentException, IllegalStateException, NoSuchAlgorithmException {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("Secret cannot be null or empty.");
+        }
+        if (type == null) {
+            throw new IllegalArgumentException("Type cannot be null or empty.");
+        }
+        if (digits <= 0 || digits > 10) {
+            throw new IllegalArgumentException("Digits must be between 1 and 10 (e.g. '6').");
+        }
+        final byte alg = algorithm(algorithm);
+
+        final byte[] bytes = Base32.decode(secret);
+        // HOTP keys are the hex encoded secret, same as HOTP.create()
+        final byte[] key = type == Type.HOTP ? Utils.hexKey(bytes) : bytes;
+        try {
+            if (key.length == 0 || key.length > MAX_KEY) {
+                throw new IllegalArgumentException("Key must be 1 to " + MAX_KEY + " bytes.");
+            }
+            synchronized (this) {
+                checkOpen();
+                long slot = find(accountId);
+                if (slot < 0) {
+                    slot = vacancy(accountId);
+                    header.putInt(H_COUNT, header.getInt(H_COUNT) + 1);
+                }
+                final StampedLock lock = lock(accountId);
+                final long stamp = lock.writeLock();
+                try {
+                    final ByteBuffer buffer = segment(slot);
+                    final int at = offset(slot);
+                    buffer.putLong(at + R_ID, accountId);
+                    buffer.put(at + R_ALGORITHM, alg);
+                    buffer.put(at + R_DIGITS, (byte) digits);
+                    buffer.put(at + R_TYPE, type == Type.HOTP ? HOTP : TOTP);
+                    buffer.putInt(at + R_PERIOD, period > 1 ? period : 1);
+                    buffer.putLong(at + R_LAST, type == Type.HOTP ? 0L : -1L);
+                    buffer.put(at + R_KEY_LENGTH, (byte) key.length);
+                    for (int i = 0; i < MAX_KEY; i++) {
+                        buffer.put(at + R_KEY + i, i < key.length ? key[i] : 0);
+                    }
+                    // published last, lock-free lookups skip the slot until then
+                    buffer.put(at + R_STATE, LIVE);
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    /**
+     * Removes an account and wipes its key. Records that probed past it move back into its slot,
+     * so churn leaves no tombstones to slow lookups down.
+     *
+     * @param accountId
+     *            account id
+     * @return true if the account was stored
+     */
+    public synchronized boolean remove(long accountId) {
+        checkOpen();
+        final long slot = find(accountId);
+        if (slot < 0) {
+            return false;
+        }
+        final StampedLock lock = lock(accountId);
+        final long stamp = lock.writeLock();
+        try {
+            clear(slot);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        header.putInt(H_COUNT, header.getInt(H_COUNT) - 1);
+        shiftBack(slot);
+        return true;
+    }
+
+    /**
+     * @param accountId
+     *            account id
+     * @return true if the account is stored
+     */
+    public boolean contains(long accountId) {
+        final StampedLock lock = lock(accountId);
+        while (true) {
+            final long stamp = lock.tryOptimisticRead();
+            final boolean found = find(accountId) >= 0;
+            if (stamp != 0L && lock.validate(stamp)) {
+                return found;
+            }
+        }
+    }
+
+    /**
+     * Gets the last accepted time step (TOTP) or the next counter (HOTP) of an account.
+     *
+     * @param accountId
+     *            account id
+     * @return step or counter, or -1 if the account is not stored or has no step yet
+     */
+    public long lastStep(long accountId) {
+        final StampedLock lock = lock(accountId);
+        while (true) {
+            final long stamp = lock.tryOptimisticRead();
+            final long slot = find(accountId);
+            final long last = slot < 0 ? -1L : segment(slot).getLong(offset(slot) + R_LAST);
+            if (stamp != 0L && lock.validate(stamp)) {
+                return last;
+            }
+        }
+    }
+
+    /**
+     * Generate a one-time-password for an account as an int.
+     *
+     * @param accountId
+     *            account id
+     * @param base
+     *            The counter (HOTP) or time step (TOTP).
+     * @return code, without leading zeros
+     * @throws IllegalArgumentException when the account is not stored
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when the stored key is invalid
+     */
+    public int generate(long accountId, long base)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        final StampedLock lock = lock(accountId);
+        while (true) {
+            final long stamp = lock.tryOptimisticRead();
+            final long slot = find(accountId);
+            int code = -1;
+            if (slot >= 0) {
+                try {
+                    code = code(segment(slot), offset(slot), base);
+                } catch (InvalidKeyException | NoSuchAlgorithmException | IllegalArgumentException e) {
+                    // a torn read of a record being replaced, unless validation says otherwise
+                    if (stamp != 0L && lock.validate(stamp)) {
+                        throw e;
+                    }
+                    continue;
+                }
+            }
+            if (stamp != 0L && lock.validate(stamp)) {
+                if (slot < 0) {
+                    throw new IllegalArgumentException("Account " + accountId + " is not stored.");
+                }
+                return code;
+            }
+        }
+    }
+
+    /**
+     * Verifies a TOTP code against a window of time steps around the given time, newest first.
+     * Only steps after the last accepted one match, and the matching step becomes the last
+     * accepted one.
+     *
+     * @param accountId
+     *            account id
+     * @param code
+     *            An OTP code to check.
+     * @param timeInMillis
+     *            long (like <code>System.currentTimeMillis()</code>)
+     * @param lookBehind
+     *            number of earlier steps to accept (e.g. '1' for one step of clock drift)
+     * @param lookAhead
+     *            number of later steps to accept
+     * @return offset in steps that matched (e.g. -1, 0, 1), or OTPKey.NO_MATCH
+     * @throws IllegalArgumentException when code is null or empty, the window is negative, or
+     *             the account is not TOTP
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when the stored key is invalid
+     */
+    public int verifyTime(long accountId, CharSequence code, long timeInMillis, int lookBehind, int lookAhead)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        final int value = parse(code, lookBehind, lookAhead);
+        final StampedLock lock = lock(accountId);
+        final long stamp = lock.writeLock();
+        try {
+            final long slot = find(accountId);
+            if (slot < 0) {
+                return OTPKey.NO_MATCH;
+            }
+            final ByteBuffer buffer = segment(slot);
+            final int at = offset(slot);
+            if (buffer.get(at + R_TYPE) != TOTP) {
+                throw new IllegalArgumentException("Account " + accountId + " is not Type.TOTP.");
+            }
+            if (value < 0 || code.length() != buffer.get(at + R_DIGITS)) {
+                return OTPKey.NO_MATCH;
+            }
+            final long step = OTP.timeStep(timeInMillis, buffer.getInt(at + R_PERIOD));
+            final long last = buffer.getLong(at + R_LAST);
+            for (int offset = lookAhead; offset >= -lookBehind && step + offset > last; offset--) {
+                if (code(buffer, at, step + offset) == value) {
+                    buffer.putLong(at + R_LAST, step + offset);
+                    return offset;
+                }
+            }
+            return OTPKey.NO_MATCH;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Verifies an HOTP code against the account's counter and a look-ahead window, and advances
+     * the counter past the match.
+     *
+     * @param accountId
+     *            account id
+     * @param code
+     *            An OTP code to check.
+     * @param lookAhead
+     *            number of counters past the stored one to accept
+     * @return offset from the stored counter that matched, or OTPKey.NO_MATCH
+     * @throws IllegalArgumentException when code is null or empty, the window is negative, or
+     *             the account is not HOTP
+     * @throws NoSuchAlgorithmException when HMAC is not available on this jvm
+     * @throws InvalidKeyException when the stored key is invalid
+     */
+    public int verifyCounter(long accountId, CharSequence code, int lookAhead)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        final int value = parse(code, 0, lookAhead);
+        final StampedLock lock = lock(accountId);
+        final long stamp = lock.writeLock();
+        try {
+            final long slot = find(accountId);
+            if (slot < 0) {
+                return OTPKey.NO_MATCH;
+            }
+            final ByteBuffer buffer = segment(slot);
+            final int at = offset(slot);
+            if (buffer.get(at + R_TYPE) != HOTP) {
+                throw new IllegalArgumentException("Account " + accountId + " is not Type.HOTP.");
+            }
+            if (value < 0 || code.length() != buffer.get(at + R_DIGITS)) {
+                return OTPKey.NO_MATCH;
+            }
+            final long counter = buffer.getLong(at + R_LAST);
+            for (int offset = 0; offset <= lookAhead; offset++) {
+                if (code(buffer, at, counter + offset) == value) {
+                    buffer.putLong(at + R_LAST, counter + offset + 1);
+                    return offset;
+                }
+            }
+            return OTPKey.NO_MATCH;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return number of accounts
+     */
+    public synchronized int size() {
+        return header.getInt(H_COUNT);
+    }
+
+    /**
+     * @return maximum number of accounts
+     */
+    public int getCapacity() {
+        return (int) ((mask + 1) / 4 * 3);
+    }
+
+    /**
+     * Writes changes to a file-backed store to disk. Does nothing for a direct buffer.
+     */
+    public void force() {
+        if (header instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) header).force();
+            for (ByteBuffer segment : segments) {
+                ((MappedByteBuffer) segment).force();
+            }
+        }
+    }
+
+    /**
+     * Forces and closes a file-backed store. The mapping itself is released by the garbage
+     * collector, so a direct buffer store should be emptied with remove() first if its keys must
+     * not linger.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            force();
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Computes the code of the record at the offset, with the key read in place.
+     */
+    private int code(ByteBuffer buffer, int at, long base) throws InvalidKeyException, NoSuchAlgorithmException {
+        final int alg = buffer.get(at + R_ALGORITHM);
+        // HOTP truncates at offset 0 like HOTP.create(), TOTP dynamically
+        final int truncation = buffer.get(at + R_TYPE) == HOTP ? 0 : -1;
+        final int binary = Hmac.truncate(alg > 0 && alg < ALGORITHMS.length ? ALGORITHMS[alg] : null, buffer,
+                at + R_KEY, buffer.get(at + R_KEY_LENGTH), base, truncation);
+        return binary % Utils.modulus(buffer.get(at + R_DIGITS));
+    }
+
+    /**
+     * Slot holding a live account, or -1.
+     */
+    private long find(long accountId) {
+        for (long i = hash(accountId) & mask, n = 0; n <= mask; i = (i + 1) & mask, n++) {
+            final ByteBuffer buffer = segment(i);
+            final int at = offset(i);
+            final byte state = buffer.get(at + R_STATE);
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == LIVE && buffer.getLong(at + R_ID) == accountId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Number of slots a lookup of the account reads, for tests.
+     */
+    int probes(long accountId) {
+        int n = 1;
+        for (long i = hash(accountId) & mask; n <= mask; i = (i + 1) & mask, n++) {
+            final ByteBuffer buffer = segment(i);
+            final int at = offset(i);
+            final byte state = buffer.get(at + R_STATE);
+            if (state == EMPTY || (state == LIVE && buffer.getLong(at + R_ID) == accountId)) {
+                break;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Fills the hole left by a removed account with the records after it that probed past it,
+     * holding the store lock, so lookups stop at an empty slot instead of crossing tombstones.
+     * Each record moves under its own stripe lock. The hole stays removed, not empty, until the
+     * last move, so concurrent lookups of other accounts never stop short.
+     */
+    private void shiftBack(long hole) {
+        for (long k = (hole + 1) & mask; k != hole; k = (k + 1) & mask) {
+            final ByteBuffer buffer = segment(k);
+            final int at = offset(k);
+            final byte state = buffer.get(at + R_STATE);
+            if (state == EMPTY) {
+                break;
+            }
+            if (state != LIVE) {
+                // a tombstone from an older version
+                continue;
+            }
+            final long accountId = buffer.getLong(at + R_ID);
+            final long home = hash(accountId) & mask;
+            // stays if its home is in (hole, k], where lookups still reach it
+            if (((k - home) & mask) < ((k - hole) & mask)) {
+                continue;
+            }
+            final StampedLock lock = lock(accountId);
+            final long stamp = lock.writeLock();
+            try {
+                final ByteBuffer target = segment(hole);
+                final int to = offset(hole);
+                for (int i = R_ID; i < RECORD; i++) {
+                    if (i != R_STATE) {
+                        target.put(to + i, buffer.get(at + i));
+                    }
+                }
+                target.put(to + R_STATE, LIVE);
+                clear(k);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            hole = k;
+        }
+        segment(hole).put(offset(hole) + R_STATE, EMPTY);
+    }
+
+    /**
+     * Marks a slot removed and wipes its record, holding its account's stripe lock.
+     */
+    private void clear(long slot) {
+        final ByteBuffer buffer = segment(slot);
+        final int at = offset(slot);
+        buffer.put(at + R_STATE, REMOVED);
+        for (int i = R_ALGORITHM; i < RECORD; i++) {
+            buffer.put(at + i, (byte) 0);
+        }
+    }
+
+    /**
+     * First removed or empty slot in the probe chain, holding the store lock.
+     */
+    private long vacancy(long accountId) {
+        if (header.getInt(H_COUNT) >= getCapacity()) {
+            throw new IllegalStateException("Secret store is full.");
+        }
+        for (long i = hash(accountId) & mask, n = 0; n <= mask; i = (i + 1) & mask, n++) {
+            if (segment(i).get(offset(i) + R_STATE) != LIVE) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Secret store is full.");
+    }
+
+    private StampedLock lock(long accountId) {
+        return locks[hash(accountId) >>> 26];
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Secret store is closed.");
+        }
+    }
+
+    private void writeHeader(long slots) {
+        header.putInt(H_MAGIC, MAGIC);
+        header.putInt(H_VERSION, VERSION);
+        header.putInt(H_SLOTS, (int) slots);
+        header.putInt(H_RECORD, RECORD);
+        header.putInt(H_COUNT, 0);
+    }
+
+    private void initLocks() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new StampedLock();
+        }
+    }
+
+    private ByteBuffer segment(long slot) {
+        return segments[(int) (slot >>> segmentShift)];
+    }
+
+    /**
+     * Offset of the slot's record in its segment.
+     */
+    private int offset(long slot) {
+        return (int) (slot & ((1L << segmentShift) - 1)) * RECORD;
+    }
+
+    static int segmentCount(long slots, int segmentShift) {
+        return (int) ((slots + (1L << segmentShift) - 1) >>> segmentShift);
+    }
+
+    private static int segmentSlots(long slots, int segmentShift, int segment) {
+        return (int) Math.min(1L << segmentShift, slots - ((long) segment << segmentShift));
+    }
+
+    private static int parse(CharSequence code, int lookBehind, int lookAhead) {
+        if (code == null || code.length() == 0) {
+            throw new IllegalArgumentException("Code cannot be null or empty.");
+        }
+        if (lookBehind < 0 || lookAhead < 0) {
+            throw new IllegalArgumentException("Window cannot be negative.");
+        }
+        return Utils.parse(code);
+    }
+
+    private static byte algorithm(String algorithm) throws NoSuchAlgorithmException {
+        for (int i = 1; i < ALGORITHMS.length; i++) {
+            if (ALGORITHMS[i].equalsIgnoreCase(algorithm)) {
+                return (byte) i;
+            }
+        }
+        throw new NoSuchAlgorithmException(algorithm + " is not supported by the secret store.");
+    }
+
+    /**
+     * Power of two number of slots that keeps the load factor at or below 3/4.
+     */
+    static long slots(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be a positive integer.");
+        }
+        final long wanted = Math.max(8L, (long) capacity + (capacity + 2) / 3);
+        final long slots = Long.highestOneBit(wanted - 1) << 1;
+        if (slots > MAX_SLOTS) {
+            throw new IllegalArgumentException("Capacity is too large for one store.");
+        }
+        return slots;
+    }
+
+    private static int hash(long key) {
+        // murmur3 finalizer
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
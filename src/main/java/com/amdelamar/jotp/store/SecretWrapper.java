@@ -0,0 +1,212 @@
+package com.amdelamar.jotp.store;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.amdelamar.jotp.OTPKey;
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Base32;
+import com.amdelamar.jotp.util.HmacBackend;
+import com.amdelamar.jotp.util.SecureRandoms;
+
+/**
+ * Encrypts OTP secrets for storage at rest with AES-GCM under a master key.
+ *
+ * A wrapped secret is a version byte, a random 12 byte IV, and the ciphertext with its 16 byte
+ * tag. The account id is authenticated along with it, so a wrapped secret copied to another
+ * account does not unwrap. Each thread reuses one Cipher.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class SecretWrapper {
+
+    /**
+     * Bytes a wrapped secret adds to the secret.
+     */
+    public static final int OVERHEAD = 29;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final byte VERSION = 1;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int HEADER = 1 + IV_LENGTH;
+
+    private static final ThreadLocal<Cipher> CIPHER = new ThreadLocal<Cipher>();
+
+    private final SecretKey masterKey;
+
+    /**
+     * Wrapper under a master key.
+     *
+     * @param masterKey
+     *            AES key of 16, 24 or 32 bytes. The array is copied, so the caller can clear it.
+     * @throws InvalidKeyException when the master key is not an AES key
+     * @throws NoSuchAlgorithmException when AES-GCM is not available on this jvm
+     */
+    public SecretWrapper(byte[] masterKey) throws InvalidKeyException, NoSuchAlgorithmException {
+        if (masterKey == null || (masterKey.length != 16 && masterKey.length != 24 && masterKey.length != 32)) {
+            throw new InvalidKeyException("Master key must be 16, 24 or 32 bytes.");
+        }
+        this.masterKey = new SecretKeySpec(masterKey, "AES");
+        cipher();
+    }
+
+    /**
+     * Encrypts a secret for an account.
+     *
+     * @param accountId
+     *            account id, authenticated with the secret
+     * @param secret
+     *            Shhhhh. (raw bytes)
+     * @return wrapped secret
+     * @throws IllegalArgumentException when secret is null or empty
+     * @throws InvalidKeyException when the master key is rejected
+     * @throws NoSuchAlgorithmException when AES-GCM is not available on this jvm
+     */
+    public byte[] wrap(long accountId, byte[] secret)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        if (secret == null || secret.length == 0) {
+            throw new IllegalArgumentException("Secret cannot be null or empty.");
+        }
+        final byte[] wrapped = new byte[secret.length + OVERHEAD];
+        wrapped[0] = VERSION;
+        final byte[] iv = new byte[IV_LENGTH];
+        SecureRandoms.current().nextBytes(iv);
+        System.arraycopy(iv, 0, wrapped, 1, IV_LENGTH);
+
+        final Cipher cipher = cipher();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, masterKey, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(aad(accountId));
+            cipher.doFinal(secret, 0, secret.length, wrapped, HEADER);
+        } catch (InvalidKeyException e) {
+            throw e;
+        } catch (GeneralSecurityException e) {
+            throw new InvalidKeyException("Secret could not be wrapped.", e);
+        }
+        return wrapped;
+    }
+
+    /**
+     * Encrypts a Base32 secret for an account.
+     *
+     * @param accountId
+     *            account id, authenticated with the secret
+     * @param secret
+     *            Shhhhh. (Base32)
+     * @return wrapped secret
+     * @throws IllegalArgumentException when secret is null or empty
+     * @throws InvalidKeyException when the master key is rejected
+     * @throws NoSuchAlgorithmException when AES-GCM is not available on this jvm
+     */
+    public byte[] wrap(long accountId, String secret)
+            throws IllegalArgumentException, InvalidKeyException, NoSuchAlgorithmException {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("Secret cannot be null or empty.");
+        }
+        final byte[] bytes = Base32.decode(secret);
+        try {
+            return wrap(accountId, bytes);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Decrypts a wrapped secret. The caller should clear the result once it is used.
+     *
+     * @param accountId
+     *            account id it was wrapped for
+     * @param wrapped
+     *            wrapped secret
+     * @return secret as raw bytes
+     * @throws InvalidKeyException when the wrapped secret is malformed, was changed, belongs to
+     *             another account, or was wrapped under another master key
+     * @throws NoSuchAlgorithmException when AES-GCM is not available on this jvm
+     */
+    public byte[] unwrap(long accountId, byte[] wrapped) throws InvalidKeyException, NoSuchAlgorithmException {
+        if (wrapped == null || wrapped.length <= OVERHEAD || wrapped[0] != VERSION) {
+            throw new InvalidKeyException("Not a wrapped secret.");
+        }
+        final Cipher cipher = cipher();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(TAG_BITS, wrapped, 1, IV_LENGTH));
+            cipher.updateAAD(aad(accountId));
+            return cipher.doFinal(wrapped, HEADER, wrapped.length - HEADER);
+        } catch (AEADBadTagException e) {
+            throw new InvalidKeyException("Wrapped secret failed authentication.", e);
+        } catch (InvalidKeyException e) {
+            throw e;
+        } catch (GeneralSecurityException e) {
+            throw new InvalidKeyException("Secret could not be unwrapped.", e);
+        }
+    }
+
+    /**
+     * Loader for a KeyCache that unwraps each account's secret and compiles it with the JAVA
+     * backend, whose keys can be wiped on eviction. The unwrapped secret is cleared right after.
+     *
+     * @param lookup
+     *            gets an account's wrapped secret, or null for an unknown account
+     * @param digits
+     *            Length of code (Commonly '6')
+     * @param period
+     *            TOTP period in seconds (Commonly '30'). Ignored for HOTP.
+     * @param type
+     *            Type.TOTP or Type.HOTP
+     * @param algorithm
+     *            HmacSHA1, HmacSHA256, HmacSHA512
+     * @return loader
+     */
+    public KeyCache.Loader loader(LongFunction<byte[]> lookup, int digits, int period, Type type,
+            String algorithm) {
+        if (lookup == null) {
+            throw new IllegalArgumentException("Lookup cannot be null.");
+        }
+        return accountId -> {
+            final byte[] wrapped = lookup.apply(accountId);
+            if (wrapped == null) {
+                return null;
+            }
+            final byte[] secret = unwrap(accountId, wrapped);
+            try {
+                return new OTPKey(secret, digits, period, type, algorithm, HmacBackend.JAVA);
+            } finally {
+                Arrays.fill(secret, (byte) 0);
+            }
+        };
+    }
+
+    private static Cipher cipher() throws NoSuchAlgorithmException {
+        Cipher cipher = CIPHER.get();
+        if (cipher == null) {
+            try {
+                cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (NoSuchPaddingException e) {
+                throw new NoSuchAlgorithmException(TRANSFORMATION + " is not available.", e);
+            }
+            CIPHER.set(cipher);
+        }
+        return cipher;
+    }
+
+    private static byte[] aad(long accountId) {
+        final byte[] aad = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            aad[i] = (byte) accountId;
+            accountId >>>= 8;
+        }
+        return aad;
+    }
+}
@@ -3,6 +3,8 @@ package com.amdelamar.jotp.type;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
+import com.amdelamar.jotp.metrics.OTPMetrics;
+import com.amdelamar.jotp.metrics.Phase;
 import com.amdelamar.jotp.util.Utils;
 
 /**
@@ -110,32 +112,26 @@ public class HOTP implements OTPInterface {
             int truncationOffset,
             String crypto) throws NoSuchAlgorithmException, InvalidKeyException {
         // put movingFactor value into text byte array
-        byte[] text = new byte[8];
-        for (int i = text.length - 1; i >= 0; i--) {
-            text[i] = (byte) (movingFactor & 0xff);
-            movingFactor >>= 8;
-        }
+        final byte[] text = Utils.toBytes(movingFactor);
+
+        final OTPMetrics metrics = OTPMetrics.current();
+        final long start = metrics == null ? 0L : System.nanoTime();
 
         // compute hmac hash
         final byte[] hash = Utils.hmac(crypto, secret, text);
+        final long computed = metrics == null ? 0L : System.nanoTime();
 
         // put selected bytes into result int
-        int offset = hash[hash.length - 1] & 0xf;
-        if ((-1 < truncationOffset) && (truncationOffset < (hash.length - 4))) {
-            offset = truncationOffset;
+        final int binary = Utils.truncate(hash, truncationOffset);
+        if (metrics != null) {
+            metrics.recordLatency(Phase.HMAC, computed - start);
+            metrics.recordLatency(Phase.TRUNCATE, System.nanoTime() - computed);
         }
-        int binary = ((hash[offset] & 0x7f) << 24) | ((hash[offset + 1] & 0xff) << 16)
-                | ((hash[offset + 2] & 0xff) << 8) | (hash[offset + 3] & 0xff);
 
-        int otp = binary % ((int) Math.pow(10, digits));
+        int otp = binary % Utils.modulus(digits);
         if (addChecksum) {
             otp = (otp * 10) + checksum(otp, digits);
         }
-        String result = Integer.toString(otp);
-        final int digit = addChecksum ? (digits + 1) : digits;
-        while (result.length() < digit) {
-            result = "0" + result;
-        }
-        return result;
+        return Utils.toString(otp, addChecksum ? (digits + 1) : digits);
     }
 }
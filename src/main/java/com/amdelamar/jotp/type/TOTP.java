@@ -4,6 +4,8 @@ import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
+import com.amdelamar.jotp.metrics.OTPMetrics;
+import com.amdelamar.jotp.metrics.Phase;
 import com.amdelamar.jotp.util.Utils;
 
 /**
@@ -81,31 +83,36 @@ public class TOTP implements OTPInterface {
      */
     protected static String generateTotp(String key, String time, int digits, String crypto)
             throws InvalidKeyException, NoSuchAlgorithmException {
+        final OTPMetrics metrics = OTPMetrics.current();
+        final long start = metrics == null ? 0L : System.nanoTime();
+
         // Using the counter
         // First 8 bytes are for the movingFactor
         // Compliant with base RFC 4226 (HOTP)
-        while (time.length() < 16) {
-            time = "0" + time;
+        final byte[] msg;
+        if (time.length() <= 16) {
+            // fits the 8 bytes, skip the padding and BigInteger round trip
+            msg = Utils.toBytes(time.isEmpty() ? 0L : Long.parseUnsignedLong(time, 16));
+        } else {
+            msg = hexStringToBytes(time);
         }
 
         // Get the HEX in a Byte[]
-        final byte[] msg = hexStringToBytes(time);
         final byte[] k = hexStringToBytes(key);
+        final long decoded = metrics == null ? 0L : System.nanoTime();
 
         final byte[] hash = Utils.hmac(crypto, k, msg);
+        final long computed = metrics == null ? 0L : System.nanoTime();
 
-        // put selected bytes into result int
-        final int offset = hash[hash.length - 1] & 0xf;
-
-        int binary = ((hash[offset] & 0x7f) << 24) | ((hash[offset + 1] & 0xff) << 16)
-                | ((hash[offset + 2] & 0xff) << 8) | (hash[offset + 3] & 0xff);
-
-        final int otp = binary % ((int) Math.pow(10, digits));
-
-        String result = Integer.toString(otp);
-        while (result.length() < digits) {
-            result = "0" + result;
+        // put selected bytes into result int, using dynamic truncation
+        final int binary = Utils.truncate(hash, -1);
+        if (metrics != null) {
+            metrics.recordLatency(Phase.DECODE, decoded - start);
+            metrics.recordLatency(Phase.HMAC, computed - decoded);
+            metrics.recordLatency(Phase.TRUNCATE, System.nanoTime() - computed);
         }
-        return result;
+
+        final int otp = binary % Utils.modulus(digits);
+        return Utils.toString(otp, digits);
     }
 }
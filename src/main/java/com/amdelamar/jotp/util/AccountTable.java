@@ -0,0 +1,361 @@
+package com.amdelamar.jotp.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongPredicate;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Fixed size map from a long account id to a 48 bit state value, for per-account bookkeeping on
+ * the verification path.
+ *
+ * The table is split into stripes of open-addressed slots. Updating an account that is already
+ * present is a lock-free CAS on its slot. Only adding a new account takes the stripe lock. When a
+ * stripe fills up, entries the expiry predicate accepts are freed and their slots reused, so
+ * memory stays bounded by the capacity given at construction.
+ *
+ * Each slot value carries a 16 bit epoch next to the state, which changes whenever the slot is
+ * freed, moved or reused. Reads check the slot still holds the account after reading its value,
+ * and a CAS that raced with any of these fails instead of landing on another account.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class AccountTable {
+
+    /**
+     * Returned when an account has no entry, and passed to update functions for a new account.
+     */
+    public static final long MISSING = -1L;
+
+    /**
+     * Largest state value that can be stored.
+     */
+    public static final long MAX_VALUE = 0xFFFFFFFFFFFDL;
+
+    /**
+     * Slot value layout: epoch in the top 16 bits, then a 48 bit payload that is 0 for an empty
+     * slot, all ones for a freed slot, or the state plus one.
+     */
+    private static final long PAYLOAD = 0xFFFFFFFFFFFFL;
+    private static final long EMPTY = 0L;
+    private static final long FREE = PAYLOAD;
+    private static final int EPOCH_SHIFT = 48;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final LongPredicate expired;
+
+    /**
+     * Create a table.
+     *
+     * @param capacity
+     *            maximum number of accounts
+     * @param stripes
+     *            number of lock stripes, rounded up to a power of two
+     * @param expired
+     *            returns true for state values that may be dropped when a stripe is full
+     */
+    public AccountTable(int capacity, int stripes, LongPredicate expired) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be a positive integer.");
+        }
+        if (expired == null) {
+            throw new IllegalArgumentException("Expiry cannot be null.");
+        }
+        final int stripeCount = powerOfTwo(Math.max(1, Math.min(stripes, capacity)));
+        final int perStripe = (int) Math.min(1 << 29, ((long) capacity + stripeCount - 1) / stripeCount);
+        // keep the load factor at or below 3/4
+        final int slots = powerOfTwo(Math.max(8, perStripe + (perStripe + 2) / 3));
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe(slots, perStripe);
+        }
+        this.stripeShift = 32 - Integer.numberOfTrailingZeros(stripeCount);
+        this.expired = expired;
+    }
+
+    /**
+     * Gets the state of an account.
+     *
+     * @param key
+     *            account id
+     * @return state, or MISSING
+     */
+    public long get(long key) {
+        final int hash = hash(key);
+        final Stripe stripe = stripe(hash);
+        while (true) {
+            final int version = stripe.version;
+            final int slot = stripe.find(key, hash);
+            if (slot >= 0) {
+                final long value = stripe.values.get(slot);
+                if (stripe.holds(slot, key, value)) {
+                    return (value & PAYLOAD) - 1;
+                }
+            } else if (stripe.stable(version)) {
+                return MISSING;
+            }
+        }
+    }
+
+    /**
+     * Atomically updates the state of an account with the function, adding the account if it
+     * is missing. The function may be called more than once, and should return its argument to
+     * leave the state unchanged, or MISSING to not add a new account.
+     *
+     * @param key
+     *            account id
+     * @param update
+     *            function from the current state (or MISSING) to the new state
+     * @return the previous state, or MISSING if the account was added or not added
+     * @throws IllegalStateException when a new account does not fit and nothing can be expired
+     * @throws IllegalArgumentException when the function returns a value out of range
+     */
+    public long getAndUpdate(long key, LongUnaryOperator update)
+            throws IllegalStateException, IllegalArgumentException {
+        final int hash = hash(key);
+        final Stripe stripe = stripe(hash);
+        while (true) {
+            final int version = stripe.version;
+            final int slot = stripe.find(key, hash);
+            if (slot >= 0) {
+                final long value = stripe.values.get(slot);
+                if (!stripe.holds(slot, key, value)) {
+                    // freed, moved or reused under us, look again
+                    continue;
+                }
+                final long current = (value & PAYLOAD) - 1;
+                final long next = check(update.applyAsLong(current));
+                if (next == current || next == MISSING
+                        || stripe.values.compareAndSet(slot, value, (value & ~PAYLOAD) | (next + 1))) {
+                    return current;
+                }
+                continue;
+            }
+            final long next = check(update.applyAsLong(MISSING));
+            if (next == MISSING) {
+                if (stripe.stable(version)) {
+                    return MISSING;
+                }
+            } else if (stripe.insert(key, hash, next + 1, expired)) {
+                return MISSING;
+            }
+            // added by someone else, or moved while we looked
+        }
+    }
+
+    /**
+     * Frees every entry whose state the expiry predicate accepts.
+     *
+     * @return number of entries freed
+     */
+    public int expire() {
+        int freed = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                freed += stripe.expire(expired);
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * @return number of accounts stored
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.live;
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripe(int hash) {
+        return stripes.length == 1 ? stripes[0] : stripes[hash >>> stripeShift];
+    }
+
+    private static long check(long value) {
+        if (value != MISSING && (value < 0 || value > MAX_VALUE)) {
+            throw new IllegalArgumentException("State must be between 0 and " + MAX_VALUE + ".");
+        }
+        return value;
+    }
+
+    private static boolean isLive(long value) {
+        final long payload = value & PAYLOAD;
+        return payload != EMPTY && payload != FREE;
+    }
+
+    private static long nextEpoch(long value) {
+        final long epoch = (value >>> EPOCH_SHIFT) + 1;
+        return (epoch & 0xFFFFL) << EPOCH_SHIFT;
+    }
+
+    private static int hash(long key) {
+        // murmur3 finalizer
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private static int powerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private static final class Stripe {
+        private final AtomicLongArray keys;
+        private final AtomicLongArray values;
+        private final int mask;
+        private final int max;
+        /** odd while entries are being moved */
+        private volatile int version;
+        /** slots that are live or freed, guarded by this */
+        private int used;
+        /** live slots, guarded by this */
+        private int live;
+
+        private Stripe(int slots, int max) {
+            this.keys = new AtomicLongArray(slots);
+            this.values = new AtomicLongArray(slots);
+            this.mask = slots - 1;
+            this.max = max;
+        }
+
+        /**
+         * Lock-free lookup of the live slot holding key.
+         */
+        private int find(long key, int hash) {
+            for (int i = hash & mask, n = 0; n <= mask; i = (i + 1) & mask, n++) {
+                // read the value before the key, they are published in the other order
+                final long value = values.get(i);
+                final long payload = value & PAYLOAD;
+                if (payload == EMPTY) {
+                    return -1;
+                }
+                if (payload != FREE && keys.get(i) == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * True if the value read from the slot is live and belongs to key. The key is read after
+         * the value and written before it, so a slot that was reused for another account since
+         * find() fails this, and a CAS against the value fails if it is reused later.
+         */
+        private boolean holds(int slot, long key, long value) {
+            return isLive(value) && keys.get(slot) == key;
+        }
+
+        /**
+         * True if a lookup that started at the version could not have missed a moving entry.
+         */
+        private boolean stable(int start) {
+            return (start & 1) == 0 && version == start;
+        }
+
+        private synchronized boolean insert(long key, int hash, long payload, LongPredicate expired) {
+            if (find(key, hash) >= 0) {
+                return false;
+            }
+            int slot = vacancy(hash);
+            if (slot < 0) {
+                expire(expired);
+                if (live >= max) {
+                    throw new IllegalStateException("Account table is full.");
+                }
+                if (used >= max) {
+                    rebuild();
+                }
+                slot = vacancy(hash);
+                if (slot < 0) {
+                    throw new IllegalStateException("Account table is full.");
+                }
+            }
+            final long old = values.get(slot);
+            if ((old & PAYLOAD) == EMPTY) {
+                used++;
+            }
+            live++;
+            keys.set(slot, key);
+            values.set(slot, nextEpoch(old) | payload);
+            return true;
+        }
+
+        /**
+         * First freed slot in the probe chain, or the empty slot ending it if there is room.
+         */
+        private int vacancy(int hash) {
+            if (live >= max) {
+                return -1;
+            }
+            for (int i = hash & mask, n = 0; n <= mask; i = (i + 1) & mask, n++) {
+                final long value = values.get(i);
+                if ((value & PAYLOAD) == EMPTY) {
+                    return used < max ? i : -1;
+                }
+                if ((value & PAYLOAD) == FREE) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int expire(LongPredicate expired) {
+            int freed = 0;
+            for (int i = 0; i <= mask; i++) {
+                final long value = values.get(i);
+                if (isLive(value) && expired.test((value & PAYLOAD) - 1)
+                        && values.compareAndSet(i, value, nextEpoch(value) | FREE)) {
+                    freed++;
+                }
+            }
+            live -= freed;
+            return freed;
+        }
+
+        /**
+         * Clears out freed slots by taking every live entry out and putting it back. Lock-free
+         * readers that miss an entry while this runs see the odd version and look again.
+         */
+        private void rebuild() {
+            version++;
+            final long[] movedKeys = new long[live];
+            final long[] movedPayloads = new long[live];
+            int moved = 0;
+            for (int i = 0; i <= mask; i++) {
+                while (true) {
+                    final long value = values.get(i);
+                    final long payload = value & PAYLOAD;
+                    if (values.compareAndSet(i, value, nextEpoch(value) | EMPTY)) {
+                        if (payload != EMPTY && payload != FREE) {
+                            movedKeys[moved] = keys.get(i);
+                            movedPayloads[moved++] = payload;
+                        }
+                        break;
+                    }
+                }
+            }
+            used = 0;
+            live = 0;
+            for (int m = 0; m < moved; m++) {
+                final long key = movedKeys[m];
+                int i = hash(key) & mask;
+                while ((values.get(i) & PAYLOAD) != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                used++;
+                live++;
+                keys.set(i, key);
+                values.set(i, nextEpoch(values.get(i)) | movedPayloads[m]);
+            }
+            version++;
+        }
+    }
+}
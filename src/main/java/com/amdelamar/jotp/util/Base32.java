@@ -0,0 +1,210 @@
+package com.amdelamar.jotp.util;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * RFC 4648 Base32 codec that works on caller supplied buffers. Encoding pads with '=', the same
+ * output as commons-codec Base32. Decoding accepts upper and lower case with or without padding,
+ * and rejects any other character instead of skipping it.
+ *
+ * @author amdelamar
+ * @see <a href="https://tools.ietf.org/html/rfc4648#section-6">https://tools.ietf.org/html/rfc4648#section-6</a>
+ * @since 1.4.0
+ */
+public final class Base32 {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+    private static final char PAD = '=';
+
+    /**
+     * Character to 5 bit value, -1 where the character is not in the alphabet.
+     */
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE[ALPHABET[i]] = (byte) i;
+            DECODE[Character.toLowerCase(ALPHABET[i])] = (byte) i;
+        }
+    }
+
+    private Base32() {
+        // prevent instantiation
+    }
+
+    /**
+     * Gets the number of characters the encoding of len bytes takes, padding included.
+     *
+     * @param len
+     *            number of bytes
+     * @return number of characters
+     */
+    public static int encodedLength(int len) {
+        return (len + 4) / 5 * 8;
+    }
+
+    /**
+     * Encodes the bytes.
+     *
+     * @param src
+     *            bytes
+     * @return Base32 string
+     */
+    public static String encode(byte[] src) {
+        final char[] dst = new char[encodedLength(src.length)];
+        encode(src, 0, src.length, dst, 0);
+        return new String(dst);
+    }
+
+    /**
+     * Encodes bytes into a char buffer.
+     *
+     * @param src
+     *            source bytes
+     * @param off
+     *            index of the first source byte
+     * @param len
+     *            number of source bytes
+     * @param dst
+     *            destination, with room for encodedLength(len) characters
+     * @param dstOff
+     *            index of the first character
+     * @return number of characters written
+     */
+    public static int encode(byte[] src, int off, int len, char[] dst, int dstOff) {
+        int d = dstOff;
+        final int end = off + len;
+        int i = off;
+        for (; i + 5 <= end; i += 5) {
+            final long bits = (src[i] & 0xffL) << 32 | (src[i + 1] & 0xffL) << 24 | (src[i + 2] & 0xffL) << 16
+                    | (src[i + 3] & 0xffL) << 8 | (src[i + 4] & 0xffL);
+            for (int shift = 35; shift >= 0; shift -= 5) {
+                dst[d++] = ALPHABET[(int) (bits >>> shift) & 31];
+            }
+        }
+        final int rest = end - i;
+        if (rest > 0) {
+            long bits = 0;
+            for (int j = 0; j < 5; j++) {
+                bits = bits << 8 | (j < rest ? src[i + j] & 0xffL : 0L);
+            }
+            // characters that carry at least one bit of the last bytes
+            final int chars = (rest * 8 + 4) / 5;
+            for (int c = 0, shift = 35; c < 8; c++, shift -= 5) {
+                dst[d++] = c < chars ? ALPHABET[(int) (bits >>> shift) & 31] : PAD;
+            }
+        }
+        return d - dstOff;
+    }
+
+    /**
+     * Gets the number of bytes the Base32 string decodes to, without checking its characters.
+     * Trailing bits that do not make a whole byte are dropped.
+     *
+     * @param src
+     *            Base32 string, padding optional
+     * @return number of bytes
+     */
+    public static int decodedLength(CharSequence src) {
+        return (int) ((long) unpaddedLength(src) * 5 / 8);
+    }
+
+    /**
+     * Decodes the Base32 string.
+     *
+     * @param src
+     *            Base32 string, any case, padding optional
+     * @return bytes
+     * @throws IllegalArgumentException when the string has a character outside the alphabet
+     */
+    public static byte[] decode(CharSequence src) throws IllegalArgumentException {
+        final byte[] dst = new byte[decodedLength(src)];
+        decode(src, dst, 0);
+        return dst;
+    }
+
+    /**
+     * Decodes the Base32 string into a byte buffer.
+     *
+     * @param src
+     *            Base32 string, any case, padding optional
+     * @param dst
+     *            destination, with room for decodedLength(src) bytes
+     * @param off
+     *            index of the first byte
+     * @return number of bytes written
+     * @throws IllegalArgumentException when the string has a character outside the alphabet
+     */
+    public static int decode(CharSequence src, byte[] dst, int off) throws IllegalArgumentException {
+        final int end = unpaddedLength(src);
+        int d = off;
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            bits = bits << 5 | value(src, i);
+            count += 5;
+            if (count >= 8) {
+                count -= 8;
+                dst[d++] = (byte) (bits >>> count);
+            }
+        }
+        return d - off;
+    }
+
+    /**
+     * Decodes the Base32 string into a ByteBuffer, from its position. On success the position is
+     * moved past the bytes written.
+     *
+     * @param src
+     *            Base32 string, any case, padding optional
+     * @param dst
+     *            destination, with room for decodedLength(src) bytes
+     * @return number of bytes written
+     * @throws IllegalArgumentException when the string has a character outside the alphabet
+     * @throws java.nio.BufferOverflowException when dst does not have room
+     */
+    public static int decode(CharSequence src, ByteBuffer dst) throws IllegalArgumentException {
+        final int length = decodedLength(src);
+        if (dst.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        final int end = unpaddedLength(src);
+        final int start = dst.position();
+        int p = start;
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            bits = bits << 5 | value(src, i);
+            count += 5;
+            if (count >= 8) {
+                count -= 8;
+                dst.put(p++, (byte) (bits >>> count));
+            }
+        }
+        dst.position(p);
+        return p - start;
+    }
+
+    /**
+     * Length without the trailing padding.
+     */
+    private static int unpaddedLength(CharSequence src) {
+        int end = src.length();
+        while (end > 0 && src.charAt(end - 1) == PAD) {
+            end--;
+        }
+        return end;
+    }
+
+    private static int value(CharSequence src, int index) {
+        final char c = src.charAt(index);
+        final int value = c < DECODE.length ? DECODE[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid Base32 character at index " + index + ".");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,181 @@
+package com.amdelamar.jotp.util;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * An HMAC key prepared for 8 byte messages (a counter or time step). Instances are immutable
+ * and safe to share between threads.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public abstract class Hmac {
+
+    public static final String HMACSHA1 = "HmacSHA1";
+    public static final String HMACSHA256 = "HmacSHA256";
+    public static final String HMACSHA512 = "HmacSHA512";
+
+    private final String algorithm;
+
+    Hmac(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Prepare an HMAC key.
+     *
+     * @param alg
+     *            algorithm (HmacSHA1, HmacSHA256, HmacSHA512)
+     * @param key
+     *            the bytes to use for the HMAC key
+     * @param backend
+     *            HmacBackend.JCE, HmacBackend.JAVA or HmacBackend.AUTO
+     * @return prepared HMAC
+     * @throws NoSuchAlgorithmException if the algorithm is not available for the backend
+     * @throws InvalidKeyException if the key is empty or rejected by the JCE
+     */
+    public static Hmac getInstance(String alg, byte[] key, HmacBackend backend)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        if (alg == null) {
+            throw new NoSuchAlgorithmException("Algorithm cannot be null.");
+        }
+        if (key == null || key.length == 0) {
+            throw new InvalidKeyException("Key cannot be null or empty.");
+        }
+        if (backend == HmacBackend.AUTO) {
+            backend = HmacCalibration.backend(alg);
+        }
+        if (backend == HmacBackend.JAVA) {
+            if (HMACSHA1.equalsIgnoreCase(alg)) {
+                return new Sha1Hmac(key);
+            } else if (HMACSHA256.equalsIgnoreCase(alg)) {
+                return new Sha256Hmac(key);
+            } else if (HMACSHA512.equalsIgnoreCase(alg)) {
+                return new Sha512Hmac(key);
+            }
+            throw new NoSuchAlgorithmException(alg + " is not supported by the JAVA backend.");
+        }
+        return new JceHmac(alg, key);
+    }
+
+    /**
+     * Computes and truncates the HMAC of the 8 byte big-endian message with a key that is read in
+     * place from the buffer, for keys kept off the heap. Nothing is allocated and the key is not
+     * copied; the midstates derived from it are cleared again before returning. Only the JAVA
+     * backend can do this, the JCE needs the key in a byte array.
+     *
+     * @param alg
+     *            algorithm (HmacSHA1, HmacSHA256, HmacSHA512)
+     * @param key
+     *            buffer holding the key, its position and limit are ignored
+     * @param offset
+     *            index of the first key byte
+     * @param length
+     *            key length, at most the hash block size (64, or 128 for HmacSHA512)
+     * @param message
+     *            the counter, time step, or other value
+     * @param truncationOffset
+     *            the offset into the MAC result to begin truncation. If this value is out of the
+     *            range of 0 ... 15, then dynamic truncation will be used.
+     * @return truncated value
+     * @throws NoSuchAlgorithmException if the algorithm is not supported by the JAVA backend
+     * @throws InvalidKeyException if the key is empty or longer than a block
+     */
+    public static int truncate(String alg, ByteBuffer key, int offset, int length, long message,
+            int truncationOffset) throws NoSuchAlgorithmException, InvalidKeyException {
+        if (alg == null) {
+            throw new NoSuchAlgorithmException("Algorithm cannot be null.");
+        }
+        final int block = HMACSHA512.equalsIgnoreCase(alg) ? Sha512Hmac.BLOCK : Sha1Hmac.BLOCK;
+        if (length < 1 || length > block) {
+            throw new InvalidKeyException("Key must be 1 to " + block + " bytes.");
+        }
+        final JavaHmac.Scratch scratch = JavaHmac.scratch();
+        try {
+            final int macLength;
+            if (HMACSHA1.equalsIgnoreCase(alg)) {
+                Sha1Hmac.midstates(key, offset, length, scratch);
+                Sha1Hmac.compute(scratch.inner, scratch.outer, message, scratch);
+                macLength = Sha1Hmac.LENGTH;
+            } else if (HMACSHA256.equalsIgnoreCase(alg)) {
+                Sha256Hmac.midstates(key, offset, length, scratch);
+                Sha256Hmac.compute(scratch.inner, scratch.outer, message, scratch);
+                macLength = Sha256Hmac.LENGTH;
+            } else if (HMACSHA512.equalsIgnoreCase(alg)) {
+                Sha512Hmac.midstates(key, offset, length, scratch);
+                Sha512Hmac.compute(scratch.inner64, scratch.outer64, message, scratch);
+                macLength = Sha512Hmac.LENGTH;
+            } else {
+                throw new NoSuchAlgorithmException(alg + " is not supported by the JAVA backend.");
+            }
+            return Utils.truncate(scratch.hash, macLength, truncationOffset);
+        } finally {
+            scratch.clear();
+        }
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return the HMAC length in bytes
+     */
+    public abstract int getMacLength();
+
+    /**
+     * Computes the HMAC of the 8 byte big-endian message.
+     *
+     * @param message
+     *            the counter, time step, or other value
+     * @param out
+     *            destination, with room for getMacLength() bytes
+     * @param offset
+     *            index of the first byte
+     * @throws NoSuchAlgorithmException if the JCE algorithm is not available
+     * @throws InvalidKeyException if the key is rejected by the JCE
+     */
+    public abstract void doFinal(long message, byte[] out, int offset)
+            throws NoSuchAlgorithmException, InvalidKeyException;
+
+    /**
+     * Computes the HMAC of the 8 byte big-endian message.
+     *
+     * @param message
+     *            the counter, time step, or other value
+     * @return hash byte array
+     * @throws NoSuchAlgorithmException if the JCE algorithm is not available
+     * @throws InvalidKeyException if the key is rejected by the JCE
+     */
+    public byte[] doFinal(long message) throws NoSuchAlgorithmException, InvalidKeyException {
+        final byte[] out = new byte[getMacLength()];
+        doFinal(message, out, 0);
+        return out;
+    }
+
+    /**
+     * Computes the HMAC of the 8 byte big-endian message and truncates it, without allocating.
+     *
+     * @param message
+     *            the counter, time step, or other value
+     * @param truncationOffset
+     *            the offset into the MAC result to begin truncation. If this value is out of the
+     *            range of 0 ... 15, then dynamic truncation will be used.
+     * @return truncated value
+     * @throws NoSuchAlgorithmException if the JCE algorithm is not available
+     * @throws InvalidKeyException if the key is rejected by the JCE
+     */
+    public abstract int truncate(long message, int truncationOffset)
+            throws NoSuchAlgorithmException, InvalidKeyException;
+
+    /**
+     * Clears the key material held by this instance, so it does not outlive its use in memory.
+     * Only the JAVA backend can do this; the JCE keeps its own copies of the key, which are left
+     * to the garbage collector. The instance must not be used afterwards.
+     */
+    public void destroy() {
+        // nothing this class can clear
+    }
+}
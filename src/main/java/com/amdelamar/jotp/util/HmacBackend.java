@@ -0,0 +1,27 @@
+package com.amdelamar.jotp.util;
+
+/**
+ * HMAC implementation used to compute one-time-passwords.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public enum HmacBackend {
+
+    /**
+     * The JCE Mac from the installed security providers.
+     */
+    JCE,
+
+    /**
+     * Built-in HMAC that hashes the key pads once per key, so each code only costs the message
+     * and finalization blocks. Supports HmacSHA1, HmacSHA256 and HmacSHA512.
+     */
+    JAVA,
+
+    /**
+     * Whichever of JCE or JAVA HmacCalibration chose for the algorithm, JCE until it has been
+     * calibrated or pinned.
+     */
+    AUTO
+}
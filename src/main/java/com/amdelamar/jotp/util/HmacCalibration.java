@@ -0,0 +1,384 @@
+package com.amdelamar.jotp.util;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Picks the HMAC implementation used by HmacBackend.AUTO and by the JCE Mac cache. Calibration
+ * times the JAVA backend and every installed provider of each algorithm for a short budget, and
+ * selects the fastest. A choice can also be pinned explicitly, and calibration leaves it alone
+ * until reset(). Until an algorithm is calibrated or pinned, AUTO means JCE with the default
+ * provider, as before.
+ *
+ * Calibrate or pin at startup, before keys are compiled. Keys already compiled keep their
+ * backend, and threads keep Mac instances they already created.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class HmacCalibration {
+
+    /**
+     * Default time to spend calibrating, in milliseconds, shared by all algorithms.
+     */
+    public static final long DEFAULT_BUDGET_MILLIS = 300L;
+
+    /**
+     * Timed batch size, so the clock is read rarely.
+     */
+    private static final int BATCH = 64;
+
+    private static final ConcurrentMap<String, Choice> CHOICES = new ConcurrentHashMap<>();
+
+    private HmacCalibration() {
+        // static
+    }
+
+    /**
+     * Calibrates HmacSHA1, HmacSHA256 and HmacSHA512 within the default budget.
+     *
+     * @return the choice for each algorithm
+     */
+    public static Map<String, Choice> calibrate() {
+        return calibrate(DEFAULT_BUDGET_MILLIS, Hmac.HMACSHA1, Hmac.HMACSHA256, Hmac.HMACSHA512);
+    }
+
+    /**
+     * Times each available implementation of the algorithms and pins the fastest one. The budget
+     * is split evenly between implementations; the first half of each share warms it up and the
+     * best batch of the second half is its score. Providers that fail are left out. Algorithms
+     * pinned with pin() keep their pinned choice and are not timed.
+     *
+     * @param budgetMillis
+     *            total time to spend
+     * @param algorithms
+     *            algorithms (HmacSHA1, HmacSHA256, HmacSHA512, or others known to the JCE)
+     * @return the choice in effect for each algorithm that is pinned or has at least one
+     *         implementation
+     */
+    public static Map<String, Choice> calibrate(long budgetMillis, String... algorithms) {
+        if (budgetMillis <= 0) {
+            throw new IllegalArgumentException("Budget must be a positive number of milliseconds.");
+        }
+        final List<List<Candidate>> candidates = new ArrayList<>(algorithms.length);
+        int total = 0;
+        for (String alg : algorithms) {
+            final Choice current = getChoice(alg);
+            // pinned algorithms are not timed, and get none of the budget
+            final List<Candidate> list = current != null && current.pinned ? Collections.<Candidate> emptyList()
+                    : candidates(canonical(alg));
+            candidates.add(list);
+            total += list.size();
+        }
+
+        final Map<String, Choice> result = new LinkedHashMap<>();
+        final long share = total == 0 ? 0L : budgetMillis * 1000000L / total;
+        for (int a = 0; a < algorithms.length; a++) {
+            final String alg = canonical(algorithms[a]);
+            final List<Candidate> timed = new ArrayList<>();
+            Candidate fastest = null;
+            for (Candidate candidate : candidates.get(a)) {
+                final double nanos = time(alg, candidate, share);
+                if (Double.isNaN(nanos)) {
+                    continue;
+                }
+                final Candidate scored = new Candidate(candidate.backend, candidate.provider, nanos);
+                timed.add(scored);
+                if (fastest == null || nanos < fastest.nanos) {
+                    fastest = scored;
+                }
+            }
+            if (fastest != null) {
+                final Choice choice = new Choice(alg, fastest, timed, false);
+                if (CHOICES.compute(alg, (name, current) -> current != null && current.pinned ? current
+                        : choice) == choice) {
+                    // new threads pick up the provider from here on
+                    MacCache.clearPrototypes();
+                }
+            }
+            final Choice current = CHOICES.get(alg);
+            if (current != null && (current.pinned || fastest != null)) {
+                result.put(alg, current);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Pins an implementation for the algorithm, replacing any calibrated or pinned choice. Later
+     * calibrations keep it.
+     *
+     * @param alg
+     *            algorithm (HmacSHA1, HmacSHA256, HmacSHA512)
+     * @param backend
+     *            HmacBackend.JCE or HmacBackend.JAVA
+     * @param provider
+     *            JCE provider name, or null for the default. Must be null for JAVA.
+     * @return the pinned choice
+     * @throws NoSuchAlgorithmException if the algorithm is not available from the backend or
+     *             provider
+     * @throws NoSuchProviderException if the provider is not installed
+     */
+    public static Choice pin(String alg, HmacBackend backend, String provider)
+            throws NoSuchAlgorithmException, NoSuchProviderException {
+        if (alg == null) {
+            throw new NoSuchAlgorithmException("Algorithm cannot be null.");
+        }
+        final String name = canonical(alg);
+        final Provider resolved;
+        if (backend == HmacBackend.JAVA) {
+            if (provider != null) {
+                throw new IllegalArgumentException("The JAVA backend has no provider.");
+            }
+            if (!isJava(name)) {
+                throw new NoSuchAlgorithmException(alg + " is not supported by the JAVA backend.");
+            }
+            resolved = null;
+        } else if (backend == HmacBackend.JCE) {
+            resolved = provider == null ? null : Mac.getInstance(name, provider).getProvider();
+        } else {
+            throw new IllegalArgumentException("Backend must be JCE or JAVA.");
+        }
+        final Candidate candidate = new Candidate(backend, resolved, Double.NaN);
+        final Choice choice = new Choice(name, candidate, Collections.singletonList(candidate), true);
+        set(choice);
+        return choice;
+    }
+
+    /**
+     * @param alg
+     *            algorithm
+     * @return the calibrated or pinned choice, or null when there is none
+     */
+    public static Choice getChoice(String alg) {
+        return alg == null ? null : CHOICES.get(canonical(alg));
+    }
+
+    /**
+     * @return every calibrated or pinned choice, by algorithm
+     */
+    public static Map<String, Choice> getChoices() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(CHOICES));
+    }
+
+    /**
+     * Forgets every choice, so AUTO is JCE with the default provider again.
+     */
+    public static void reset() {
+        CHOICES.clear();
+        MacCache.clearPrototypes();
+    }
+
+    /**
+     * @return the backend AUTO resolves to for the algorithm
+     */
+    static HmacBackend backend(String alg) {
+        final Choice choice = getChoice(alg);
+        return choice == null ? HmacBackend.JCE : choice.selected.backend;
+    }
+
+    /**
+     * @return the provider new JCE Macs for the algorithm come from, the fastest one timed even
+     *         when the JAVA backend was chosen, or null for the default
+     */
+    static Provider provider(String alg) {
+        final Choice choice = getChoice(alg);
+        if (choice == null || choice.selected.backend == HmacBackend.JCE) {
+            return choice == null ? null : choice.selected.provider;
+        }
+        Candidate fastest = null;
+        for (Candidate candidate : choice.timings) {
+            if (candidate.backend == HmacBackend.JCE && (fastest == null || candidate.nanos < fastest.nanos)) {
+                fastest = candidate;
+            }
+        }
+        return fastest == null ? null : fastest.provider;
+    }
+
+    private static void set(Choice choice) {
+        CHOICES.put(choice.algorithm, choice);
+        // new threads pick up the provider from here on
+        MacCache.clearPrototypes();
+    }
+
+    private static List<Candidate> candidates(String alg) {
+        final List<Candidate> list = new ArrayList<>();
+        if (isJava(alg)) {
+            list.add(new Candidate(HmacBackend.JAVA, null, Double.NaN));
+        }
+        final Provider[] providers = Security.getProviders("Mac." + alg);
+        if (providers != null) {
+            for (Provider provider : providers) {
+                list.add(new Candidate(HmacBackend.JCE, provider, Double.NaN));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return best nanoseconds per HMAC, or NaN when the implementation failed
+     */
+    private static double time(String alg, Candidate candidate, long nanos) {
+        final byte[] key = new byte[20];
+        SecureRandoms.current().nextBytes(key);
+        final byte[] out = new byte[64];
+        final byte[] message = new byte[8];
+        try {
+            final Hmac hmac;
+            final Mac mac;
+            if (candidate.backend == HmacBackend.JAVA) {
+                hmac = Hmac.getInstance(alg, key, HmacBackend.JAVA);
+                mac = null;
+            } else {
+                hmac = null;
+                mac = Mac.getInstance(alg, candidate.provider);
+                mac.init(new SecretKeySpec(key, "RAW"));
+            }
+
+            final long start = System.nanoTime();
+            final long warm = start + nanos / 2;
+            final long end = start + nanos;
+            long best = Long.MAX_VALUE;
+            long counter = 0;
+            for (long now = start; now < end || best == Long.MAX_VALUE;) {
+                for (int i = 0; i < BATCH; i++) {
+                    counter++;
+                    if (hmac != null) {
+                        hmac.doFinal(counter, out, 0);
+                    } else {
+                        message[7] = (byte) counter;
+                        message[6] = (byte) (counter >>> 8);
+                        mac.update(message);
+                        mac.doFinal(out, 0);
+                    }
+                }
+                final long after = System.nanoTime();
+                if (after >= warm && after - now < best) {
+                    best = after - now;
+                }
+                now = after;
+            }
+            return (double) best / BATCH;
+        } catch (NoSuchAlgorithmException | InvalidKeyException | ShortBufferException | RuntimeException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static boolean isJava(String alg) {
+        return Hmac.HMACSHA1.equals(alg) || Hmac.HMACSHA256.equals(alg) || Hmac.HMACSHA512.equals(alg);
+    }
+
+    private static String canonical(String alg) {
+        if (Hmac.HMACSHA1.equalsIgnoreCase(alg)) {
+            return Hmac.HMACSHA1;
+        } else if (Hmac.HMACSHA256.equalsIgnoreCase(alg)) {
+            return Hmac.HMACSHA256;
+        } else if (Hmac.HMACSHA512.equalsIgnoreCase(alg)) {
+            return Hmac.HMACSHA512;
+        }
+        return alg;
+    }
+
+    /**
+     * One implementation of an algorithm, and how long it took.
+     */
+    public static final class Candidate {
+        private final HmacBackend backend;
+        private final Provider provider;
+        private final double nanos;
+
+        private Candidate(HmacBackend backend, Provider provider, double nanos) {
+            this.backend = backend;
+            this.provider = provider;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return HmacBackend.JCE or HmacBackend.JAVA
+         */
+        public HmacBackend getBackend() {
+            return backend;
+        }
+
+        /**
+         * @return JCE provider name, or null for the JAVA backend or the default provider
+         */
+        public String getProvider() {
+            return provider == null ? null : provider.getName();
+        }
+
+        /**
+         * @return nanoseconds per HMAC of an 8 byte message, or NaN when not timed
+         */
+        public double getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            final String name = backend == HmacBackend.JAVA ? "JAVA" : "JCE/" + (provider == null ? "default" : provider.getName());
+            return Double.isNaN(nanos) ? name : name + String.format(" %.1fns", nanos);
+        }
+    }
+
+    /**
+     * The implementation chosen for an algorithm.
+     */
+    public static final class Choice {
+        private final String algorithm;
+        private final Candidate selected;
+        private final List<Candidate> timings;
+        private final boolean pinned;
+
+        private Choice(String algorithm, Candidate selected, List<Candidate> timings, boolean pinned) {
+            this.algorithm = algorithm;
+            this.selected = selected;
+            this.timings = Collections.unmodifiableList(new ArrayList<>(timings));
+            this.pinned = pinned;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        /**
+         * @return the implementation in use
+         */
+        public Candidate getSelected() {
+            return selected;
+        }
+
+        /**
+         * @return every implementation that was timed, in the order tried
+         */
+        public List<Candidate> getTimings() {
+            return timings;
+        }
+
+        /**
+         * @return true when pinned explicitly rather than calibrated
+         */
+        public boolean isPinned() {
+            return pinned;
+        }
+
+        @Override
+        public String toString() {
+            return algorithm + (pinned ? " pinned " : " ") + selected + " of " + timings;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.amdelamar.jotp.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Base for the built-in HMAC backend. Subclasses hash the key XOR ipad/opad blocks once, in
+ * the constructor, and keep the resulting midstates. Each message then costs one compression
+ * for the inner hash and one for the outer hash.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+abstract class JavaHmac extends Hmac {
+
+    static final byte IPAD = 0x36;
+    static final byte OPAD = 0x5c;
+
+    /**
+     * Per-thread work area, so computing a code does not allocate.
+     */
+    static final class Scratch {
+        final int[] w = new int[80];
+        final int[] state = new int[8];
+        final long[] w64 = new long[80];
+        final long[] state64 = new long[8];
+        final byte[] hash = new byte[64];
+        /** midstates of a key read from a buffer */
+        final int[] inner = new int[8];
+        final int[] outer = new int[8];
+        final long[] inner64 = new long[8];
+        final long[] outer64 = new long[8];
+
+        /**
+         * Clears everything derived from a key.
+         */
+        void clear() {
+            Arrays.fill(w, 0);
+            Arrays.fill(w64, 0L);
+            Arrays.fill(inner, 0);
+            Arrays.fill(outer, 0);
+            Arrays.fill(inner64, 0L);
+            Arrays.fill(outer64, 0L);
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    JavaHmac(String algorithm) {
+        super(algorithm);
+    }
+
+    static Scratch scratch() {
+        return SCRATCH.get();
+    }
+
+    /**
+     * Computes the HMAC into the scratch hash buffer.
+     *
+     * @param message
+     *            the 8 byte message
+     * @param scratch
+     *            this thread's work area
+     */
+    abstract void compute(long message, Scratch scratch);
+
+    @Override
+    public void doFinal(long message, byte[] out, int offset) {
+        final Scratch scratch = scratch();
+        compute(message, scratch);
+        System.arraycopy(scratch.hash, 0, out, offset, getMacLength());
+    }
+
+    @Override
+    public int truncate(long message, int truncationOffset) {
+        final Scratch scratch = scratch();
+        compute(message, scratch);
+        return Utils.truncate(scratch.hash, getMacLength(), truncationOffset);
+    }
+
+    /**
+     * Pads the key to one block and XORs it with the pad byte. Keys longer than a block must be
+     * hashed by the caller first.
+     */
+    static byte[] padKey(byte[] key, int blockSize, byte pad) {
+        final byte[] block = new byte[blockSize];
+        for (int i = 0; i < blockSize; i++) {
+            block[i] = (byte) ((i < key.length ? key[i] : 0) ^ pad);
+        }
+        return block;
+    }
+
+    /**
+     * Standard Merkle-Damgard padding of the whole message, for hashing long keys.
+     */
+    static byte[] pad(byte[] data, int blockSize, int lengthBytes) {
+        final int blocks = (data.length + 1 + lengthBytes + blockSize - 1) / blockSize;
+        final byte[] padded = new byte[blocks * blockSize];
+        System.arraycopy(data, 0, padded, 0, data.length);
+        padded[data.length] = (byte) 0x80;
+        long bits = ((long) data.length) << 3;
+        for (int i = padded.length - 1; bits != 0; i--) {
+            padded[i] = (byte) bits;
+            bits >>>= 8;
+        }
+        return padded;
+    }
+
+    /**
+     * Reads the key XOR pad block as 16 big-endian words, straight from the buffer.
+     */
+    static void padWords(ByteBuffer key, int offset, int length, byte pad, int[] w) {
+        for (int i = 0; i < 16; i++) {
+            int word = 0;
+            for (int j = i * 4; j < i * 4 + 4; j++) {
+                word = word << 8 | (((j < length ? key.get(offset + j) : 0) ^ pad) & 0xff);
+            }
+            w[i] = word;
+        }
+    }
+
+    /**
+     * Reads the key XOR pad block as 16 big-endian long words, straight from the buffer.
+     */
+    static void padWords(ByteBuffer key, int offset, int length, byte pad, long[] w) {
+        for (int i = 0; i < 16; i++) {
+            long word = 0;
+            for (int j = i * 8; j < i * 8 + 8; j++) {
+                word = word << 8 | (((j < length ? key.get(offset + j) : 0) ^ pad) & 0xff);
+            }
+            w[i] = word;
+        }
+    }
+
+    static int getInt(byte[] b, int i) {
+        return ((b[i] & 0xff) << 24) | ((b[i + 1] & 0xff) << 16) | ((b[i + 2] & 0xff) << 8) | (b[i + 3] & 0xff);
+    }
+
+    static long getLong(byte[] b, int i) {
+        return ((long) getInt(b, i) << 32) | (getInt(b, i + 4) & 0xffffffffL);
+    }
+
+    static void putInt(byte[] b, int i, int v) {
+        b[i] = (byte) (v >>> 24);
+        b[i + 1] = (byte) (v >>> 16);
+        b[i + 2] = (byte) (v >>> 8);
+        b[i + 3] = (byte) v;
+    }
+
+    static void putLong(byte[] b, int i, long v) {
+        putInt(b, i, (int) (v >>> 32));
+        putInt(b, i + 4, (int) v);
+    }
+}
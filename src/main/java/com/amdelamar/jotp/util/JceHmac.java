@@ -0,0 +1,40 @@
+package com.amdelamar.jotp.util;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC backed by the JCE, using the per-thread cached Mac.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+final class JceHmac extends Hmac {
+
+    private final SecretKeySpec keySpec;
+    private final int macLength;
+
+    JceHmac(String alg, byte[] key) throws NoSuchAlgorithmException, InvalidKeyException {
+        super(alg);
+        this.keySpec = new SecretKeySpec(key, "RAW");
+        // fail early on an unknown algorithm or rejected key
+        this.macLength = Utils.getMac(alg, keySpec).getMacLength();
+    }
+
+    @Override
+    public int getMacLength() {
+        return macLength;
+    }
+
+    @Override
+    public void doFinal(long message, byte[] out, int offset) throws NoSuchAlgorithmException, InvalidKeyException {
+        MacCache.doFinal(getAlgorithm(), keySpec, message, out, offset);
+    }
+
+    @Override
+    public int truncate(long message, int truncationOffset) throws NoSuchAlgorithmException, InvalidKeyException {
+        return MacCache.truncated(getAlgorithm(), keySpec, message, truncationOffset);
+    }
+}
@@ -0,0 +1,170 @@
+package com.amdelamar.jotp.util;
+
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+
+/**
+ * Per-thread cache of Mac instances, one per algorithm. Avoids the synchronized provider lookup
+ * in Mac.getInstance on every OTP, and skips re-initializing a Mac that is already set up with
+ * the same key.
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+final class MacCache {
+
+    /**
+     * One uninitialized Mac per algorithm. New thread copies are cloned from it when the
+     * provider supports cloning, which is cheaper than another provider lookup.
+     */
+    private static final ConcurrentMap<String, Mac> PROTOTYPES = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<MacCache> CACHE = new ThreadLocal<MacCache>() {
+        @Override
+        protected MacCache initialValue() {
+            return new MacCache();
+        }
+    };
+
+    private final Map<String, Entry> entries = new HashMap<>(4);
+
+    private MacCache() {
+        // per thread
+    }
+
+    /**
+     * Gets this thread's Mac for the algorithm, initialized with the key.
+     *
+     * @param alg
+     *            algorithm (HmacSHA1, HmacSHA256, HmacSHA512)
+     * @param key
+     *            the HMAC key
+     * @return Mac ready for update/doFinal. Must not be shared with other threads.
+     * @throws NoSuchAlgorithmException if the algorithm is not available
+     * @throws InvalidKeyException if given key is inappropriate for this mac
+     */
+    static Mac get(String alg, Key key) throws NoSuchAlgorithmException, InvalidKeyException {
+        return CACHE.get().lookup(alg, key).mac;
+    }
+
+    /**
+     * Computes the HMAC of the 8 byte moving factor and truncates it, using this thread's
+     * buffers so nothing is allocated once the thread has seen the algorithm.
+     *
+     * @param alg
+     *            algorithm (HmacSHA1, HmacSHA256, HmacSHA512)
+     * @param key
+     *            the HMAC key
+     * @param movingFactor
+     *            the counter, time, or other value
+     * @param truncationOffset
+     *            offset to truncate at, or out of range for dynamic truncation
+     * @return truncated 31 bit value
+     * @throws NoSuchAlgorithmException if the algorithm is not available
+     * @throws InvalidKeyException if given key is inappropriate for this mac
+     */
+    static int truncated(String alg, Key key, long movingFactor, int truncationOffset)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        final Entry entry = CACHE.get().lookup(alg, key);
+        entry.doFinal(movingFactor, entry.hash, 0);
+        return Utils.truncate(entry.hash, truncationOffset);
+    }
+
+    /**
+     * Computes the HMAC of the 8 byte moving factor into the destination array.
+     *
+     * @param alg
+     *            algorithm (HmacSHA1, HmacSHA256, HmacSHA512)
+     * @param key
+     *            the HMAC key
+     * @param movingFactor
+     *            the counter, time, or other value
+     * @param out
+     *            destination, with room for the mac length
+     * @param offset
+     *            index of the first byte
+     * @throws NoSuchAlgorithmException if the algorithm is not available
+     * @throws InvalidKeyException if given key is inappropriate for this mac
+     */
+    static void doFinal(String alg, Key key, long movingFactor, byte[] out, int offset)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        CACHE.get().lookup(alg, key).doFinal(movingFactor, out, offset);
+    }
+
+    /**
+     * Drops the prototypes, so Macs for threads that have not used an algorithm yet come from
+     * the provider HmacCalibration chose.
+     */
+    static void clearPrototypes() {
+        PROTOTYPES.clear();
+    }
+
+    private Entry lookup(String alg, Key key) throws NoSuchAlgorithmException, InvalidKeyException {
+        Entry entry = entries.get(alg);
+        if (entry == null) {
+            entry = new Entry(newMac(alg));
+            entries.put(alg, entry);
+        }
+        if (entry.key != key) {
+            // a failed init leaves no key behind
+            entry.key = null;
+            entry.mac.init(key);
+            entry.key = key;
+        } else {
+            // previous caller may have left a partial update
+            entry.mac.reset();
+        }
+        return entry;
+    }
+
+    private static Mac newMac(String alg) throws NoSuchAlgorithmException {
+        Mac prototype = PROTOTYPES.get(alg);
+        if (prototype == null) {
+            final Provider provider = HmacCalibration.provider(alg);
+            prototype = provider == null ? Mac.getInstance(alg) : Mac.getInstance(alg, provider);
+            final Mac existing = PROTOTYPES.putIfAbsent(alg, prototype);
+            if (existing != null) {
+                prototype = existing;
+            }
+        }
+        try {
+            return (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            return Mac.getInstance(alg, prototype.getProvider());
+        }
+    }
+
+    private static final class Entry {
+        private final Mac mac;
+        private final byte[] message = new byte[8];
+        private final byte[] hash;
+        private Key key;
+
+        private Entry(Mac mac) {
+            this.mac = mac;
+            this.hash = new byte[mac.getMacLength()];
+        }
+
+        private void doFinal(long movingFactor, byte[] out, int offset) {
+            for (int i = message.length - 1; i >= 0; i--) {
+                message[i] = (byte) (movingFactor & 0xff);
+                movingFactor >>= 8;
+            }
+            mac.update(message);
+            try {
+                mac.doFinal(out, offset);
+            } catch (ShortBufferException e) {
+                throw new IllegalArgumentException("Output buffer is too short.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.amdelamar.jotp.util;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Multi-buffer HMAC for many independent 8 byte messages at once.
+ *
+ * HOTP and TOTP codes all hash the same shape of input, so the built-in HmacSHA1 and HmacSHA256
+ * keys of a batch are paired up and both messages of a pair are compressed in one interleaved
+ * pass. The two hashes share no data, so the CPU overlaps their dependency chains instead of
+ * waiting on one round at a time. Keys on other backends or algorithms, and a key left without a
+ * partner, are computed one at a time, so any mix of keys gives the same results as
+ * Hmac.truncate().
+ *
+ * @author amdelamar
+ * @since 1.4.0
+ */
+public final class MultiHmac {
+
+    /**
+     * Number of messages compressed together.
+     */
+    public static final int LANES = 2;
+
+    private static final int SHA1_INNER_BITS = (Sha1Hmac.BLOCK + 8) * 8;
+    private static final int SHA1_OUTER_BITS = (Sha1Hmac.BLOCK + Sha1Hmac.LENGTH) * 8;
+    private static final int SHA256_INNER_BITS = (Sha256Hmac.BLOCK + 8) * 8;
+    private static final int SHA256_OUTER_BITS = (Sha256Hmac.BLOCK + Sha256Hmac.LENGTH) * 8;
+
+    /**
+     * Per-thread work area for one pair.
+     */
+    private static final class Scratch {
+        final int[] w1 = new int[80];
+        final int[] w2 = new int[80];
+        final int[] s1 = new int[8];
+        final int[] s2 = new int[8];
+        final byte[] hash = new byte[Sha256Hmac.LENGTH];
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private MultiHmac() {
+        // static methods only
+    }
+
+    /**
+     * Whether the HMAC is computed in pairs rather than on its own.
+     *
+     * @param hmac
+     *            a prepared HMAC
+     * @return true for JAVA backend HmacSHA1 and HmacSHA256
+     */
+    public static boolean isMultiBuffer(Hmac hmac) {
+        return hmac instanceof Sha1Hmac || hmac instanceof Sha256Hmac;
+    }
+
+    /**
+     * Computes and truncates the HMAC of each message with its key, the same as calling
+     * hmacs[i].truncate(messages[i], truncationOffsets[i]) for every i.
+     *
+     * @param hmacs
+     *            prepared HMACs, in any mix of algorithms and backends
+     * @param messages
+     *            the counter, time step, or other value for each HMAC
+     * @param truncationOffsets
+     *            truncation offset for each HMAC, out of the range of 0 ... 15 for dynamic
+     *            truncation
+     * @param out
+     *            destination for the truncated values
+     * @param count
+     *            number of HMACs to compute
+     * @throws NoSuchAlgorithmException if the JCE algorithm is not available
+     * @throws InvalidKeyException if the key is rejected by the JCE
+     */
+    public static void truncate(Hmac[] hmacs, long[] messages, int[] truncationOffsets, int[] out, int count)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        if (count > hmacs.length || count > messages.length || count > truncationOffsets.length
+                || count > out.length) {
+            throw new IllegalArgumentException("Count is larger than the arrays.");
+        }
+        final Scratch s = SCRATCH.get();
+        // index of a key waiting for a partner of the same algorithm
+        int sha1 = -1;
+        int sha256 = -1;
+        for (int i = 0; i < count; i++) {
+            final Hmac hmac = hmacs[i];
+            if (hmac instanceof Sha1Hmac) {
+                if (sha1 < 0) {
+                    sha1 = i;
+                    continue;
+                }
+                sha1(s, (Sha1Hmac) hmacs[sha1], messages[sha1], (Sha1Hmac) hmac, messages[i]);
+                out[sha1] = finish(s, s.s1, 5, Sha1Hmac.LENGTH, truncationOffsets[sha1]);
+                out[i] = finish(s, s.s2, 5, Sha1Hmac.LENGTH, truncationOffsets[i]);
+                sha1 = -1;
+            } else if (hmac instanceof Sha256Hmac) {
+                if (sha256 < 0) {
+                    sha256 = i;
+                    continue;
+                }
+                sha256(s, (Sha256Hmac) hmacs[sha256], messages[sha256], (Sha256Hmac) hmac, messages[i]);
+                out[sha256] = finish(s, s.s1, 8, Sha256Hmac.LENGTH, truncationOffsets[sha256]);
+                out[i] = finish(s, s.s2, 8, Sha256Hmac.LENGTH, truncationOffsets[i]);
+                sha256 = -1;
+            } else {
+                out[i] = hmac.truncate(messages[i], truncationOffsets[i]);
+            }
+        }
+        if (sha1 >= 0) {
+            out[sha1] = hmacs[sha1].truncate(messages[sha1], truncationOffsets[sha1]);
+        }
+        if (sha256 >= 0) {
+            out[sha256] = hmacs[sha256].truncate(messages[sha256], truncationOffsets[sha256]);
+        }
+    }
+
+    /**
+     * Truncates one digest of the pair.
+     */
+    private static int finish(Scratch s, int[] state, int words, int length, int truncationOffset) {
+        for (int i = 0; i < words; i++) {
+            JavaHmac.putInt(s.hash, i * 4, state[i]);
+        }
+        return Utils.truncate(s.hash, length, truncationOffset);
+    }
+
+    /**
+     * HmacSHA1 of both messages, into s1 and s2.
+     */
+    private static void sha1(Scratch s, Sha1Hmac first, long m1, Sha1Hmac second, long m2) {
+        final int[] w1 = s.w1;
+        final int[] w2 = s.w2;
+
+        // inner hashes: message blocks from the ipad midstates
+        System.arraycopy(first.inner, 0, s.s1, 0, 5);
+        System.arraycopy(second.inner, 0, s.s2, 0, 5);
+        block(w1, m1, SHA1_INNER_BITS);
+        block(w2, m2, SHA1_INNER_BITS);
+        sha1Compress(s.s1, w1, s.s2, w2);
+
+        // outer hashes: inner digest blocks from the opad midstates
+        System.arraycopy(s.s1, 0, w1, 0, 5);
+        System.arraycopy(s.s2, 0, w2, 0, 5);
+        w1[5] = 0x80000000;
+        w2[5] = 0x80000000;
+        Arrays.fill(w1, 6, 15, 0);
+        Arrays.fill(w2, 6, 15, 0);
+        w1[15] = SHA1_OUTER_BITS;
+        w2[15] = SHA1_OUTER_BITS;
+        System.arraycopy(first.outer, 0, s.s1, 0, 5);
+        System.arraycopy(second.outer, 0, s.s2, 0, 5);
+        sha1Compress(s.s1, w1, s.s2, w2);
+    }
+
+    /**
+     * HmacSHA256 of both messages, into s1 and s2.
+     */
+    private static void sha256(Scratch s, Sha256Hmac first, long m1, Sha256Hmac second, long m2) {
+        final int[] w1 = s.w1;
+        final int[] w2 = s.w2;
+
+        // inner hashes: message blocks from the ipad midstates
+        System.arraycopy(first.inner, 0, s.s1, 0, 8);
+        System.arraycopy(second.inner, 0, s.s2, 0, 8);
+        block(w1, m1, SHA256_INNER_BITS);
+        block(w2, m2, SHA256_INNER_BITS);
+        sha256Compress(s.s1, w1, s.s2, w2);
+
+        // outer hashes: inner digest blocks from the opad midstates
+        System.arraycopy(s.s1, 0, w1, 0, 8);
+        System.arraycopy(s.s2, 0, w2, 0, 8);
+        w1[8] = 0x80000000;
+        w2[8] = 0x80000000;
+        Arrays.fill(w1, 9, 15, 0);
+        Arrays.fill(w2, 9, 15, 0);
+        w1[15] = SHA256_OUTER_BITS;
+        w2[15] = SHA256_OUTER_BITS;
+        System.arraycopy(first.outer, 0, s.s1, 0, 8);
+        System.arraycopy(second.outer, 0, s.s2, 0, 8);
+        sha256Compress(s.s1, w1, s.s2, w2);
+    }
+
+    /**
+     * Padded block of an 8 byte message after one block of key.
+     */
+    private static void block(int[] w, long message, int bits) {
+        w[0] = (int) (message >>> 32);
+        w[1] = (int) message;
+        w[2] = 0x80000000;
+        Arrays.fill(w, 3, 15, 0);
+        w[15] = bits;
+    }
+
+    /**
+     * Two SHA-1 compressions, of the block in w1 into s1 and of w2 into s2, round by round.
+     */
+    private static void sha1Compress(int[] s1, int[] w1, int[] s2, int[] w2) {
+        for (int t = 16; t < 80; t++) {
+            w1[t] = Integer.rotateLeft(w1[t - 3] ^ w1[t - 8] ^ w1[t - 14] ^ w1[t - 16], 1);
+            w2[t] = Integer.rotateLeft(w2[t - 3] ^ w2[t - 8] ^ w2[t - 14] ^ w2[t - 16], 1);
+        }
+        int a1 = s1[0];
+        int b1 = s1[1];
+        int c1 = s1[2];
+        int d1 = s1[3];
+        int e1 = s1[4];
+        int a2 = s2[0];
+        int b2 = s2[1];
+        int c2 = s2[2];
+        int d2 = s2[3];
+        int e2 = s2[4];
+        for (int t = 0; t < 80; t++) {
+            final int f1;
+            final int f2;
+            final int k;
+            if (t < 20) {
+                f1 = (b1 & c1) | (~b1 & d1);
+                f2 = (b2 & c2) | (~b2 & d2);
+                k = 0x5a827999;
+            } else if (t < 40) {
+                f1 = b1 ^ c1 ^ d1;
+                f2 = b2 ^ c2 ^ d2;
+                k = 0x6ed9eba1;
+            } else if (t < 60) {
+                f1 = (b1 & c1) | (b1 & d1) | (c1 & d1);
+                f2 = (b2 & c2) | (b2 & d2) | (c2 & d2);
+                k = 0x8f1bbcdc;
+            } else {
+                f1 = b1 ^ c1 ^ d1;
+                f2 = b2 ^ c2 ^ d2;
+                k = 0xca62c1d6;
+            }
+            final int temp1 = Integer.rotateLeft(a1, 5) + f1 + e1 + k + w1[t];
+            final int temp2 = Integer.rotateLeft(a2, 5) + f2 + e2 + k + w2[t];
+            e1 = d1;
+            e2 = d2;
+            d1 = c1;
+            d2 = c2;
+            c1 = Integer.rotateLeft(b1, 30);
+            c2 = Integer.rotateLeft(b2, 30);
+            b1 = a1;
+            b2 = a2;
+            a1 = temp1;
+            a2 = temp2;
+        }
+        s1[0] += a1;
+        s1[1] += b1;
+        s1[2] += c1;
+        s1[3] += d1;
+        s1[4] += e1;
+        s2[0] += a2;
+        s2[1] += b2;
+        s2[2] += c2;
+        s2[3] += d2;
+        s2[4] += e2;
+    }
+
+    /**
+     * Two SHA-256 compressions, of the block in w1 into s1 and of w2 into s2, round by round.
+     */
+    private static void sha256Compress(int[] s1, int[] w1, int[] s2, int[] w2) {
+        for (int t = 16; t < 64; t++) {
+            w1[t] = w1[t - 16] + sigma0(w1[t - 15]) + w1[t - 7] + sigma1(w1[t - 2]);
+            w2[t] = w2[t - 16] + sigma0(w2[t - 15]) + w2[t - 7] + sigma1(w2[t - 2]);
+        }
+        int a1 = s1[0];
+        int b1 = s1[1];
+        int c1 = s1[2];
+        int d1 = s1[3];
+        int e1 = s1[4];
+        int f1 = s1[5];
+        int g1 = s1[6];
+        int h1 = s1[7];
+        int a2 = s2[0];
+        int b2 = s2[1];
+        int c2 = s2[2];
+        int d2 = s2[3];
+        int e2 = s2[4];
+        int f2 = s2[5];
+        int g2 = s2[6];
+        int h2 = s2[7];
+        for (int t = 0; t < 64; t++) {
+            final int k = Sha256Hmac.K[t];
+            final int x1 = h1 + bigSigma1(e1) + ((e1 & f1) ^ (~e1 & g1)) + k + w1[t];
+            final int x2 = h2 + bigSigma1(e2) + ((e2 & f2) ^ (~e2 & g2)) + k + w2[t];
+            final int y1 = bigSigma0(a1) + ((a1 & b1) ^ (a1 & c1) ^ (b1 & c1));
+            final int y2 = bigSigma0(a2) + ((a2 & b2) ^ (a2 & c2) ^ (b2 & c2));
+            h1 = g1;
+            h2 = g2;
+            g1 = f1;
+            g2 = f2;
+            f1 = e1;
+            f2 = e2;
+            e1 = d1 + x1;
+            e2 = d2 + x2;
+            d1 = c1;
+            d2 = c2;
+            c1 = b1;
+            c2 = b2;
+            b1 = a1;
+            b2 = a2;
+            a1 = x1 + y1;
+            a2 = x2 + y2;
+        }
+        s1[0] += a1;
+        s1[1] += b1;
+        s1[2] += c1;
+        s1[3] += d1;
+        s1[4] += e1;
+        s1[5] += f1;
+        s1[6] += g1;
+        s1[7] += h1;
+        s2[0] += a2;
+        s2[1] += b2;
+        s2[2] += c2;
+        s2[3] += d2;
+        s2[4] += e2;
+        s2[5] += f2;
+        s2[6] += g2;
+        s2[7] += h2;
+    }
+
+    private static int sigma0(int x) {
+        return Integer.rotateRight(x, 7) ^ Integer.rotateRight(x, 18) ^ (x >>> 3);
+    }
+
+    private static int sigma1(int x) {
+        return Integer.rotateRight(x, 17) ^ Integer.rotateRight(x, 19) ^ (x >>> 10);
+    }
+
+    private static int bigSigma0(int x) {
+        return Integer.rotateRight(x, 2) ^ Integer.rotateRight(x, 13) ^ Integer.rotateRight(x, 22);
+    }
+
+    private static int bigSigma1(int x) {
+        return Integer.rotateRight(x, 6) ^ Integer.rotateRight(x, 11) ^ Integer.rotateRight(x, 25);
+    }
+}
@@ -0,0 +1,178 @@
+package com.amdelamar.jotp.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Built-in HmacSHA1 with precomputed inner and outer midstates.
+ *
+ * @author amdelamar
+ * @see <a href="https://tools.ietf.org/html/rfc3174">https://tools.ietf.org/html/rfc3174</a>
+ * @since 1.4.0
+ */
+final class Sha1Hmac extends JavaHmac {
+
+    static final int BLOCK = 64;
+    static final int LENGTH = 20;
+
+    private static final int[] IV = { 0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476, 0xc3d2e1f0 };
+
+    /**
+     * Bit lengths of the inner (pad block + 8 byte message) and outer (pad block + digest) input.
+     */
+    private static final int INNER_BITS = (BLOCK + 8) * 8;
+    private static final int OUTER_BITS = (BLOCK + LENGTH) * 8;
+
+    final int[] inner;
+    final int[] outer;
+
+    Sha1Hmac(byte[] key) {
+        super(HMACSHA1);
+        final byte[] k = key.length > BLOCK ? digest(key) : key;
+        final int[] w = new int[80];
+        this.inner = midstate(padKey(k, BLOCK, IPAD), w);
+        this.outer = midstate(padKey(k, BLOCK, OPAD), w);
+    }
+
+    @Override
+    public int getMacLength() {
+        return LENGTH;
+    }
+
+    @Override
+    public void destroy() {
+        Arrays.fill(inner, 0);
+        Arrays.fill(outer, 0);
+    }
+
+    @Override
+    void compute(long message, Scratch scratch) {
+        compute(inner, outer, message, scratch);
+    }
+
+    /**
+     * Computes the HMAC from the given midstates into the scratch hash buffer.
+     */
+    static void compute(int[] inner, int[] outer, long message, Scratch scratch) {
+        final int[] w = scratch.w;
+        final int[] s = scratch.state;
+
+        // inner hash: message block from the ipad midstate
+        System.arraycopy(inner, 0, s, 0, 5);
+        w[0] = (int) (message >>> 32);
+        w[1] = (int) message;
+        w[2] = 0x80000000;
+        Arrays.fill(w, 3, 15, 0);
+        w[15] = INNER_BITS;
+        compress(s, w);
+
+        // outer hash: inner digest block from the opad midstate
+        System.arraycopy(s, 0, w, 0, 5);
+        w[5] = 0x80000000;
+        Arrays.fill(w, 6, 15, 0);
+        w[15] = OUTER_BITS;
+        System.arraycopy(outer, 0, s, 0, 5);
+        compress(s, w);
+
+        for (int i = 0; i < 5; i++) {
+            putInt(scratch.hash, i * 4, s[i]);
+        }
+    }
+
+    /**
+     * Computes the midstates of a key of at most one block, read from the buffer without copying
+     * it, into scratch.inner and scratch.outer.
+     */
+    static void midstates(ByteBuffer key, int offset, int length, Scratch scratch) {
+        final int[] w = scratch.w;
+        padWords(key, offset, length, IPAD, w);
+        System.arraycopy(IV, 0, scratch.inner, 0, IV.length);
+        compress(scratch.inner, w);
+        padWords(key, offset, length, OPAD, w);
+        System.arraycopy(IV, 0, scratch.outer, 0, IV.length);
+        compress(scratch.outer, w);
+    }
+
+    private static int[] midstate(byte[] block, int[] w) {
+        final int[] state = IV.clone();
+        for (int i = 0; i < 16; i++) {
+            w[i] = getInt(block, i * 4);
+        }
+        compress(state, w);
+        Arrays.fill(block, (byte) 0);
+        Arrays.fill(w, 0);
+        return state;
+    }
+
+    /**
+     * SHA-1 of a whole message, used for keys longer than one block.
+     */
+    static byte[] digest(byte[] data) {
+        final byte[] padded = pad(data, BLOCK, 8);
+        final int[] state = IV.clone();
+        final int[] w = new int[80];
+        for (int off = 0; off < padded.length; off += BLOCK) {
+            for (int i = 0; i < 16; i++) {
+                w[i] = getInt(padded, off + i * 4);
+            }
+            compress(state, w);
+        }
+        final byte[] out = new byte[LENGTH];
+        for (int i = 0; i < 5; i++) {
+            putInt(out, i * 4, state[i]);
+        }
+        return out;
+    }
+
+    /**
+     * SHA-1 compression of the block in w[0..15] into state.
+     */
+    static void compress(int[] state, int[] w) {
+        for (int t = 16; t < 80; t++) {
+            w[t] = Integer.rotateLeft(w[t - 3] ^ w[t - 8] ^ w[t - 14] ^ w[t - 16], 1);
+        }
+        int a = state[0];
+        int b = state[1];
+        int c = state[2];
+        int d = state[3];
+        int e = state[4];
+        int t = 0;
+        for (; t < 20; t++) {
+            final int temp = Integer.rotateLeft(a, 5) + ((b & c) | (~b & d)) + e + 0x5a827999 + w[t];
+            e = d;
+            d = c;
+            c = Integer.rotateLeft(b, 30);
+            b = a;
+            a = temp;
+        }
+        for (; t < 40; t++) {
+            final int temp = Integer.rotateLeft(a, 5) + (b ^ c ^ d) + e + 0x6ed9eba1 + w[t];
+            e = d;
+            d = c;
+            c = Integer.rotateLeft(b, 30);
+            b = a;
+            a = temp;
+        }
+        for (; t < 60; t++) {
+            final int temp = Integer.rotateLeft(a, 5) + ((b & c) | (b & d) | (c & d)) + e + 0x8f1bbcdc + w[t];
+            e = d;
+            d = c;
+            c = Integer.rotateLeft(b, 30);
+            b = a;
+            a = temp;
+        }
+        for (; t < 80; t++) {
+            final int temp = Integer.rotateLeft(a, 5) + (b ^ c ^ d) + e + 0xca62c1d6 + w[t];
+            e = d;
+            d = c;
+            c = Integer.rotateLeft(b, 30);
+            b = a;
+            a = temp;
+        }
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+        state[4] += e;
+    }
+}
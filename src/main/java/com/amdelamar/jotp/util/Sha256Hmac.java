@@ -0,0 +1,177 @@
+package com.amdelamar.jotp.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Built-in HmacSHA256 with precomputed inner and outer midstates.
+ *
+ * @author amdelamar
+ * @see <a href="https://tools.ietf.org/html/rfc6234">https://tools.ietf.org/html/rfc6234</a>
+ * @since 1.4.0
+ */
+final class Sha256Hmac extends JavaHmac {
+
+    static final int BLOCK = 64;
+    static final int LENGTH = 32;
+
+    private static final int[] IV = { 0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c,
+            0x1f83d9ab, 0x5be0cd19 };
+
+    static final int[] K = { 0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1,
+            0x923f82a4, 0xab1c5ed5, 0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe,
+            0x9bdc06a7, 0xc19bf174, 0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa,
+            0x5cb0a9dc, 0x76f988da, 0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147,
+            0x06ca6351, 0x14292967, 0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb,
+            0x81c2c92e, 0x92722c85, 0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624,
+            0xf40e3585, 0x106aa070, 0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a,
+            0x5b9cca4f, 0x682e6ff3, 0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb,
+            0xbef9a3f7, 0xc67178f2 };
+
+    private static final int INNER_BITS = (BLOCK + 8) * 8;
+    private static final int OUTER_BITS = (BLOCK + LENGTH) * 8;
+
+    final int[] inner;
+    final int[] outer;
+
+    Sha256Hmac(byte[] key) {
+        super(HMACSHA256);
+        final byte[] k = key.length > BLOCK ? digest(key) : key;
+        final int[] w = new int[64];
+        this.inner = midstate(padKey(k, BLOCK, IPAD), w);
+        this.outer = midstate(padKey(k, BLOCK, OPAD), w);
+    }
+
+    @Override
+    public int getMacLength() {
+        return LENGTH;
+    }
+
+    @Override
+    public void destroy() {
+        Arrays.fill(inner, 0);
+        Arrays.fill(outer, 0);
+    }
+
+    @Override
+    void compute(long message, Scratch scratch) {
+        compute(inner, outer, message, scratch);
+    }
+
+    /**
+     * Computes the HMAC from the given midstates into the scratch hash buffer.
+     */
+    static void compute(int[] inner, int[] outer, long message, Scratch scratch) {
+        final int[] w = scratch.w;
+        final int[] s = scratch.state;
+
+        // inner hash: message block from the ipad midstate
+        System.arraycopy(inner, 0, s, 0, 8);
+        w[0] = (int) (message >>> 32);
+        w[1] = (int) message;
+        w[2] = 0x80000000;
+        Arrays.fill(w, 3, 15, 0);
+        w[15] = INNER_BITS;
+        compress(s, w);
+
+        // outer hash: inner digest block from the opad midstate
+        System.arraycopy(s, 0, w, 0, 8);
+        w[8] = 0x80000000;
+        Arrays.fill(w, 9, 15, 0);
+        w[15] = OUTER_BITS;
+        System.arraycopy(outer, 0, s, 0, 8);
+        compress(s, w);
+
+        for (int i = 0; i < 8; i++) {
+            putInt(scratch.hash, i * 4, s[i]);
+        }
+    }
+
+    /**
+     * Computes the midstates of a key of at most one block, read from the buffer without copying
+     * it, into scratch.inner and scratch.outer.
+     */
+    static void midstates(ByteBuffer key, int offset, int length, Scratch scratch) {
+        final int[] w = scratch.w;
+        padWords(key, offset, length, IPAD, w);
+        System.arraycopy(IV, 0, scratch.inner, 0, IV.length);
+        compress(scratch.inner, w);
+        padWords(key, offset, length, OPAD, w);
+        System.arraycopy(IV, 0, scratch.outer, 0, IV.length);
+        compress(scratch.outer, w);
+    }
+
+    private static int[] midstate(byte[] block, int[] w) {
+        final int[] state = IV.clone();
+        for (int i = 0; i < 16; i++) {
+            w[i] = getInt(block, i * 4);
+        }
+        compress(state, w);
+        Arrays.fill(block, (byte) 0);
+        Arrays.fill(w, 0);
+        return state;
+    }
+
+    /**
+     * SHA-256 of a whole message, used for keys longer than one block.
+     */
+    static byte[] digest(byte[] data) {
+        final byte[] padded = pad(data, BLOCK, 8);
+        final int[] state = IV.clone();
+        final int[] w = new int[64];
+        for (int off = 0; off < padded.length; off += BLOCK) {
+            for (int i = 0; i < 16; i++) {
+                w[i] = getInt(padded, off + i * 4);
+            }
+            compress(state, w);
+        }
+        final byte[] out = new byte[LENGTH];
+        for (int i = 0; i < 8; i++) {
+            putInt(out, i * 4, state[i]);
+        }
+        return out;
+    }
+
+    /**
+     * SHA-256 compression of the block in w[0..15] into state.
+     */
+    static void compress(int[] state, int[] w) {
+        for (int t = 16; t < 64; t++) {
+            final int s0 = Integer.rotateRight(w[t - 15], 7) ^ Integer.rotateRight(w[t - 15], 18) ^ (w[t - 15] >>> 3);
+            final int s1 = Integer.rotateRight(w[t - 2], 17) ^ Integer.rotateRight(w[t - 2], 19) ^ (w[t - 2] >>> 10);
+            w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+        }
+        int a = state[0];
+        int b = state[1];
+        int c = state[2];
+        int d = state[3];
+        int e = state[4];
+        int f = state[5];
+        int g = state[6];
+        int h = state[7];
+        for (int t = 0; t < 64; t++) {
+            final int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            final int ch = (e & f) ^ (~e & g);
+            final int temp1 = h + s1 + ch + K[t] + w[t];
+            final int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            final int maj = (a & b) ^ (a & c) ^ (b & c);
+            final int temp2 = s0 + maj;
+            h = g;
+            g = f;
+            f = e;
+            e = d + temp1;
+            d = c;
+            c = b;
+            b = a;
+            a = temp1 + temp2;
+        }
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+        state[4] += e;
+        state[5] += f;
+        state[6] += g;
+        state[7] += h;
+    }
+}
@@ -1,6 +1,7 @@
 package com.amdelamar.jotp.util;
 
 import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 
 import javax.crypto.Mac;
@@ -8,6 +9,15 @@ import javax.crypto.spec.SecretKeySpec;
 
 public final class Utils {
 
+    /**
+     * Powers of ten by number of digits. Codes of 10 or more digits are limited by the 31 bit
+     * truncated value, so those entries stay at Integer.MAX_VALUE.
+     */
+    private static final int[] POWERS_OF_TEN = { 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000,
+            100000000, 1000000000 };
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     private Utils() {
         // prevent instantiation
     }
@@ -28,9 +38,261 @@ public final class Utils {
      */
     public static byte[] hmac(String alg, byte[] keyBytes, byte[] text)
             throws NoSuchAlgorithmException, InvalidKeyException {
-        Mac hmac = Mac.getInstance(alg);
-        SecretKeySpec macKey = new SecretKeySpec(keyBytes, "RAW");
-        hmac.init(macKey);
-        return hmac.doFinal(text);
+        return hmac(alg, new SecretKeySpec(keyBytes, "RAW"), text);
+    }
+
+    /**
+     * Uses the JCE to provide the cryptographic hash, with a key that was already prepared. Reusing
+     * the same key object lets the cached Mac skip re-initialization.
+     *
+     * @param alg
+     *            algorithm (HmacSHA1, HmacSHA256, HmacSHA512)
+     * @param key
+     *            the HMAC key
+     * @param text
+     *            the message or text to be authenticated
+     * @return hash byte array
+     * @throws NoSuchAlgorithmException if hmac sha1 is not available
+     * @throws InvalidKeyException if given key  is inappropriate for this mac
+     */
+    public static byte[] hmac(String alg, Key key, byte[] text)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        return getMac(alg, key).doFinal(text);
+    }
+
+    /**
+     * Gets a Mac for this thread, initialized with the key. Mac instances are cached per thread
+     * and algorithm, and are only re-initialized when the key changes.
+     *
+     * @param alg
+     *            algorithm (HmacSHA1, HmacSHA256, HmacSHA512)
+     * @param key
+     *            the HMAC key
+     * @return Mac ready to use. Do not share it with other threads.
+     * @throws NoSuchAlgorithmException if hmac sha1 is not available
+     * @throws InvalidKeyException if given key  is inappropriate for this mac
+     */
+    public static Mac getMac(String alg, Key key) throws NoSuchAlgorithmException, InvalidKeyException {
+        return MacCache.get(alg, key);
+    }
+
+    /**
+     * Converts a moving factor (counter or time step) into the 8 byte big-endian message.
+     *
+     * @param movingFactor
+     *            the counter, time, or other value
+     * @return 8 byte array
+     */
+    public static byte[] toBytes(long movingFactor) {
+        byte[] text = new byte[8];
+        for (int i = text.length - 1; i >= 0; i--) {
+            text[i] = (byte) (movingFactor & 0xff);
+            movingFactor >>= 8;
+        }
+        return text;
+    }
+
+    /**
+     * Converts a moving factor into 16 lowercase hex characters, the same as hex encoding the 8
+     * byte big-endian message.
+     *
+     * @param movingFactor
+     *            the counter, time, or other value
+     * @return hex string
+     */
+    public static String toHex(long movingFactor) {
+        final char[] hex = new char[16];
+        for (int i = hex.length - 1; i >= 0; i--) {
+            hex[i] = HEX[(int) (movingFactor & 0xf)];
+            movingFactor >>>= 4;
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Lowercase hex encoding of a decoded secret as ASCII bytes, which is the key HOTP codes are
+     * computed with.
+     *
+     * @param bytes
+     *            the decoded secret
+     * @return hex key bytes
+     */
+    public static byte[] hexKey(byte[] bytes) {
+        final byte[] hex = new byte[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = (byte) HEX[(bytes[i] >>> 4) & 0xf];
+            hex[2 * i + 1] = (byte) HEX[bytes[i] & 0xf];
+        }
+        return hex;
+    }
+
+    /**
+     * Selects 4 bytes of the hash as a 31 bit integer.
+     *
+     * @param hash
+     *            the HMAC result
+     * @param truncationOffset
+     *            the offset into the MAC result to begin truncation. If this value is out of the
+     *            range of 0 ... 15, then dynamic truncation will be used.
+     * @return truncated value
+     */
+    public static int truncate(byte[] hash, int truncationOffset) {
+        return truncate(hash, hash.length, truncationOffset);
+    }
+
+    /**
+     * Selects 4 bytes of the first length bytes of the hash as a 31 bit integer, for hashes
+     * written into a larger reusable buffer.
+     *
+     * @param hash
+     *            buffer starting with the hash
+     * @param length
+     *            length of the hash
+     * @param truncationOffset
+     *            the offset into the MAC result to begin truncation, or out of range for dynamic
+     *            truncation
+     * @return truncated value
+     */
+    public static int truncate(byte[] hash, int length, int truncationOffset) {
+        int offset = hash[length - 1] & 0xf;
+        if ((-1 < truncationOffset) && (truncationOffset < (length - 4))) {
+            offset = truncationOffset;
+        }
+        return ((hash[offset] & 0x7f) << 24) | ((hash[offset + 1] & 0xff) << 16)
+                | ((hash[offset + 2] & 0xff) << 8) | (hash[offset + 3] & 0xff);
+    }
+
+    /**
+     * Computes the HMAC of the moving factor and truncates it, without allocating once the
+     * calling thread has a cached Mac for the algorithm.
+     *
+     * @param alg
+     *            algorithm (HmacSHA1, HmacSHA256, HmacSHA512)
+     * @param key
+     *            the HMAC key
+     * @param movingFactor
+     *            the counter, time, or other value
+     * @param truncationOffset
+     *            the offset into the MAC result to begin truncation. If this value is out of the
+     *            range of 0 ... 15, then dynamic truncation will be used.
+     * @return truncated value
+     * @throws NoSuchAlgorithmException if hmac sha1 is not available
+     * @throws InvalidKeyException if given key  is inappropriate for this mac
+     */
+    public static int hmacTruncate(String alg, Key key, long movingFactor, int truncationOffset)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        return MacCache.truncated(alg, key, movingFactor, truncationOffset);
+    }
+
+    /**
+     * Gets the modulus for a code of the given length, 10^digits.
+     *
+     * @param digits
+     *            length of the code
+     * @return modulus
+     */
+    public static int modulus(int digits) {
+        return digits < POWERS_OF_TEN.length ? POWERS_OF_TEN[digits] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Writes the code as decimal digits, left padded with '0' to the given length.
+     *
+     * @param code
+     *            non-negative code
+     * @param digits
+     *            number of characters to write
+     * @param dst
+     *            destination
+     * @param offset
+     *            index of the first character
+     */
+    public static void format(int code, int digits, char[] dst, int offset) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            dst[i] = (char) ('0' + (code % 10));
+            code /= 10;
+        }
+    }
+
+    /**
+     * Writes the code as ASCII decimal digits, left padded with '0' to the given length.
+     *
+     * @param code
+     *            non-negative code
+     * @param digits
+     *            number of bytes to write
+     * @param dst
+     *            destination
+     * @param offset
+     *            index of the first byte
+     */
+    public static void format(int code, int digits, byte[] dst, int offset) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            dst[i] = (byte) ('0' + (code % 10));
+            code /= 10;
+        }
+    }
+
+    /**
+     * Gets the code as a String of decimal digits, left padded with '0' to the given length.
+     *
+     * @param code
+     *            the code
+     * @param digits
+     *            minimum length
+     * @return code
+     */
+    public static String toString(int code, int digits) {
+        if (code < 0) {
+            return Integer.toString(code);
+        }
+        final char[] text = new char[digits];
+        format(code, digits, text, 0);
+        return new String(text);
+    }
+
+    /**
+     * Compares a code against its expected value without stopping at the first difference.
+     *
+     * @param expected
+     *            non-negative expected code
+     * @param digits
+     *            length of the code
+     * @param code
+     *            the code to check
+     * @return true if code is exactly the expected digits
+     */
+    public static boolean matches(int expected, int digits, CharSequence code) {
+        if (code.length() != digits) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = digits - 1; i >= 0; i--) {
+            diff |= code.charAt(i) ^ ('0' + (expected % 10));
+            expected /= 10;
+        }
+        return diff == 0;
+    }
+
+    /**
+     * Parses a code of decimal digits.
+     *
+     * @param code
+     *            the code
+     * @return code as an int, or -1 when it is not a number that a code could be
+     */
+    public static int parse(CharSequence code) {
+        long value = 0;
+        for (int i = 0; i < code.length(); i++) {
+            final int digit = code.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return (int) value;
     }
 }
@@ -0,0 +1,189 @@
+package com.amdelamar.jotp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Unit tests for AsyncVerifier
+ */
+@RunWith(JUnit4.class)
+public class AsyncVerifierTest {
+
+    @Test
+    public void verifyTests() throws Exception {
+        String secret = OTP.randomBase32(OTP.BYTES);
+        OTPKey key = new OTPKey(secret, 6, Type.HOTP);
+        try (AsyncVerifier verifier = new AsyncVerifier()) {
+            VerifyResult result = verifier.verify(key, key.create(5L), 4L, 0, 2).get(10, TimeUnit.SECONDS);
+            assertTrue(result.isValid());
+            assertEquals(1, result.getOffset());
+
+            result = verifier.verify(key, key.create(9L), 4L, 0, 2).get(10, TimeUnit.SECONDS);
+            assertFalse(result.isValid());
+            assertEquals(OTPKey.NO_MATCH, result.getOffset());
+
+            assertTrue(verifier.verify(secret, "5", key.create(5L), 6, Type.HOTP).get().isValid());
+            assertFalse(verifier.verify(secret, "6", key.create(5L), 6, Type.HOTP).get().isValid());
+
+            try {
+                verifier.verify("1234", "5", "123456", 6, Type.HOTP).get();
+                fail("invalid secret not detected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+        }
+    }
+
+    @Test
+    public void batchTests() throws Exception {
+        final AtomicInteger dispatches = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        Executor counting = command -> {
+            dispatches.incrementAndGet();
+            pool.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                command.run();
+            });
+        };
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.TOTP);
+        try (AsyncVerifier verifier = new AsyncVerifier(counting, 2, 100, 1000, 0L)) {
+            List<CompletableFuture<VerifyResult>> futures = new ArrayList<>();
+            for (long step = 0; step < 300; step++) {
+                futures.add(verifier.verify(key, key.create(step), step, 0, 0));
+            }
+            release.countDown();
+            for (CompletableFuture<VerifyResult> future : futures) {
+                assertTrue(future.get(10, TimeUnit.SECONDS).isValid());
+            }
+            // 300 requests in batches of 100
+            assertTrue(dispatches.get() <= 4);
+            assertEquals(0, verifier.getPending());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void cancelAndTimeoutTests() throws Exception {
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        Executor blocked = command -> pool.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            command.run();
+        });
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.TOTP);
+        try (AsyncVerifier verifier = new AsyncVerifier(blocked, 1, 10, 2, 100L)) {
+            CompletableFuture<VerifyResult> cancelled = verifier.verify(key, key.create(1L), 1L, 0, 0);
+            CompletableFuture<VerifyResult> timedOut = verifier.verify(key, key.create(1L), 1L, 0, 0);
+            CompletableFuture<VerifyResult> rejected = verifier.verify(key, key.create(1L), 1L, 0, 0);
+
+            assertTrue(cancelled.cancel(false));
+            try {
+                rejected.get();
+                fail("pending limit not enforced");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            try {
+                timedOut.get(10, TimeUnit.SECONDS);
+                fail("timeout not enforced");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            release.countDown();
+            assertTrue(cancelled.isCancelled());
+            // the worker skips both and carries on
+            while (verifier.getPending() > 0) {
+                Thread.sleep(10L);
+            }
+            assertTrue(verifier.verify(key, key.create(2L), 2L, 0, 0).get(10, TimeUnit.SECONDS).isValid());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void timeoutCleanupTests() throws Exception {
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.TOTP);
+        // an hour long timeout, cancelled as soon as each verification is done
+        try (AsyncVerifier verifier = new AsyncVerifier(2, 1000, 3600000L)) {
+            for (long step = 0; step < 500; step++) {
+                assertTrue(verifier.verify(key, key.create(step), step, 0, 0).get(10, TimeUnit.SECONDS).isValid());
+            }
+        }
+        // cancelled timeouts do not stay queued
+        assertTrue(AsyncVerifier.scheduledTimeouts() < 50);
+    }
+
+    @Test
+    public void errorTests() throws Exception {
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.HOTP);
+        // fails like a broken provider, with an Error rather than an Exception
+        CharSequence broken = new CharSequence() {
+            @Override
+            public int length() {
+                throw new LinkageError("broken provider");
+            }
+
+            @Override
+            public char charAt(int index) {
+                throw new LinkageError("broken provider");
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                throw new LinkageError("broken provider");
+            }
+        };
+        // one worker, so a lost worker would leave the queue stuck
+        try (AsyncVerifier verifier = new AsyncVerifier(1, 100, 0L)) {
+            for (int i = 0; i < 3; i++) {
+                try {
+                    verifier.verify(key, broken, 1L, 0, 0).get(10, TimeUnit.SECONDS);
+                    fail("Error not passed on");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof LinkageError);
+                }
+            }
+            assertTrue(verifier.verify(key, key.create(1L), 1L, 0, 0).get(10, TimeUnit.SECONDS).isValid());
+        }
+    }
+
+    @Test
+    public void closedTests() throws Exception {
+        AsyncVerifier verifier = new AsyncVerifier(2, 10, 0L);
+        verifier.close();
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.TOTP);
+        assertTrue(verifier.verify(key, "123456", 1L, 0, 0).isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,78 @@
+package com.amdelamar.jotp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Unit tests for BatchVerifier
+ */
+@RunWith(JUnit4.class)
+public class BatchVerifierTest {
+
+    @Test
+    public void batchTests() throws Exception {
+        int size = 1000;
+        String[] secrets = new String[size];
+        String[] bases = new String[size];
+        String[] codes = new String[size];
+        OTPKey[] keys = new OTPKey[size];
+        long[] steps = new long[size];
+        boolean[] expected = new boolean[size];
+
+        for (int i = 0; i < size; i++) {
+            secrets[i] = OTP.randomBase32(OTP.BYTES);
+            bases[i] = OTP.timeInHex(1573788090000L + i * 30000L);
+            codes[i] = OTP.create(secrets[i], bases[i], 6, Type.TOTP);
+            keys[i] = new OTPKey(secrets[i], 6, Type.TOTP);
+            steps[i] = Long.parseLong(bases[i], 16);
+            expected[i] = true;
+            if (i % 3 == 0) {
+                // wrong base
+                bases[i] = OTP.timeInHex(1573788090000L - 60000L);
+                steps[i] = Long.parseLong(bases[i], 16);
+                expected[i] = codes[i].equals(OTP.create(secrets[i], bases[i], 6, Type.TOTP));
+            }
+        }
+        // malformed entries are reported, not thrown
+        codes[7] = null;
+        expected[7] = false;
+        secrets[8] = "";
+        expected[8] = false;
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            BatchVerifier parallel = new BatchVerifier(pool, 16);
+            assertArrayEquals(expected, parallel.verify(secrets, bases, codes, 6, Type.TOTP));
+            assertArrayEquals(expected, parallel.verify(Arrays.asList(secrets), Arrays.asList(bases),
+                    Arrays.asList(codes), 6, Type.TOTP));
+
+            // sequential
+            BatchVerifier sequential = new BatchVerifier(pool, size);
+            assertArrayEquals(expected, sequential.verify(secrets, bases, codes, 6, Type.TOTP));
+
+            expected[8] = true;
+            assertArrayEquals(expected, parallel.verify(keys, steps, codes));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedLengthTests() throws Exception {
+        new BatchVerifier().verify(new String[2], new String[2], new String[1], 6, Type.TOTP);
+    }
+
+    @Test
+    public void emptyTests() throws Exception {
+        assertEquals(0, new BatchVerifier().verify(new String[0], new String[0], new String[0], 6, Type.HOTP).length);
+    }
+}
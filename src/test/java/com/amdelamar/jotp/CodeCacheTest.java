@@ -0,0 +1,202 @@
+package com.amdelamar.jotp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Unit tests for CodeCache
+ */
+@RunWith(JUnit4.class)
+public class CodeCacheTest {
+
+    /**
+     * Clock the test moves by hand.
+     */
+    private static final class ManualClock extends Clock {
+        private volatile long millis;
+
+        private ManualClock(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+
+    @Test
+    public void verifyTests() throws Exception {
+        ManualClock time = new ManualClock(1573788090000L);
+        StepClock clock = new StepClock(30, time);
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.TOTP);
+        long step = clock.step();
+
+        try (CodeCache cache = new CodeCache(clock, 10)) {
+            assertEquals(0, cache.verify(1L, key, key.create(step)));
+            assertEquals(1, cache.size());
+            assertEquals(-1, cache.verify(1L, key, key.create(step - 1)));
+            assertEquals(1, cache.verify(1L, key, key.create(step + 1)));
+            assertEquals(OTPKey.NO_MATCH, cache.verify(1L, key, key.create(step + 2)));
+            assertEquals(OTPKey.NO_MATCH, cache.verify(1L, key, "12345"));
+            assertEquals(OTPKey.NO_MATCH, cache.verify(1L, key, "abcdef"));
+
+            // refreshed just before the boundary, then used after it
+            time.millis += 29000L;
+            cache.refresh();
+            time.millis += 1000L;
+            assertEquals(0, cache.verify(1L, key, key.create(step + 1)));
+            assertEquals(1, cache.verify(1L, key, key.create(step + 2)));
+            assertEquals(-1, cache.verify(1L, key, key.create(step)));
+            assertEquals(OTPKey.NO_MATCH, cache.verify(1L, key, key.create(step - 1)));
+
+            // not refreshed for a while, never stale
+            time.millis += 300000L;
+            long now = clock.step();
+            assertEquals(0, cache.verify(1L, key, key.create(now)));
+            assertEquals(OTPKey.NO_MATCH, cache.verify(1L, key, key.create(step + 1)));
+
+            // rotated key replaces the codes
+            OTPKey rotated = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.TOTP);
+            assertEquals(OTPKey.NO_MATCH, cache.verify(1L, rotated, key.create(now)));
+            assertEquals(0, cache.verify(1L, rotated, rotated.create(now)));
+        }
+    }
+
+    @Test
+    public void evictionTests() throws Exception {
+        ManualClock time = new ManualClock(1573788090000L);
+        StepClock clock = new StepClock(30, time);
+        OTPKey[] keys = new OTPKey[20];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.TOTP);
+        }
+        CodeCache cache = new CodeCache(clock, 8);
+        long step = clock.step();
+        for (int round = 0; round < 3; round++) {
+            // accounts 0-3 are hot
+            for (int i = 0; i < 4; i++) {
+                for (int n = 0; n < 10; n++) {
+                    assertEquals(0, cache.verify(i, keys[i], keys[i].create(step)));
+                }
+            }
+            for (int i = 4; i < keys.length; i++) {
+                assertEquals(0, cache.verify(i, keys[i], keys[i].create(step)));
+            }
+            assertTrue(cache.size() <= 8);
+            cache.refresh();
+            assertTrue(cache.size() <= 6);
+        }
+        // evicted and never admitted accounts still verify
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(0, cache.verify(i, keys[i], keys[i].create(step)));
+        }
+    }
+
+    @Test
+    public void admitEvictionTests() throws Exception {
+        ManualClock time = new ManualClock(1573788090000L);
+        StepClock clock = new StepClock(30, time);
+        long step = clock.step();
+        OTPKey[] keys = new OTPKey[40];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.TOTP);
+        }
+        // never refreshed, a full cache still makes room for new hot accounts
+        CodeCache cache = new CodeCache(clock, 8);
+        for (int i = 0; i < 30; i++) {
+            assertEquals(0, cache.verify(i, keys[i], keys[i].create(step)));
+        }
+        for (int i = 30; i < keys.length; i++) {
+            for (int n = 0; n < 10; n++) {
+                assertEquals(0, cache.verify(i, keys[i], keys[i].create(step)));
+            }
+        }
+        assertTrue(cache.size() <= 8);
+        for (int i = 35; i < keys.length; i++) {
+            assertTrue(cache.isCached(i));
+        }
+    }
+
+    @Test
+    public void rotationRaceTests() throws Exception {
+        ManualClock time = new ManualClock(1573788090000L);
+        final StepClock clock = new StepClock(30, time);
+        final long step = clock.step();
+        final CodeCache cache = new CodeCache(clock, 10);
+        final AtomicInteger wrong = new AtomicInteger();
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            // two keys fight over one account, each must only ever see its own codes
+            final OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.TOTP);
+            final String code = key.create(step);
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 20000; i++) {
+                        if (cache.verify(1L, key, code) != 0) {
+                            wrong.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    wrong.incrementAndGet();
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, wrong.get());
+    }
+
+    @Test
+    public void backgroundTests() throws Exception {
+        StepClock clock = new StepClock(1);
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, 1, Type.TOTP);
+        try (CodeCache cache = new CodeCache(clock, 10, 200L)) {
+            cache.start();
+            for (int i = 0; i < 10; i++) {
+                long step = clock.step();
+                int offset = cache.verify(7L, key, key.create(step));
+                // the step may turn between the two calls
+                assertTrue(offset == 0 || offset == -1);
+                Thread.sleep(250L);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hotpTests() throws Exception {
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.HOTP);
+        new CodeCache(new StepClock(), 10).verify(1L, key, "123456");
+    }
+}
@@ -0,0 +1,133 @@
+package com.amdelamar.jotp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringWriter;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Base32;
+import com.amdelamar.jotp.util.Hmac;
+
+/**
+ * Unit tests for OTPAuthWriter
+ */
+@RunWith(JUnit4.class)
+public class OTPAuthWriterTest {
+
+    @Test
+    public void uriTests() throws Exception {
+        OTPAuthWriter writer = new OTPAuthWriter("ACME Co", 8, 60, Type.TOTP, Hmac.HMACSHA256);
+        assertEquals("otpauth://totp/ACME%20Co:john.doe@email.com?secret=MFRGGZDF&issuer=ACME%20Co"
+                + "&algorithm=SHA256&digits=8&period=60", writer.toURL("MFRGGZDF", "john.doe@email.com"));
+
+        // separators and non-ASCII text in the label are encoded
+        OTPAuthWriter hotp = new OTPAuthWriter("A&B:C", 6, 30, Type.HOTP, Hmac.HMACSHA512);
+        StringBuilder sb = new StringBuilder("> ");
+        hotp.append(sb, "MFRGGZDF", "caf\u00e9+\u20ac\ud83d\ude00?", 5L);
+        assertEquals("> otpauth://hotp/A%26B%3AC:caf%C3%A9%2B%E2%82%AC%F0%9F%98%80%3F?secret=MFRGGZDF"
+                + "&issuer=A%26B%3AC&algorithm=SHA512&digits=6&counter=5", sb.toString());
+
+        assertEquals("otpauth://hotp/bob?secret=MFRGGZDF&algorithm=SHA1&digits=6",
+                new OTPAuthWriter(null, 6, Type.HOTP).toURL("MFRGGZDF", "bob"));
+        assertEquals("otpauth://totp/Example:a%20b?secret=MFRGGZDF&issuer=Example&algorithm=SHA1&digits=6&period=30",
+                OTP.getURL("MFRGGZDF", 6, Type.TOTP, "Example", "a b"));
+
+        // Base32 padding is left out
+        assertEquals("otpauth://totp/bob?secret=MFRGG&algorithm=SHA1&digits=6&period=30",
+                new OTPAuthWriter(null, 6, Type.TOTP).toURL("MFRGG===", "bob"));
+        String padded = Base32.encode(new byte[] { 1, 2, 3, 4, 5, 6, 7 });
+        assertTrue(padded.endsWith("="));
+        assertTrue(new OTPAuthWriter(null, 6, Type.TOTP).toURL(padded, "bob")
+                .contains("secret=" + padded.replace("=", "") + "&"));
+    }
+
+    @Test
+    public void exportTests() throws Exception {
+        Map<String, String> accounts = new LinkedHashMap<>();
+        accounts.put("alice@example.com", "MFRGGZDF");
+        accounts.put("bob, \"jr\"", "MZTWQ2LK");
+        OTPAuthWriter writer = new OTPAuthWriter("Example", 6, Type.HOTP);
+
+        StringWriter csv = new StringWriter();
+        assertEquals(2L, writer.writeCsv(accounts.entrySet(), csv));
+        assertEquals(OTPAuthWriter.CSV_HEADER + "\n"
+                + "alice@example.com,MFRGGZDF,otpauth://hotp/Example:alice@example.com?secret=MFRGGZDF"
+                + "&issuer=Example&algorithm=SHA1&digits=6&counter=0\n"
+                + "\"bob, \"\"jr\"\"\",MZTWQ2LK,otpauth://hotp/Example:bob%2C%20%22jr%22?secret=MZTWQ2LK"
+                + "&issuer=Example&algorithm=SHA1&digits=6&counter=0\n", csv.toString());
+
+        StringWriter json = new StringWriter();
+        assertEquals(2L, writer.writeJsonLines(accounts.entrySet(), json));
+        String[] lines = json.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("{\"account\":\"bob, \\\"jr\\\"\",\"secret\":\"MZTWQ2LK\",\"uri\":\"otpauth://hotp/Example:"
+                + "bob%2C%20%22jr%22?secret=MZTWQ2LK&issuer=Example&algorithm=SHA1&digits=6&counter=0\"}", lines[1]);
+    }
+
+    @Test
+    public void streamTests() throws Exception {
+        // accounts generated on the fly, larger than the write buffer
+        final int count = 5000;
+        final Provisioner provisioner = new Provisioner();
+        Iterable<Map.Entry<String, String>> accounts = () -> new Iterator<Map.Entry<String, String>>() {
+            private int i;
+
+            @Override
+            public boolean hasNext() {
+                return i < count;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                return new SimpleImmutableEntry<>("user" + i++ + "@example.com", provisioner.next());
+            }
+        };
+
+        StringWriter out = new StringWriter();
+        assertEquals(count, new OTPAuthWriter("Example", 6, Type.TOTP).writeJsonLines(accounts, out));
+        String[] lines = out.toString().split("\n");
+        assertEquals(count, lines.length);
+        for (int i = 0; i < count; i++) {
+            assertTrue(lines[i].startsWith("{\"account\":\"user" + i + "@example.com\""));
+            assertTrue(lines[i].endsWith("&period=30\"}"));
+        }
+    }
+
+    @Test
+    public void badParameterTests() throws Exception {
+        try {
+            new OTPAuthWriter("Example", 6, 30, Type.TOTP, "HmacMD5");
+            fail("Unsupported algorithm not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+        try {
+            new OTPAuthWriter("Example", 6, 0, Type.TOTP, Hmac.HMACSHA1);
+            fail("zero period not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+        try {
+            new OTPAuthWriter("Example", 6, Type.TOTP).toURL("MFRGGZDF", "bad\ud83d");
+            fail("Unpaired surrogate not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+        try {
+            new OTPAuthWriter("Example", 6, Type.TOTP).toURL("====", "bob");
+            fail("padding only secret not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+    }
+}
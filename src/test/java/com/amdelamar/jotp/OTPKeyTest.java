@@ -0,0 +1,208 @@
+package com.amdelamar.jotp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.type.HOTP;
+import com.amdelamar.jotp.type.TOTP;
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Base32;
+import com.amdelamar.jotp.util.Hmac;
+import com.amdelamar.jotp.util.HmacBackend;
+
+/**
+ * Unit tests for OTPKey
+ */
+@RunWith(JUnit4.class)
+public class OTPKeyTest {
+
+    @Test
+    public void hotpMatchesStringApi() throws InvalidKeyException, NoSuchAlgorithmException {
+        for (int i = 0; i < 5; i++) {
+            String secret = OTP.randomBase32(OTP.BYTES);
+            String hex = hex(Base32.decode(secret));
+            OTPKey key = new OTPKey(secret, 6, Type.HOTP);
+
+            for (long counter = 0; counter < 10; counter++) {
+                String expected = new HOTP().create(hex, Long.toString(counter), 6);
+                assertEquals(expected, key.create(counter));
+                assertTrue(key.verify(expected, counter));
+            }
+        }
+    }
+
+    @Test
+    public void totpMatchesStringApi() throws Exception {
+        long time = 1573788090000L;
+        for (int i = 0; i < 5; i++) {
+            String secret = OTP.randomBase32(OTP.BYTES);
+            String hex = hex(Base32.decode(secret));
+            OTPKey key = new OTPKey(secret, 8, Type.TOTP);
+
+            for (int step = 0; step < 10; step++) {
+                String hexTime = OTP.timeInHex(time + step * 30000L);
+                String expected = new TOTP().create(hex, hexTime, 8);
+                assertEquals(expected, key.create(Long.parseLong(hexTime, 16)));
+                assertEquals(expected, OTP.create(secret, hexTime, 8, Type.TOTP));
+            }
+        }
+    }
+
+    @Test
+    public void verifyTests() throws InvalidKeyException, NoSuchAlgorithmException {
+        OTPKey key = new OTPKey("MFRGGZDFMZTWQ2LK", 6, Type.TOTP);
+        String code = key.create(1L);
+        assertTrue(key.verify(code, 1L));
+        assertFalse(key.verify(code, 2L));
+        assertFalse(key.verify("12345", 1L));
+
+        try {
+            key.verify(null, 1L);
+            fail("null code not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+    }
+
+    @Test
+    public void primitiveTests() throws InvalidKeyException, NoSuchAlgorithmException {
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 8, Type.TOTP);
+        char[] chars = new char[10];
+        byte[] bytes = new byte[10];
+
+        for (long step = 0; step < 20; step++) {
+            String code = key.create(step);
+            int value = key.create(step, chars, 2);
+            assertEquals(code, new String(chars, 2, 8));
+            assertEquals(value, key.create(step, bytes, 1));
+            assertEquals(code, new String(bytes, 1, 8, java.nio.charset.StandardCharsets.US_ASCII));
+            assertEquals(Integer.parseInt(code), value);
+            assertTrue(key.verify(value, step));
+            assertTrue(key.verify(new StringBuilder(code), step));
+        }
+    }
+
+    @Test
+    public void backendTests() throws InvalidKeyException, NoSuchAlgorithmException {
+        String secret = OTP.randomBase32(OTP.BYTES);
+        for (Type type : Type.values()) {
+            for (String alg : new String[] { Hmac.HMACSHA1, Hmac.HMACSHA256, Hmac.HMACSHA512 }) {
+                OTPKey jce = new OTPKey(secret, 6, 30, type, alg, HmacBackend.JCE);
+                OTPKey java = new OTPKey(secret, 6, 30, type, alg, HmacBackend.JAVA);
+                assertEquals(alg, java.getAlgorithm());
+                for (long base = 0; base < 10; base++) {
+                    assertEquals(jce.create(base), java.create(base));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void windowTests() throws Exception {
+        long time = 1573788090000L;
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.TOTP);
+        long step = key.timeStep(time);
+        assertEquals(Long.parseLong(OTP.timeInHex(time), 16), step);
+
+        assertEquals(0, key.verifyTime(key.create(step), time, 1, 1));
+        assertEquals(-1, key.verifyTime(key.create(step - 1), time, 1, 1));
+        assertEquals(1, key.verifyTime(key.create(step + 1), time, 1, 1));
+        assertEquals(OTPKey.NO_MATCH, key.verifyTime(key.create(step + 2), time, 1, 1));
+        assertEquals(-2, key.verifyWindow(key.create(step - 2), step, 2, 0));
+        assertEquals(OTPKey.NO_MATCH, key.verifyWindow(key.create(step + 1), step, 2, 0));
+        assertEquals(OTPKey.NO_MATCH, key.verifyWindow("12a456", step, 1, 1));
+        assertEquals(OTPKey.NO_MATCH, key.verifyWindow("1234567", step, 1, 1));
+    }
+
+    @Test
+    public void verifyAllTests() throws Exception {
+        String[] algorithms = { Hmac.HMACSHA1, Hmac.HMACSHA256, Hmac.HMACSHA512 };
+        int count = 60;
+        OTPKey[] keys = new OTPKey[count];
+        CharSequence[] codes = new CharSequence[count];
+        long[] bases = new long[count];
+        int[] expected = new int[count];
+        for (int i = 0; i < count; i++) {
+            Type type = i % 2 == 0 ? Type.TOTP : Type.HOTP;
+            HmacBackend backend = i % 5 == 0 ? HmacBackend.JCE : HmacBackend.JAVA;
+            keys[i] = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, 30, type, algorithms[i % 3], backend);
+            bases[i] = 1000L + i;
+            // offsets -2 ... 2, where 2 is outside the window
+            int offset = i % 5 - 2;
+            codes[i] = keys[i].create(bases[i] + offset);
+            expected[i] = keys[i].verifyWindow(codes[i], bases[i], 2, 1);
+        }
+        codes[3] = "12a456";
+        expected[3] = OTPKey.NO_MATCH;
+
+        int[] offsets = new int[count];
+        OTPKey.verifyAll(keys, codes, bases, 2, 1, offsets);
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected[i], offsets[i]);
+        }
+
+        long time = 1573788090000L;
+        OTPKey[] totp = { keys[0], keys[2] };
+        CharSequence[] now = { totp[0].create(totp[0].timeStep(time) - 1), totp[1].create(totp[1].timeStep(time)) };
+        int[] result = new int[2];
+        OTPKey.verifyTimeAll(totp, now, time, 1, 1, result);
+        assertEquals(-1, result[0]);
+        assertEquals(0, result[1]);
+
+        try {
+            OTPKey.verifyAll(keys, codes, new long[1], 1, 1, offsets);
+            fail("Arrays of different lengths");
+        } catch (IllegalArgumentException e) {
+            // good
+        }
+    }
+
+    @Test
+    public void timeStepTests() throws Exception {
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, 60, Type.TOTP);
+        for (long time = 1600637701000L; time < 1600637701000L + 200000L; time += 499L) {
+            assertEquals(Long.parseLong(OTP.timeInHex(time, 60), 16), key.timeStep(time));
+        }
+    }
+
+    @Test
+    public void badParameterTests() throws InvalidKeyException, NoSuchAlgorithmException {
+        try {
+            new OTPKey(null, 6, Type.TOTP);
+            fail("null secret not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+
+        try {
+            new OTPKey("MFRGGZDFMZTWQ2LK", 0, Type.TOTP);
+            fail("zero digits not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+
+        try {
+            new OTPKey("MFRGGZDFMZTWQ2LK", 6, null);
+            fail("null type not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -43,6 +43,22 @@ public class OTPTest {
         assertEquals(t1, t3);
     }
 
+    @Test
+    public void timeStepTests() throws IOException {
+        long[] times = { 0L, 499L, 500L, 29499L, 29500L, 1111111109000L, 1573788090000L, 20000000000000L,
+                -1L, -501L, -30500L };
+        for (long time : times) {
+            for (int period : new int[] { 0, 1, 30, 60 }) {
+                long step = OTP.timeStep(time, period);
+                // same rounding as the original floating point version
+                double p = period > 1 ? period : 1d;
+                assertEquals((long) Math.floor(Math.round(((double) time) / 1000d) / p), step);
+                assertEquals(String.format("%016x", step), OTP.timeInHex(time, period));
+            }
+        }
+        assertEquals(OTP.timeStep(1573788090000L, 30), OTP.timeStep(1573788090000L));
+    }
+
     @Test
     public void encodeTests() {
         assertEquals(32, OTP.randomBase32(OTP.BYTES).length());
@@ -84,13 +100,23 @@ public class OTPTest {
 
         try {
             // short secret
-            OTP.create("123", OTP.timeInHex(System.currentTimeMillis())
+            OTP.create("MZXQ", OTP.timeInHex(System.currentTimeMillis())
                     .substring(3), 6, Type.TOTP);
             // should be ok
         } catch (Exception e) {
             // bad exception
             fail("short secret caused a problem");
         }
+
+        try {
+            // not Base32
+            OTP.create("1234", OTP.timeInHex(System.currentTimeMillis()), 6, Type.TOTP);
+            fail("invalid secret not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        } catch (Exception e) {
+            fail("invalid secret caused the wrong exception");
+        }
     }
 
     @Test
@@ -0,0 +1,65 @@
+package com.amdelamar.jotp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Unit tests for Provisioner
+ */
+@RunWith(JUnit4.class)
+public class ProvisionerTest {
+
+    @Test
+    public void generateTests() throws Exception {
+        Provisioner provisioner = new Provisioner();
+        assertEquals(32, provisioner.getLength());
+        assertEquals(16, new Provisioner(10).getLength());
+
+        String[] secrets = provisioner.generate(Provisioner.PARALLEL_THRESHOLD + 10);
+        Set<String> unique = new HashSet<>();
+        for (String secret : secrets) {
+            assertEquals(32, secret.length());
+            assertTrue(secret.matches("[A-Z2-7]+"));
+            unique.add(secret);
+        }
+        assertEquals(secrets.length, unique.size());
+        assertEquals(0, provisioner.generate(0).length);
+
+        // usable as OTP secrets
+        String code = OTP.create(secrets[0], "1", 6, Type.HOTP);
+        assertTrue(OTP.verify(secrets[0], "1", code, 6, Type.HOTP));
+    }
+
+    @Test
+    public void streamTests() throws Exception {
+        Provisioner provisioner = new Provisioner(10);
+        StringWriter writer = new StringWriter();
+        provisioner.generate(1000L, writer);
+        String[] lines = writer.toString().split("\n");
+        assertEquals(1000, lines.length);
+        Set<String> unique = new HashSet<>();
+        for (String line : lines) {
+            assertTrue(line.matches("[A-Z2-7]{16}"));
+            unique.add(line);
+        }
+        assertEquals(1000, unique.size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        provisioner.generate(300L, out);
+        lines = new String(out.toByteArray(), StandardCharsets.US_ASCII).split("\n");
+        assertEquals(300, lines.length);
+        assertTrue(lines[299].matches("[A-Z2-7]{16}"));
+    }
+}
@@ -0,0 +1,190 @@
+package com.amdelamar.jotp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static org.junit.Assert.fail;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Unit tests for ReplayGuard
+ */
+@RunWith(JUnit4.class)
+public class ReplayGuardTest {
+
+    private static final class ManualClock extends Clock {
+        private volatile long millis;
+
+        private ManualClock(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+
+    /**
+     * Guard on a manual clock in the middle of the step.
+     */
+    private static ReplayGuard guard(ManualClock clock, int period, int lookBehind, int lookAhead) {
+        return new ReplayGuard(1000, ReplayGuard.STRIPES, lookBehind, lookAhead, new StepClock(period, clock));
+    }
+
+    @Test
+    public void acceptTests() {
+        ReplayGuard guard = guard(new ManualClock(1000 * 30000L + 1000L), 30, 1, 1);
+        assertTrue(guard.accept(1L, 1000L));
+        assertFalse(guard.accept(1L, 1000L));
+        assertFalse(guard.accept(1L, 999L));
+        assertTrue(guard.accept(1L, 1001L));
+        assertEquals(1001L, guard.lastStep(1L));
+
+        // accounts are independent
+        assertTrue(guard.accept(2L, 1000L));
+        assertEquals(-1L, guard.lastStep(3L));
+
+        // far behind the clock's step
+        assertFalse(guard.accept(3L, 10L));
+    }
+
+    @Test
+    public void futureStepTests() {
+        ManualClock clock = new ManualClock(1000 * 30000L + 1000L);
+        ReplayGuard guard = guard(clock, 30, 1, 1);
+        // a far future step is rejected, and does not move the window for anyone else
+        assertFalse(guard.accept(1L, 1_000_000L));
+        assertEquals(-1L, guard.lastStep(1L));
+        assertTrue(guard.accept(1L, 1000L));
+        assertTrue(guard.accept(2L, 999L));
+        assertTrue(guard.accept(3L, 1001L));
+        assertFalse(guard.accept(4L, 1002L));
+
+        // the window moves with the clock only
+        clock.millis += 30000L;
+        assertTrue(guard.accept(4L, 1002L));
+        assertFalse(guard.accept(5L, 999L));
+    }
+
+    @Test
+    public void periodTests() throws Exception {
+        long time = 1573788090000L;
+        ManualClock clock = new ManualClock(time);
+        ReplayGuard fast = guard(clock, 30, 1, 1);
+        ReplayGuard slow = guard(clock, 60, 1, 1);
+        assertEquals(30, fast.getPeriod());
+        assertEquals(60, slow.getPeriod());
+        OTPKey key30 = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, 30, Type.TOTP);
+        OTPKey key60 = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, 60, Type.TOTP);
+
+        try {
+            fast.verify(key60, 1L, key60.create(key60.timeStep(time)), time);
+            fail("60 second key verified by a 30 second guard");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+        try {
+            slow.verify(key30, 1L, key30.create(key30.timeStep(time)), time);
+            fail("30 second key verified by a 60 second guard");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+
+        // each guard keeps working for its own period
+        assertEquals(0, fast.verify(key30, 1L, key30.create(key30.timeStep(time)), time));
+        assertEquals(0, slow.verify(key60, 2L, key60.create(key60.timeStep(time)), time));
+        assertEquals(OTPKey.NO_MATCH, slow.verify(key60, 2L, key60.create(key60.timeStep(time)), time));
+    }
+
+    @Test
+    public void verifyTests() throws Exception {
+        long time = 1573788090000L;
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.TOTP);
+        String code = key.create(key.timeStep(time));
+        ReplayGuard guard = guard(new ManualClock(time), 30, 1, 1);
+
+        assertEquals(0, guard.verify(key, 42L, code, time));
+        // same code again, even a little later in the same window
+        assertEquals(OTPKey.NO_MATCH, guard.verify(key, 42L, code, time + 1000L));
+        assertEquals(OTPKey.NO_MATCH, guard.verify(key, 42L, code, time + 30000L));
+
+        String next = key.create(key.timeStep(time) + 1);
+        assertEquals(0, guard.verify(key, 42L, next, time + 30000L));
+    }
+
+    @Test
+    public void boundedTests() {
+        ManualClock clock = new ManualClock(1000L);
+        ReplayGuard guard = new ReplayGuard(1000, 4, 1, 1, new StepClock(30, clock));
+        // many more accounts than capacity, but only a few inside the window at a time
+        for (long step = 0; step < 200; step++) {
+            clock.millis = step * 30000L + 1000L;
+            for (long account = 0; account < 100; account++) {
+                assertTrue(guard.accept(step * 100 + account, step));
+            }
+        }
+        assertTrue(guard.size() <= 1000);
+        guard.expire();
+        assertTrue(guard.size() <= 300);
+    }
+
+    @Test
+    public void concurrentTests() throws InterruptedException {
+        // a window wide enough for every step
+        final ReplayGuard guard = guard(new ManualClock(100 * 30000L + 1000L), 30, 0, 1000);
+        final AtomicInteger accepted = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long step = 100; step < 1100; step++) {
+                    if (guard.accept(7L, step)) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // every step is accepted at most once
+        assertTrue(accepted.get() <= 1000);
+        assertEquals(1099L, guard.lastStep(7L));
+    }
+}
@@ -0,0 +1,92 @@
+package com.amdelamar.jotp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Unit tests for Resynchronizer
+ */
+@RunWith(JUnit4.class)
+public class ResynchronizerTest {
+
+    @Test
+    public void resyncTests() throws Exception {
+        // a fixed secret, so no earlier counter in the window matches by chance
+        OTPKey key = new OTPKey("MFRGGZDFMZTWQ2LKNNWG23TPOBYXE43U", 6, Type.HOTP);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (Resynchronizer resync : new Resynchronizer[] { new Resynchronizer(),
+                    new Resynchronizer(pool, 16) }) {
+                long counter = 1000L;
+                assertEquals(0, resync.resync(key, key.create(counter), counter, 0));
+                assertEquals(700, resync.resync(key, key.create(counter + 700), counter, 2000));
+                assertEquals(700, resync.resync(key, key.create(counter + 700), key.create(counter + 701), counter,
+                        2000));
+                assertEquals(2000, resync.resync(key, key.create(counter + 2000), counter, 2000));
+                assertEquals(OTPKey.NO_MATCH, resync.resync(key, key.create(counter + 700), "12a456", counter, 2000));
+                assertEquals(OTPKey.NO_MATCH, resync.resync(key, "12345", counter, 2000));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void earliestMatchTests() throws Exception {
+        // one digit codes repeat often, so later tasks find matches before earlier ones finish
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 1, Type.HOTP);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Resynchronizer resync = new Resynchronizer(pool, 4);
+            long counter = 50L;
+            for (int target = 0; target < 200; target += 7) {
+                String code = key.create(counter + target);
+                String next = key.create(counter + target + 1);
+                int single = 0;
+                while (!key.verify(code, counter + single)) {
+                    single++;
+                }
+                int pair = 0;
+                while (!key.verify(code, counter + pair) || !key.verify(next, counter + pair + 1)) {
+                    pair++;
+                }
+                assertEquals(single, resync.resync(key, code, counter, 500));
+                assertEquals(pair, resync.resync(key, code, next, counter, 500));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void badParameterTests() throws Exception {
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.HOTP);
+        Resynchronizer resync = new Resynchronizer();
+        try {
+            resync.resync(key, "123456", 0L, -1);
+            fail("negative window not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+        try {
+            resync.resync(key, null, 0L, 10);
+            fail("null code not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+        try {
+            new Resynchronizer(null, 10);
+            fail("null pool not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.amdelamar.jotp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Utils;
+
+/**
+ * Unit tests for StepClock
+ */
+@RunWith(JUnit4.class)
+public class StepClockTest {
+
+    /**
+     * Clock the test moves by hand.
+     */
+    private static final class ManualClock extends Clock {
+        private long millis;
+
+        private ManualClock(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+
+    @Test
+    public void stepTests() throws Exception {
+        ManualClock time = new ManualClock(1573788089499L);
+        StepClock clock = new StepClock(30, time);
+        assertEquals(30, clock.getPeriod());
+
+        // every time through a step boundary, forwards and backwards
+        long[] millis = { 1573788089499L, 1573788089500L, 1573788100000L, 1573788119499L, 1573788119500L,
+                1573788089000L, 0L, -1000L, 1573788119500L };
+        for (long m : millis) {
+            time.millis = m;
+            long step = OTP.timeStep(m, 30);
+            assertEquals(step, clock.step());
+            assertEquals(OTP.timeInHex(m, 30), clock.hex());
+            assertArrayEquals(Utils.toBytes(step), clock.message());
+        }
+        // callers get their own copy
+        assertNotSame(clock.message(), clock.message());
+    }
+
+    @Test
+    public void verifyTests() throws Exception {
+        ManualClock time = new ManualClock(1573788090000L);
+        StepClock clock = new StepClock(30, time);
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.TOTP);
+        String code = key.create(clock.step());
+
+        assertEquals(0, key.verifyTime(code, clock, 1, 1));
+        time.millis += 30000L;
+        assertEquals(-1, key.verifyTime(code, clock, 1, 1));
+        time.millis += 30000L;
+        assertEquals(OTPKey.NO_MATCH, key.verifyTime(code, clock, 1, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void periodMismatchTests() throws Exception {
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.TOTP);
+        key.verifyTime("123456", new StepClock(60), 1, 1);
+    }
+}
@@ -0,0 +1,195 @@
+package com.amdelamar.jotp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.metrics.MetricsSnapshot;
+import com.amdelamar.jotp.metrics.OTPMetrics;
+import com.amdelamar.jotp.metrics.Phase;
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Unit tests for Throttle
+ */
+@RunWith(JUnit4.class)
+public class ThrottleTest {
+
+    private static final long TIME = 1573788090000L;
+
+    @After
+    public void disable() {
+        OTPMetrics.disable();
+    }
+
+    @Test
+    public void lockoutTests() {
+        Throttle throttle = new Throttle(100, 4, 3, 1000L, 8000L, 60000L);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(throttle.tryAcquire(1L, TIME));
+        }
+        assertEquals(3, throttle.attempts(1L));
+        assertFalse(throttle.tryAcquire(1L, TIME + 990L));
+        assertEquals(10L, throttle.lockedFor(1L, TIME + 990L));
+        // refused attempts are not counted
+        assertEquals(3, throttle.attempts(1L));
+
+        // each further attempt doubles the lockout, up to the maximum
+        long time = TIME;
+        long[] lockouts = { 1000L, 2000L, 4000L, 8000L, 8000L };
+        for (long lockout : lockouts) {
+            time += lockout;
+            assertEquals(0L, throttle.lockedFor(1L, time));
+            assertTrue(throttle.tryAcquire(1L, time));
+            assertFalse(throttle.tryAcquire(1L, time));
+        }
+        assertEquals(8000L, throttle.lockedFor(1L, time));
+
+        // other accounts are not affected
+        assertTrue(throttle.tryAcquire(2L, time));
+
+        throttle.succeeded(1L);
+        assertEquals(0, throttle.attempts(1L));
+        assertTrue(throttle.tryAcquire(1L, time));
+    }
+
+    @Test
+    public void expireTests() {
+        Throttle throttle = new Throttle(100, 4, 1, 1000L, 1000L, 5000L);
+        assertTrue(throttle.tryAcquire(1L, TIME));
+        assertTrue(throttle.tryAcquire(2L, TIME));
+        throttle.succeeded(2L);
+        assertTrue(throttle.tryAcquire(3L, TIME + 4000L));
+        assertEquals(3, throttle.size());
+
+        // a success is forgotten at once, others after the time-to-live
+        assertEquals(1, throttle.expire());
+        assertTrue(throttle.tryAcquire(4L, TIME + 5000L));
+        assertEquals(1, throttle.expire());
+        assertEquals(0, throttle.attempts(1L));
+        assertEquals(2, throttle.size());
+
+        // attempts older than the time-to-live start over
+        assertFalse(throttle.tryAcquire(3L, TIME + 4500L));
+        assertTrue(throttle.tryAcquire(3L, TIME + 9000L));
+        assertEquals(1, throttle.attempts(3L));
+
+        // when full of recent accounts, new ones are refused
+        Throttle small = new Throttle(2, 1, 1, 1000L, 1000L, 5000L);
+        assertTrue(small.tryAcquire(1L, TIME));
+        assertTrue(small.tryAcquire(2L, TIME));
+        assertFalse(small.tryAcquire(3L, TIME));
+        assertTrue(small.tryAcquire(3L, TIME + 5000L));
+    }
+
+    @Test
+    public void verifyTests() throws Exception {
+        OTPMetrics metrics = OTPMetrics.enable();
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.TOTP);
+        Throttle throttle = new Throttle(100);
+        String code = key.create(key.timeStep(TIME));
+        String wrong = code.equals("000000") ? "000001" : "000000";
+
+        assertEquals(0, throttle.verify(key, 7L, code, TIME, 1, 1));
+        for (int i = 0; i < Throttle.FREE_ATTEMPTS; i++) {
+            assertEquals(OTPKey.NO_MATCH, throttle.verify(key, 7L, wrong, TIME, 1, 1));
+        }
+        long hmacs = metrics.snapshot().getLatency(Phase.HMAC).getCount();
+
+        // locked out: even the right code is refused, without computing anything
+        assertEquals(OTPKey.NO_MATCH, throttle.verify(key, 7L, code, TIME, 1, 1));
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(hmacs, snapshot.getLatency(Phase.HMAC).getCount());
+        assertEquals(1L, snapshot.getThrottled());
+
+        assertEquals(0, throttle.verify(key, 7L, code, TIME + Throttle.BASE_LOCKOUT, 1, 1));
+        assertEquals(0, throttle.attempts(7L));
+    }
+
+    @Test
+    public void concurrentTests() throws Exception {
+        final Throttle throttle = new Throttle(1000, 8, 10, 60000L, 60000L, 60000L);
+        final AtomicInteger allowed = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (throttle.tryAcquire(i % 50, TIME)) {
+                        allowed.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // exactly the free attempts get through for each account, however they race
+        assertEquals(50 * 10, allowed.get());
+    }
+
+    @Test
+    public void churnTests() throws Exception {
+        // far more accounts than slots, each success frees its slot for another account
+        final Throttle throttle = new Throttle(16, 1, 100, 1000L, 1000L, 60000L);
+        final AtomicInteger foreign = new AtomicInteger();
+        final long deadline = System.nanoTime() + 1_000_000_000L;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long first = t * 16;
+            threads[t] = new Thread(() -> {
+                for (long n = 0; System.nanoTime() < deadline; n++) {
+                    // each thread owns its accounts, so their counts are exactly what it did
+                    final long id = first + n % 16;
+                    for (int i = 1; i <= 1 + n % 3; i++) {
+                        if (!throttle.tryAcquire(id, TIME) || throttle.attempts(id) != i) {
+                            foreign.incrementAndGet();
+                        }
+                    }
+                    throttle.succeeded(id);
+                    if (throttle.attempts(id) != 0) {
+                        foreign.incrementAndGet();
+                    }
+                    if (n % 8 == 0) {
+                        throttle.expire();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("attempts of another account seen", 0, foreign.get());
+    }
+
+    @Test
+    public void badParameterTests() {
+        try {
+            new Throttle(10, 1, 5, 1000L, 500L, 60000L);
+            fail("max lockout below base not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+        try {
+            new Throttle(10, 1, 5, 1000L, 60000L, 1000L);
+            fail("time-to-live below max lockout not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+        try {
+            new Throttle(10, 1, -1, 1000L, 1000L, 1000L);
+            fail("negative attempts not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+    }
+}
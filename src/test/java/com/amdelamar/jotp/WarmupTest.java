@@ -0,0 +1,43 @@
+package com.amdelamar.jotp;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.util.Hmac;
+
+/**
+ * Unit tests for Warmup
+ */
+@RunWith(JUnit4.class)
+public class WarmupTest {
+
+    @Test
+    public void warmUpTests() throws Exception {
+        Warmup.prepare();
+        Warmup.prepare(Hmac.HMACSHA1, Hmac.HMACSHA256, Hmac.HMACSHA512);
+        assertTrue(Warmup.warmUp(100, Hmac.HMACSHA1, Hmac.HMACSHA256, Hmac.HMACSHA512) > 0L);
+        assertTrue(Warmup.warmUp(0) > 0L);
+    }
+
+    @Test
+    public void badParameterTests() throws Exception {
+        try {
+            Warmup.prepare("HmacMD0");
+            fail("unknown algorithm not detected");
+        } catch (NoSuchAlgorithmException e) {
+            // good catch
+        }
+        try {
+            Warmup.warmUp(-1, Hmac.HMACSHA1);
+            fail("negative iterations not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+    }
+}
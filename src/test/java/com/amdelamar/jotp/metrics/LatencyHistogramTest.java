@@ -0,0 +1,57 @@
+package com.amdelamar.jotp.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for LatencyHistogram
+ */
+@RunWith(JUnit4.class)
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketTests() {
+        long previous = -1L;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            long upper = LatencyHistogram.upperBound(i);
+            assertEquals(i, LatencyHistogram.index(upper));
+            assertEquals(i, LatencyHistogram.index(previous + 1));
+            previous = upper;
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+    }
+
+    @Test
+    public void snapshotTests() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        HistogramSnapshot empty = histogram.snapshot();
+        assertEquals(0L, empty.getCount());
+        assertEquals(0L, empty.getValueAt(0.99));
+
+        for (long v = 1; v <= 1000; v++) {
+            histogram.record(v * 1000L);
+        }
+        histogram.record(-5L);
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1001L, snapshot.getCount());
+        assertEquals(1000000L, snapshot.getMax());
+        assertEquals(500500000L, snapshot.getSum());
+        assertEquals(0L, snapshot.getValueAt(0.0));
+        assertEquals(1000000L, snapshot.getValueAt(1.0));
+
+        // within the 12.5% bucket width
+        long median = snapshot.getValueAt(0.5);
+        assertTrue(median >= 500000L && median <= 500000L * 9 / 8);
+        long p99 = snapshot.getValueAt(0.99);
+        assertTrue(p99 >= 990000L && p99 <= 1000000L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badQuantileTests() {
+        new LatencyHistogram().snapshot().getValueAt(1.5);
+    }
+}
@@ -0,0 +1,98 @@
+package com.amdelamar.jotp.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.OTP;
+import com.amdelamar.jotp.OTPKey;
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Unit tests for OTPMetrics
+ */
+@RunWith(JUnit4.class)
+public class OTPMetricsTest {
+
+    @After
+    public void disable() {
+        OTPMetrics.disable();
+    }
+
+    @Test
+    public void enableTests() {
+        assertNull(OTPMetrics.current());
+        OTPMetrics metrics = OTPMetrics.enable();
+        assertSame(metrics, OTPMetrics.current());
+        assertSame(metrics, OTPMetrics.enable());
+
+        OTPMetrics other = new OTPMetrics();
+        OTPMetrics.install(other);
+        assertSame(other, OTPMetrics.current());
+        OTPMetrics.disable();
+        assertNull(OTPMetrics.current());
+    }
+
+    @Test
+    public void recordTests() throws Exception {
+        OTPMetrics metrics = OTPMetrics.enable();
+        String secret = OTP.randomBase32(OTP.BYTES);
+
+        String code = OTP.create(secret, "1", 6, Type.HOTP);
+        assertTrue(OTP.verify(secret, "1", code, 6, Type.HOTP));
+        assertFalse(OTP.verify(secret, "2", code, 6, Type.HOTP));
+        assertFalse(OTP.verify(secret, "1", "12345", 6, Type.HOTP));
+        try {
+            OTP.create(null, "1", 6, Type.HOTP);
+            fail("Missing secret accepted");
+        } catch (IllegalArgumentException e) {
+            // good
+        }
+
+        OTPKey key = new OTPKey(secret, 6, Type.TOTP);
+        assertEquals(-1, key.verifyWindow(key.create(99L), 100L, 1, 1));
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(2L, snapshot.getCreates());
+        assertEquals(4L, snapshot.getVerifies());
+        assertEquals(2L, snapshot.getSuccesses());
+        assertEquals(2L, snapshot.getFailures());
+        assertEquals(2L, snapshot.getInvalid());
+        assertEquals(1L, snapshot.getOffsetCount(-1));
+        assertEquals(0L, snapshot.getOffsetCount(0));
+
+        assertEquals(4L, snapshot.getLatency(Phase.DECODE).getCount());
+        assertTrue(snapshot.getLatency(Phase.HMAC).getCount() >= 7L);
+        assertEquals(snapshot.getLatency(Phase.HMAC).getCount(), snapshot.getLatency(Phase.TRUNCATE).getCount());
+        assertEquals(2L, snapshot.getLatency(Phase.COMPARE).getCount());
+    }
+
+    @Test
+    public void disabledTests() throws Exception {
+        OTPMetrics metrics = new OTPMetrics();
+        String secret = OTP.randomBase32(OTP.BYTES);
+        OTP.verify(secret, "1", OTP.create(secret, "1", 6, Type.HOTP), 6, Type.HOTP);
+        assertEquals(0L, metrics.snapshot().getVerifies());
+        assertEquals(0L, metrics.snapshot().getLatency(Phase.HMAC).getCount());
+    }
+
+    @Test
+    public void offsetTests() {
+        OTPMetrics metrics = new OTPMetrics();
+        metrics.recordOffset(100);
+        metrics.recordOffset(-100);
+        metrics.recordOffset(3);
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(1L, snapshot.getOffsetCount(OTPMetrics.MAX_OFFSET));
+        assertEquals(1L, snapshot.getOffsetCount(-OTPMetrics.MAX_OFFSET));
+        assertEquals(1L, snapshot.getOffsetCount(3));
+    }
+}
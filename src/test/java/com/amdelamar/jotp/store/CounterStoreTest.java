@@ -0,0 +1,201 @@
+package com.amdelamar.jotp.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.OTP;
+import com.amdelamar.jotp.OTPKey;
+import com.amdelamar.jotp.type.Type;
+
+/**
+ * Unit tests for CounterStore
+ */
+@RunWith(JUnit4.class)
+public class CounterStoreTest {
+
+    @Test
+    public void advanceTests() throws Exception {
+        Path dir = Files.createTempDirectory("jotp");
+        try (CounterStore store = new CounterStore(dir)) {
+            assertEquals(-1L, store.get(1L));
+            assertFalse(store.compareAndAdvance(1L, 0L, 1L));
+
+            store.set(1L, 5L);
+            assertEquals(5L, store.get(1L));
+            assertFalse(store.compareAndAdvance(1L, 4L, 6L));
+            assertTrue(store.compareAndAdvance(1L, 5L, 6L));
+            assertFalse(store.compareAndAdvance(1L, 5L, 6L));
+            assertEquals(6L, store.get(1L));
+            assertEquals(1, store.size());
+
+            try {
+                store.compareAndAdvance(1L, 6L, 6L);
+                fail("Counter moved backwards");
+            } catch (IllegalArgumentException e) {
+                // good
+            }
+        }
+    }
+
+    @Test
+    public void recoveryTests() throws Exception {
+        Path dir = Files.createTempDirectory("jotp");
+        try (CounterStore store = new CounterStore(dir)) {
+            for (long id = 0; id < 100; id++) {
+                store.set(id, id);
+                assertTrue(store.compareAndAdvance(id, id, id + 10));
+            }
+        }
+        try (CounterStore store = new CounterStore(dir)) {
+            assertEquals(100, store.size());
+            for (long id = 0; id < 100; id++) {
+                assertEquals(id + 10, store.get(id));
+            }
+            store.snapshot();
+            assertTrue(store.compareAndAdvance(7L, 17L, 20L));
+        }
+        try (CounterStore store = new CounterStore(dir)) {
+            assertEquals(100, store.size());
+            assertEquals(20L, store.get(7L));
+            assertEquals(18L, store.get(8L));
+        }
+    }
+
+    @Test
+    public void compactionTests() throws Exception {
+        Path dir = Files.createTempDirectory("jotp");
+        // room for 4 records
+        try (CounterStore store = new CounterStore(dir, 16 + 4 * 24)) {
+            store.set(1L, 0L);
+            store.set(2L, 0L);
+            for (long c = 0; c < 50; c++) {
+                assertTrue(store.compareAndAdvance(1L, c, c + 1));
+            }
+        }
+        assertTrue(Files.exists(dir.resolve(CounterStore.SNAPSHOT_FILE)));
+        try (CounterStore store = new CounterStore(dir)) {
+            assertEquals(50L, store.get(1L));
+            assertEquals(0L, store.get(2L));
+        }
+    }
+
+    @Test
+    public void tornRecordTests() throws Exception {
+        Path dir = Files.createTempDirectory("jotp");
+        try (CounterStore store = new CounterStore(dir)) {
+            store.set(1L, 3L);
+            store.set(1L, 4L);
+        }
+        // corrupt the counter of the second record
+        try (RandomAccessFile file = new RandomAccessFile(dir.resolve(CounterStore.LOG_FILE).toFile(), "rw")) {
+            file.seek(16 + 24 + 8);
+            file.writeLong(99L);
+        }
+        try (CounterStore store = new CounterStore(dir)) {
+            assertEquals(3L, store.get(1L));
+            store.set(1L, 5L);
+        }
+        try (CounterStore store = new CounterStore(dir)) {
+            assertEquals(5L, store.get(1L));
+        }
+    }
+
+    @Test
+    public void headerTests() throws Exception {
+        Path dir = Files.createTempDirectory("jotp");
+        try (CounterStore store = new CounterStore(dir)) {
+            store.set(1L, 3L);
+        }
+        // a log written with another record size is not replayed or reset
+        try (RandomAccessFile file = new RandomAccessFile(dir.resolve(CounterStore.LOG_FILE).toFile(), "rw")) {
+            file.seek(4);
+            file.writeInt(32);
+        }
+        try {
+            new CounterStore(dir).close();
+            fail("record size not checked");
+        } catch (IOException e) {
+            // good catch
+        }
+    }
+
+    @Test
+    public void verifyTests() throws Exception {
+        Path dir = Files.createTempDirectory("jotp");
+        OTPKey key = new OTPKey(OTP.randomBase32(OTP.BYTES), 6, Type.HOTP);
+        try (CounterStore store = new CounterStore(dir)) {
+            store.set(9L, 0L);
+            assertEquals(0, store.verify(key, 9L, key.create(0L), 3));
+            assertEquals(1L, store.get(9L));
+            // replayed code
+            assertEquals(OTPKey.NO_MATCH, store.verify(key, 9L, key.create(0L), 3));
+            // skipped ahead
+            assertEquals(2, store.verify(key, 9L, key.create(3L), 3));
+            assertEquals(4L, store.get(9L));
+            assertEquals(OTPKey.NO_MATCH, store.verify(key, 9L, key.create(10L), 3));
+            // unknown account
+            assertEquals(OTPKey.NO_MATCH, store.verify(key, 10L, key.create(0L), 3));
+        }
+    }
+
+    @Test
+    public void concurrentTests() throws Exception {
+        Path dir = Files.createTempDirectory("jotp");
+        final int threads = 8;
+        final int rounds = 200;
+        try (final CounterStore store = new CounterStore(dir, 16 + 64 * 24)) {
+            store.set(1L, 0L);
+            final AtomicInteger advanced = new AtomicInteger();
+            final AtomicInteger errors = new AtomicInteger();
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                final long id = 100L + t;
+                workers[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            store.set(id, 0L);
+                            for (int i = 0; i < rounds; i++) {
+                                long c = store.get(1L);
+                                if (store.compareAndAdvance(1L, c, c + 1)) {
+                                    advanced.incrementAndGet();
+                                }
+                                assertTrue(store.compareAndAdvance(id, i, i + 1));
+                            }
+                        } catch (InterruptedException | IOException | AssertionError e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                };
+                workers[t].start();
+            }
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertEquals(0, errors.get());
+            assertEquals(advanced.get(), store.get(1L));
+        }
+        try (CounterStore store = new CounterStore(dir)) {
+            assertEquals(threads + 1, store.size());
+            for (int t = 0; t < threads; t++) {
+                assertEquals(rounds, store.get(100L + t));
+            }
+        }
+    }
+}
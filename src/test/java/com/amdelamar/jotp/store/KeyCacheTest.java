@@ -0,0 +1,214 @@
+package com.amdelamar.jotp.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.OTP;
+import com.amdelamar.jotp.OTPKey;
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Hmac;
+import com.amdelamar.jotp.util.HmacBackend;
+
+/**
+ * Unit tests for KeyCache
+ */
+@RunWith(JUnit4.class)
+public class KeyCacheTest {
+
+    private static final String SECRET = "MFRGGZDFMZTWQ2LKNNWG23TPOBYXE43U";
+
+    /**
+     * Clock the test moves by hand.
+     */
+    private static final class ManualClock extends Clock {
+        private volatile long millis;
+
+        private ManualClock(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+
+    /**
+     * Loads the same secret for every account below 100 and keeps what it loaded.
+     */
+    private static final class Keys implements KeyCache.Loader {
+        private final List<OTPKey> loaded = new ArrayList<>();
+
+        @Override
+        public synchronized OTPKey load(long accountId) throws InvalidKeyException, NoSuchAlgorithmException {
+            if (accountId >= 100) {
+                return null;
+            }
+            OTPKey key = new OTPKey(SECRET, 6, 30, Type.HOTP, Hmac.HMACSHA1, HmacBackend.JAVA);
+            loaded.add(key);
+            return key;
+        }
+    }
+
+    @Test
+    public void hitTests() throws Exception {
+        Keys keys = new Keys();
+        KeyCache cache = new KeyCache(10, 60000L, keys, new ManualClock(0L));
+        String code = OTP.create(SECRET, "5", 6, Type.HOTP);
+        assertTrue(cache.verify(1L, code, 5L));
+        assertTrue(cache.verify(1L, code, 5L));
+        assertEquals(Integer.parseInt(code), cache.generate(1L, 5L));
+        assertEquals(2, cache.verifyWindow(1L, code, 3L, 0, 3));
+        assertEquals(1L, cache.getLoads());
+        assertEquals(1, cache.size());
+
+        // unknown accounts are not cached
+        assertFalse(cache.verify(100L, code, 5L));
+        assertEquals(OTPKey.NO_MATCH, cache.verifyWindow(100L, code, 5L, 1, 1));
+        try {
+            cache.generate(100L, 5L);
+            fail("unknown account not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void expiryTests() throws Exception {
+        Keys keys = new Keys();
+        ManualClock clock = new ManualClock(0L);
+        KeyCache cache = new KeyCache(10, 1000L, keys, clock);
+        String code = OTP.create(SECRET, "5", 6, Type.HOTP);
+        assertTrue(cache.verify(1L, code, 5L));
+        clock.millis = 999L;
+        assertTrue(cache.verify(1L, code, 5L));
+        assertEquals(1L, cache.getLoads());
+
+        clock.millis = 1000L;
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+        assertNotEquals(Integer.parseInt(code), keys.loaded.get(0).generate(5L));
+
+        assertTrue(cache.verify(1L, code, 5L));
+        assertEquals(2L, cache.getLoads());
+
+        cache.invalidate(1L);
+        assertEquals(0, cache.size());
+        assertNotEquals(Integer.parseInt(code), keys.loaded.get(1).generate(5L));
+    }
+
+    @Test
+    public void sizeTests() throws Exception {
+        Keys keys = new Keys();
+        ManualClock clock = new ManualClock(0L);
+        KeyCache cache = new KeyCache(3, 60000L, keys, clock);
+        String code = OTP.create(SECRET, "5", 6, Type.HOTP);
+        for (long id = 0; id < 5; id++) {
+            clock.millis = id;
+            assertTrue(cache.verify(id, code, 5L));
+        }
+        assertEquals(3, cache.size());
+        assertEquals(5L, cache.getLoads());
+        // the two oldest were evicted and wiped
+        assertNotEquals(Integer.parseInt(code), keys.loaded.get(0).generate(5L));
+        assertNotEquals(Integer.parseInt(code), keys.loaded.get(1).generate(5L));
+        assertEquals(Integer.parseInt(code), keys.loaded.get(4).generate(5L));
+
+        assertTrue(cache.verify(4L, code, 5L));
+        assertEquals(5L, cache.getLoads());
+
+        cache.close();
+        assertEquals(0, cache.size());
+        assertNotEquals(Integer.parseInt(code), keys.loaded.get(4).generate(5L));
+        try {
+            cache.verify(4L, code, 5L);
+            fail("closed cache not detected");
+        } catch (IllegalStateException e) {
+            // good catch
+        }
+    }
+
+    @Test
+    public void concurrentTests() throws Exception {
+        // a cache of one, so keys are evicted while other threads use them
+        final KeyCache cache = new KeyCache(1, 60000L, new Keys());
+        final String code = OTP.create(SECRET, "5", 6, Type.HOTP);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long id = t % 2;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        if (!cache.verify(id, code, 5L)) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertTrue(cache.size() <= 1);
+    }
+
+    @Test
+    public void badParameterTests() throws Exception {
+        try {
+            new KeyCache(0, 1000L, new Keys());
+            fail("zero size not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+        try {
+            new KeyCache(10, 0L, new Keys());
+            fail("zero time to live not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+        try {
+            new KeyCache(10, 1000L, null);
+            fail("null loader not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.amdelamar.jotp.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.OTP;
+import com.amdelamar.jotp.OTPKey;
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Base32;
+import com.amdelamar.jotp.util.Hmac;
+
+/**
+ * Unit tests for SecretDeriver
+ */
+@RunWith(JUnit4.class)
+public class SecretDeriverTest {
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static byte[] hkdf(byte[] salt, byte[] ikm, byte[] info, int length) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SecretDeriver.extract(salt, ikm), "HmacSHA256"));
+        byte[] okm = new byte[length];
+        SecretDeriver.expand(mac, info, okm);
+        return okm;
+    }
+
+    @Test
+    public void rfc5869Tests() throws Exception {
+        byte[] ikm = hex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b");
+        // test case 1
+        assertArrayEquals(hex("077709362c2e32df0ddc3f0dc47bba6390b6c73bb50f9c3122ec844ad7c2b3e5"),
+                SecretDeriver.extract(hex("000102030405060708090a0b0c"), ikm));
+        assertArrayEquals(
+                hex("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865"),
+                hkdf(hex("000102030405060708090a0b0c"), ikm, hex("f0f1f2f3f4f5f6f7f8f9"), 42));
+        // test case 3, no salt and no info
+        assertArrayEquals(hex("19ef24a32c717b167f33a91d6f648bdf96596776afdb6377ac434c1c293ccb04"),
+                SecretDeriver.extract(new byte[0], ikm));
+        assertArrayEquals(
+                hex("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d9d201395faa4b61a96c8"),
+                hkdf(null, ikm, new byte[0], 42));
+    }
+
+    @Test
+    public void deriveTests() throws Exception {
+        byte[] master = new byte[32];
+        Arrays.fill(master, (byte) 7);
+        SecretDeriver deriver = new SecretDeriver(master, "tenant-a".getBytes("US-ASCII"));
+
+        byte[] secret = deriver.derive(42L);
+        assertEquals(OTP.BYTES, secret.length);
+        assertArrayEquals(secret, deriver.derive(42L));
+        assertArrayEquals(secret, new SecretDeriver(master, "tenant-a".getBytes("US-ASCII")).derive(42L));
+        assertFalse(Arrays.equals(secret, deriver.derive(43L)));
+        assertFalse(Arrays.equals(secret, new SecretDeriver(master, "tenant-b".getBytes("US-ASCII")).derive(42L)));
+        assertFalse(Arrays.equals(secret, new SecretDeriver(master).derive(42L)));
+
+        // longer secrets start with the shorter ones
+        byte[] longer = deriver.derive(42L, 100);
+        assertArrayEquals(secret, Arrays.copyOf(longer, OTP.BYTES));
+        assertArrayEquals(secret, Base32.decode(deriver.deriveBase32(42L)));
+    }
+
+    @Test
+    public void loaderTests() throws Exception {
+        SecretDeriver deriver = new SecretDeriver(new byte[16]);
+        String secret = deriver.deriveBase32(9L);
+
+        OTPKey totp = deriver.loader(6, 30, Type.TOTP, Hmac.HMACSHA1).load(9L);
+        String hexTime = OTP.timeInHex(System.currentTimeMillis());
+        assertEquals(OTP.create(secret, hexTime, 6, Type.TOTP), totp.create(Long.parseLong(hexTime, 16)));
+
+        KeyCache cache = new KeyCache(10, 60000L, deriver.loader(6, 30, Type.HOTP, Hmac.HMACSHA1));
+        assertTrue(cache.verify(9L, OTP.create(secret, "3", 6, Type.HOTP), 3L));
+        assertEquals(1, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void badParameterTests() throws Exception {
+        try {
+            new SecretDeriver(new byte[15]);
+            fail("short master key not detected");
+        } catch (InvalidKeyException e) {
+            // good catch
+        }
+        SecretDeriver deriver = new SecretDeriver(new byte[16]);
+        try {
+            deriver.derive(1L, 0);
+            fail("zero length not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+        try {
+            deriver.derive(1L, 255 * 32 + 1);
+            fail("long length not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+    }
+}
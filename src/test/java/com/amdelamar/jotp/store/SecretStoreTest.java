@@ -0,0 +1,247 @@
+package com.amdelamar.jotp.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.OTP;
+import com.amdelamar.jotp.OTPKey;
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Hmac;
+import com.amdelamar.jotp.util.HmacBackend;
+
+/**
+ * Unit tests for SecretStore
+ */
+@RunWith(JUnit4.class)
+public class SecretStoreTest {
+
+    private static final String[] ALGORITHMS = { Hmac.HMACSHA1, Hmac.HMACSHA256, Hmac.HMACSHA512 };
+
+    @Test
+    public void generateTests() throws Exception {
+        try (SecretStore store = new SecretStore(100)) {
+            long id = 0;
+            for (String algorithm : ALGORITHMS) {
+                for (Type type : Type.values()) {
+                    String secret = OTP.randomBase32(OTP.BYTES);
+                    OTPKey key = new OTPKey(secret, 8, 60, type, algorithm, HmacBackend.JAVA);
+                    store.put(id, secret, 8, 60, type, algorithm);
+                    for (long base = 0; base < 20; base++) {
+                        assertEquals(key.generate(base), store.generate(id, base));
+                    }
+                    assertEquals(key.generate(52435959L), store.generate(id, 52435959L));
+                    id++;
+                }
+            }
+            assertEquals(6, store.size());
+
+            try {
+                store.generate(99L, 0L);
+                fail("Generated for an unknown account");
+            } catch (IllegalArgumentException e) {
+                // good
+            }
+        }
+    }
+
+    @Test
+    public void verifyTimeTests() throws Exception {
+        long time = 1573788090000L;
+        String secret = OTP.randomBase32(OTP.BYTES);
+        OTPKey key = new OTPKey(secret, 6, Type.TOTP);
+        try (SecretStore store = new SecretStore(10)) {
+            store.put(1L, secret, 6, 30, Type.TOTP, Hmac.HMACSHA1);
+            long step = key.timeStep(time);
+
+            assertEquals(-1, store.verifyTime(1L, key.create(step - 1), time, 1, 1));
+            // used steps, and steps before them, are not accepted again
+            assertEquals(OTPKey.NO_MATCH, store.verifyTime(1L, key.create(step - 1), time, 1, 1));
+            assertEquals(OTPKey.NO_MATCH, store.verifyTime(1L, key.create(step - 2), time, 2, 1));
+            assertEquals(0, store.verifyTime(1L, key.create(step), time, 1, 1));
+            assertEquals(OTPKey.NO_MATCH, store.verifyTime(1L, key.create(step - 1), time, 1, 1));
+            assertEquals(step, store.lastStep(1L));
+
+            assertEquals(OTPKey.NO_MATCH, store.verifyTime(1L, "12345", time, 1, 1));
+            assertEquals(OTPKey.NO_MATCH, store.verifyTime(2L, key.create(step + 1), time, 1, 1));
+            try {
+                store.verifyCounter(1L, key.create(step + 1), 1);
+                fail("Verified a TOTP account as HOTP");
+            } catch (IllegalArgumentException e) {
+                // good
+            }
+        }
+    }
+
+    @Test
+    public void verifyCounterTests() throws Exception {
+        String secret = OTP.randomBase32(OTP.BYTES);
+        OTPKey key = new OTPKey(secret, 6, Type.HOTP);
+        try (SecretStore store = new SecretStore(10)) {
+            store.put(1L, secret, 6, 30, Type.HOTP, Hmac.HMACSHA1);
+            assertEquals(0L, store.lastStep(1L));
+
+            assertEquals(0, store.verifyCounter(1L, key.create(0L), 3));
+            assertEquals(OTPKey.NO_MATCH, store.verifyCounter(1L, key.create(0L), 3));
+            assertEquals(2, store.verifyCounter(1L, key.create(3L), 3));
+            assertEquals(4L, store.lastStep(1L));
+            assertEquals(OTPKey.NO_MATCH, store.verifyCounter(1L, key.create(9L), 3));
+        }
+    }
+
+    @Test
+    public void persistenceTests() throws Exception {
+        Path file = Files.createTempDirectory("jotp").resolve("secrets.bin");
+        String[] secrets = new String[50];
+        long time = 1573788090000L;
+        try (SecretStore store = new SecretStore(file, 100)) {
+            for (int id = 0; id < secrets.length; id++) {
+                secrets[id] = OTP.randomBase32(OTP.BYTES);
+                store.put(id, secrets[id], 6, 30, Type.TOTP, Hmac.HMACSHA256);
+            }
+            OTPKey key = new OTPKey(secrets[7], 6, 30, Type.TOTP, Hmac.HMACSHA256, HmacBackend.JAVA);
+            assertEquals(0, store.verifyTime(7L, key.create(key.timeStep(time)), time, 1, 1));
+        }
+
+        // capacity of an existing file is kept
+        try (SecretStore store = new SecretStore(file, 1)) {
+            assertEquals(secrets.length, store.size());
+            assertTrue(store.getCapacity() >= 100);
+            for (int id = 0; id < secrets.length; id++) {
+                OTPKey key = new OTPKey(secrets[id], 6, 30, Type.TOTP, Hmac.HMACSHA256, HmacBackend.JAVA);
+                assertEquals(key.generate(12345L), store.generate(id, 12345L));
+            }
+            OTPKey key = new OTPKey(secrets[7], 6, 30, Type.TOTP, Hmac.HMACSHA256, HmacBackend.JAVA);
+            assertEquals(key.timeStep(time), store.lastStep(7L));
+            assertEquals(OTPKey.NO_MATCH, store.verifyTime(7L, key.create(key.timeStep(time)), time, 1, 1));
+        }
+
+        Path other = file.resolveSibling("other.bin");
+        Files.write(other, new byte[] { 1, 2, 3 });
+        try (SecretStore store = new SecretStore(other, 10)) {
+            fail("Opened a file that is not a store");
+        } catch (IOException e) {
+            // good
+        }
+    }
+
+    @Test
+    public void removeTests() throws Exception {
+        try (SecretStore store = new SecretStore(4)) {
+            int capacity = store.getCapacity();
+            // churn through many more accounts than fit, reusing removed slots
+            for (long id = 0; id < 1000; id++) {
+                store.put(id, OTP.randomBase32(OTP.BYTES), 6, 30, Type.TOTP, Hmac.HMACSHA1);
+                assertTrue(store.contains(id));
+                if (id >= capacity - 1) {
+                    assertTrue(store.remove(id - capacity + 1));
+                }
+            }
+            assertFalse(store.contains(0L));
+            assertFalse(store.remove(0L));
+            assertEquals(capacity - 1, store.size());
+
+            store.put(5000L, OTP.randomBase32(OTP.BYTES), 6, 30, Type.TOTP, Hmac.HMACSHA1);
+            try {
+                store.put(5001L, OTP.randomBase32(OTP.BYTES), 6, 30, Type.TOTP, Hmac.HMACSHA1);
+                fail("Added past capacity");
+            } catch (IllegalStateException e) {
+                // good
+            }
+            // replacing a stored account still works when full
+            store.put(5000L, OTP.randomBase32(OTP.BYTES), 6, 30, Type.HOTP, Hmac.HMACSHA1);
+            assertEquals(capacity, store.size());
+        }
+    }
+
+    @Test
+    public void churnTests() throws Exception {
+        // small segments, so records also shift back across segments
+        try (SecretStore store = new SecretStore(96, 4)) {
+            int live = store.getCapacity() / 2;
+            String[] secrets = new String[20000];
+            for (int id = 0; id < secrets.length; id++) {
+                secrets[id] = OTP.randomBase32(OTP.BYTES);
+                store.put(id, secrets[id], 6, 30, Type.TOTP, Hmac.HMACSHA1);
+                if (id >= live) {
+                    assertTrue(store.remove(id - live));
+                }
+            }
+            assertEquals(live, store.size());
+
+            // every account left is still found and correct
+            for (int id = secrets.length - live; id < secrets.length; id++) {
+                OTPKey key = new OTPKey(secrets[id], 6, 30, Type.TOTP, Hmac.HMACSHA1, HmacBackend.JAVA);
+                assertEquals(key.generate(7L), store.generate(id, 7L));
+            }
+
+            // misses stop at an empty slot, tombstones would fill the table and probe all 128
+            long probes = 0;
+            for (long id = -1; id >= -1000; id--) {
+                assertFalse(store.contains(id));
+                probes += store.probes(id);
+            }
+            assertTrue("Average miss probed " + probes / 1000.0 + " slots", probes < 1000 * 8);
+        }
+    }
+
+    @Test
+    public void segmentTests() throws Exception {
+        // 40M accounts need 2^26 slots, 16 segments of 4M records
+        assertEquals(1L << 26, SecretStore.slots(40_000_000));
+        assertEquals(16, SecretStore.segmentCount(SecretStore.slots(40_000_000), SecretStore.SEGMENT_SHIFT));
+        assertEquals(1, SecretStore.segmentCount(SecretStore.slots(4), SecretStore.SEGMENT_SHIFT));
+        assertEquals(1L << 30, SecretStore.slots(800_000_000));
+        try {
+            SecretStore.slots(900_000_000);
+            fail("Sized a store past the slot limit");
+        } catch (IllegalArgumentException e) {
+            // good
+        }
+
+        // 8 records per segment, so probes and records cross segments
+        try (SecretStore store = new SecretStore(100, 3)) {
+            String[] secrets = new String[store.getCapacity()];
+            for (int id = 0; id < secrets.length; id++) {
+                secrets[id] = OTP.randomBase32(OTP.BYTES);
+                store.put(id, secrets[id], 6, 30, Type.TOTP, ALGORITHMS[id % ALGORITHMS.length]);
+            }
+            for (int id = 0; id < secrets.length; id++) {
+                OTPKey key = new OTPKey(secrets[id], 6, 30, Type.TOTP, ALGORITHMS[id % ALGORITHMS.length],
+                        HmacBackend.JAVA);
+                assertEquals(key.generate(1234L), store.generate(id, 1234L));
+            }
+            assertEquals(secrets.length, store.size());
+        }
+    }
+
+    @Test
+    public void invalidTests() throws Exception {
+        try (SecretStore store = new SecretStore(4)) {
+            try {
+                // 40 bytes, an 80 byte HOTP key
+                store.put(1L, OTP.randomBase32(40), 6, 30, Type.HOTP, Hmac.HMACSHA1);
+                fail("Stored a key that does not fit");
+            } catch (IllegalArgumentException e) {
+                // good
+            }
+            try {
+                store.put(1L, OTP.randomBase32(OTP.BYTES), 6, 30, Type.TOTP, "HmacMD5");
+                fail("Stored an unsupported algorithm");
+            } catch (NoSuchAlgorithmException e) {
+                // good
+            }
+            assertEquals(0, store.size());
+        }
+    }
+}
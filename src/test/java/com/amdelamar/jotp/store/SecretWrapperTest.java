@@ -0,0 +1,120 @@
+package com.amdelamar.jotp.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.amdelamar.jotp.OTP;
+import com.amdelamar.jotp.OTPKey;
+import com.amdelamar.jotp.type.Type;
+import com.amdelamar.jotp.util.Base32;
+import com.amdelamar.jotp.util.Hmac;
+
+/**
+ * Unit tests for SecretWrapper
+ */
+@RunWith(JUnit4.class)
+public class SecretWrapperTest {
+
+    private static byte[] masterKey(int length) {
+        byte[] key = new byte[length];
+        for (int i = 0; i < length; i++) {
+            key[i] = (byte) (i * 7 + 1);
+        }
+        return key;
+    }
+
+    @Test
+    public void wrapTests() throws Exception {
+        for (int length : new int[] { 16, 24, 32 }) {
+            SecretWrapper wrapper = new SecretWrapper(masterKey(length));
+            String secret = OTP.randomBase32(OTP.BYTES);
+            byte[] wrapped = wrapper.wrap(42L, secret);
+            assertEquals(Base32.decode(secret).length + SecretWrapper.OVERHEAD, wrapped.length);
+            assertArrayEquals(Base32.decode(secret), wrapper.unwrap(42L, wrapped));
+
+            // a fresh IV every time
+            byte[] again = wrapper.wrap(42L, secret);
+            assertArrayEquals(wrapper.unwrap(42L, wrapped), wrapper.unwrap(42L, again));
+            assertFalse(Arrays.equals(wrapped, again));
+        }
+    }
+
+    @Test
+    public void tamperTests() throws Exception {
+        SecretWrapper wrapper = new SecretWrapper(masterKey(16));
+        byte[] wrapped = wrapper.wrap(42L, OTP.randomBase32(OTP.BYTES));
+        try {
+            wrapper.unwrap(43L, wrapped);
+            fail("other account not detected");
+        } catch (InvalidKeyException e) {
+            // good catch
+        }
+        try {
+            new SecretWrapper(masterKey(32)).unwrap(42L, wrapped);
+            fail("other master key not detected");
+        } catch (InvalidKeyException e) {
+            // good catch
+        }
+        for (int i = 0; i < wrapped.length; i++) {
+            byte[] changed = wrapped.clone();
+            changed[i] ^= 1;
+            try {
+                wrapper.unwrap(42L, changed);
+                fail("changed byte " + i + " not detected");
+            } catch (InvalidKeyException e) {
+                // good catch
+            }
+        }
+        try {
+            wrapper.unwrap(42L, new byte[SecretWrapper.OVERHEAD]);
+            fail("short input not detected");
+        } catch (InvalidKeyException e) {
+            // good catch
+        }
+    }
+
+    @Test
+    public void loaderTests() throws Exception {
+        SecretWrapper wrapper = new SecretWrapper(masterKey(16));
+        String secret = OTP.randomBase32(OTP.BYTES);
+        Map<Long, byte[]> stored = new HashMap<>();
+        stored.put(7L, wrapper.wrap(7L, secret));
+
+        OTPKey totp = wrapper.loader(stored::get, 6, 30, Type.TOTP, Hmac.HMACSHA1).load(7L);
+        String hexTime = OTP.timeInHex(System.currentTimeMillis());
+        assertEquals(OTP.create(secret, hexTime, 6, Type.TOTP), totp.create(Long.parseLong(hexTime, 16)));
+
+        OTPKey hotp = wrapper.loader(stored::get, 6, 30, Type.HOTP, Hmac.HMACSHA1).load(7L);
+        assertEquals(OTP.create(secret, "12", 6, Type.HOTP), hotp.create(12L));
+
+        assertNull(wrapper.loader(stored::get, 6, 30, Type.TOTP, Hmac.HMACSHA1).load(8L));
+    }
+
+    @Test
+    public void badParameterTests() throws Exception {
+        try {
+            new SecretWrapper(new byte[15]);
+            fail("short master key not detected");
+        } catch (InvalidKeyException e) {
+            // good catch
+        }
+        try {
+            new SecretWrapper(masterKey(16)).wrap(1L, new byte[0]);
+            fail("empty secret not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+    }
+}
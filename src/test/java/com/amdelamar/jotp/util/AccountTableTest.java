@@ -0,0 +1,102 @@
+package com.amdelamar.jotp.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for AccountTable
+ */
+@RunWith(JUnit4.class)
+public class AccountTableTest {
+
+    @Test
+    public void updateTests() {
+        AccountTable table = new AccountTable(100, 4, value -> false);
+        assertEquals(AccountTable.MISSING, table.get(5L));
+        assertEquals(AccountTable.MISSING, table.getAndUpdate(5L, value -> 10L));
+        assertEquals(10L, table.get(5L));
+        assertEquals(10L, table.getAndUpdate(5L, value -> value + 1));
+        assertEquals(11L, table.get(5L));
+
+        // MISSING means do not add
+        assertEquals(AccountTable.MISSING, table.getAndUpdate(6L, value -> AccountTable.MISSING));
+        assertEquals(AccountTable.MISSING, table.get(6L));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void expireTests() {
+        AccountTable table = new AccountTable(64, 1, value -> value < 1000L);
+        for (long key = 0; key < 64; key++) {
+            table.getAndUpdate(key, value -> 0L);
+        }
+        assertEquals(64, table.size());
+
+        // full, new accounts reuse the expired slots
+        for (long key = 64; key < 128; key++) {
+            table.getAndUpdate(key, value -> 1000L);
+        }
+        assertEquals(64, table.size());
+        assertEquals(AccountTable.MISSING, table.get(0L));
+        assertEquals(1000L, table.get(127L));
+
+        // full of live accounts
+        try {
+            table.getAndUpdate(500L, value -> 1000L);
+            fail("full table not detected");
+        } catch (IllegalStateException e) {
+            // good catch
+        }
+    }
+
+    @Test
+    public void reuseRaceTests() throws Exception {
+        // far more accounts than slots, and every state may expire, so slots are reused constantly
+        final AccountTable table = new AccountTable(8, 1, value -> true);
+        final AtomicLong foreign = new AtomicLong();
+        final long deadline = System.nanoTime() + 1_000_000_000L;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long first = t * 16;
+            threads[t] = new Thread(() -> {
+                for (long n = 0; System.nanoTime() < deadline; n++) {
+                    final long key = first + n % 64;
+                    // the state is the key in the high bits and a counter in the low ones
+                    try {
+                        table.getAndUpdate(key, value -> {
+                            if (value != AccountTable.MISSING && value >>> 16 != key) {
+                                foreign.incrementAndGet();
+                            }
+                            return key << 16 | (value + 1 & 0xFFFF);
+                        });
+                    } catch (IllegalStateException e) {
+                        // full of accounts being added right now
+                    }
+                    final long value = table.get(key);
+                    if (value != AccountTable.MISSING && value >>> 16 != key) {
+                        foreign.incrementAndGet();
+                    }
+                    if (n % 16 == 0) {
+                        table.expire();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("states of another account seen", 0L, foreign.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rangeTests() {
+        new AccountTable(10, 1, value -> false).getAndUpdate(1L, value -> AccountTable.MAX_VALUE + 1);
+    }
+}
@@ -0,0 +1,113 @@
+package com.amdelamar.jotp.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for Base32
+ */
+@RunWith(JUnit4.class)
+public class Base32Test {
+
+    @Test
+    public void rfcTests() {
+        // RFC 4648 section 10
+        String[][] vectors = { { "", "" }, { "f", "MY======" }, { "fo", "MZXQ====" }, { "foo", "MZXW6===" },
+                { "foob", "MZXW6YQ=" }, { "fooba", "MZXW6YTB" }, { "foobar", "MZXW6YTBOI======" } };
+        for (String[] vector : vectors) {
+            byte[] bytes = vector[0].getBytes(StandardCharsets.US_ASCII);
+            assertEquals(vector[1], Base32.encode(bytes));
+            assertEquals(vector[1].length(), Base32.encodedLength(bytes.length));
+            assertArrayEquals(bytes, Base32.decode(vector[1]));
+            // optional padding, any case
+            String unpadded = vector[1].replace("=", "");
+            assertArrayEquals(bytes, Base32.decode(unpadded));
+            assertArrayEquals(bytes, Base32.decode(unpadded.toLowerCase()));
+        }
+    }
+
+    @Test
+    public void bufferTests() {
+        byte[] bytes = "xxfoobarxx".getBytes(StandardCharsets.US_ASCII);
+        char[] dst = new char[20];
+        int n = Base32.encode(bytes, 2, 6, dst, 2);
+        assertEquals(16, n);
+        assertEquals("MZXW6YTBOI======", new String(dst, 2, n));
+        assertEquals('\0', dst[0]);
+        assertEquals('\0', dst[18]);
+    }
+
+    @Test
+    public void allBytesTests() {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        String encoded = Base32.encode(bytes);
+        assertEquals(Base32.encodedLength(256), encoded.length());
+        assertEquals("AAAQEAYEAUDAOCAJBIFQYDIOB4IBCEQTCQKRMFYYDENBWHA5DYPSAIJCEMSCKJRHFAUSUKZMFUXC6MBRGIZTINJWG44DSOR3HQ6T4P2AIFBEGRCFIZDUQSKKJNGE2TSPKBIVEU2UKVLFOWCZLJNVYXK6L5QGCYTDMRSWMZ3INFVGW3DNNZXXA4LSON2HK5TXPB4XU634PV7H7AEBQKBYJBMGQ6EITCULRSGY5D4QSGJJHFEVS2LZRGM2TOOJ3HU7UCQ2FI5EUWTKPKFJVKV2ZLNOV6YLDMVTWS23NN5YXG5LXPF5X274BQOCYPCMLRWHZDE4VS6MZXHM7UGR2LJ5JVOW27MNTWW33TO55X7A4HROHZHF43T6R2PK5PWO33XP6DY7F47U6X3PP6HZ7L57Z7P674======", encoded);
+    }
+
+    @Test
+    public void decodeTests() {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        String encoded = Base32.encode(bytes);
+        assertArrayEquals(bytes, Base32.decode(encoded));
+        assertArrayEquals(bytes, Base32.decode(new StringBuilder(encoded.toLowerCase())));
+
+        // partial blocks keep whole bytes only, as commons-codec did
+        for (int chars = 0; chars <= 8; chars++) {
+            assertEquals(chars * 5 / 8, Base32.decode("MZXW6YTB".substring(0, chars)).length);
+        }
+        assertEquals(2, Base32.decodedLength("MZXQ===="));
+    }
+
+    @Test
+    public void bufferDecodeTests() {
+        byte[] dst = new byte[8];
+        assertEquals(6, Base32.decode("mzxw6ytboi======", dst, 1));
+        assertEquals("foobar", new String(dst, 1, 6, StandardCharsets.US_ASCII));
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+        buffer.position(2);
+        assertEquals(3, Base32.decode("MZXW6", buffer));
+        assertEquals(5, buffer.position());
+        assertEquals('f', buffer.get(2));
+        assertEquals('o', buffer.get(4));
+
+        try {
+            Base32.decode("MZXW6YTBOI", buffer);
+            fail("overflow not detected");
+        } catch (BufferOverflowException e) {
+            // good
+            assertEquals(5, buffer.position());
+        }
+    }
+
+    @Test
+    public void invalidTests() {
+        String[] invalid = { "MZXW1", "MZ XW", "MZ=XW", "MZXW-", "MZXW\u00c9", "0", "=A" };
+        for (String s : invalid) {
+            try {
+                Base32.decode(s);
+                fail("invalid character not detected in " + s);
+            } catch (IllegalArgumentException e) {
+                // good
+            }
+        }
+        // padding alone decodes to nothing
+        assertEquals(0, Base32.decode("========").length);
+    }
+}
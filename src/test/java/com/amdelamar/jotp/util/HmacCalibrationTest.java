@@ -0,0 +1,116 @@
+package com.amdelamar.jotp.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for HmacCalibration
+ */
+@RunWith(JUnit4.class)
+public class HmacCalibrationTest {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes();
+
+    @After
+    public void reset() {
+        HmacCalibration.reset();
+    }
+
+    @Test
+    public void calibrateTests() throws Exception {
+        Map<String, HmacCalibration.Choice> choices = HmacCalibration.calibrate(60L, Hmac.HMACSHA1, "hmacsha256",
+                Hmac.HMACSHA512);
+        assertEquals(3, choices.size());
+        for (HmacCalibration.Choice choice : choices.values()) {
+            assertFalse(choice.isPinned());
+            // the JAVA backend and at least one provider
+            assertTrue(choice.getTimings().size() >= 2);
+            for (HmacCalibration.Candidate candidate : choice.getTimings()) {
+                assertTrue(candidate.getNanos() > 0);
+                assertTrue(choice.getSelected().getNanos() <= candidate.getNanos());
+            }
+            assertEquals(choice, HmacCalibration.getChoice(choice.getAlgorithm()));
+        }
+        assertEquals(HmacCalibration.getChoices().keySet(), choices.keySet());
+
+        // whatever was chosen computes the same HMAC
+        for (String alg : choices.keySet()) {
+            byte[] expected = Utils.hmac(alg, KEY, Utils.toBytes(42L));
+            byte[] actual = new byte[expected.length];
+            Hmac.getInstance(alg, KEY, HmacBackend.AUTO).doFinal(42L, actual, 0);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void pinTests() throws Exception {
+        assertNull(HmacCalibration.getChoice(Hmac.HMACSHA1));
+        assertEquals("JceHmac", Hmac.getInstance(Hmac.HMACSHA1, KEY, HmacBackend.AUTO).getClass().getSimpleName());
+
+        HmacCalibration.Choice choice = HmacCalibration.pin(Hmac.HMACSHA1, HmacBackend.JAVA, null);
+        assertTrue(choice.isPinned());
+        assertEquals(HmacBackend.JAVA, choice.getSelected().getBackend());
+        assertTrue(Double.isNaN(choice.getSelected().getNanos()));
+        assertTrue(Hmac.getInstance(Hmac.HMACSHA1, KEY, HmacBackend.AUTO) instanceof Sha1Hmac);
+
+        String provider = javax.crypto.Mac.getInstance(Hmac.HMACSHA256).getProvider().getName();
+        choice = HmacCalibration.pin(Hmac.HMACSHA256, HmacBackend.JCE, provider);
+        assertEquals(provider, choice.getSelected().getProvider());
+        assertEquals(provider, Utils.getMac(Hmac.HMACSHA256, new javax.crypto.spec.SecretKeySpec(KEY, "RAW"))
+                .getProvider().getName());
+
+        // calibrating afterwards keeps the pins and does not time them
+        Map<String, HmacCalibration.Choice> calibrated = HmacCalibration.calibrate(30L, Hmac.HMACSHA1,
+                Hmac.HMACSHA256, Hmac.HMACSHA512);
+        assertTrue(calibrated.get(Hmac.HMACSHA1).isPinned());
+        assertEquals(HmacBackend.JAVA, HmacCalibration.getChoice(Hmac.HMACSHA1).getSelected().getBackend());
+        assertTrue(HmacCalibration.getChoice(Hmac.HMACSHA256).isPinned());
+        assertEquals(provider, HmacCalibration.getChoice(Hmac.HMACSHA256).getSelected().getProvider());
+        assertFalse(calibrated.get(Hmac.HMACSHA512).isPinned());
+
+        HmacCalibration.reset();
+        assertTrue(HmacCalibration.getChoices().isEmpty());
+    }
+
+    @Test
+    public void badParameterTests() throws Exception {
+        try {
+            HmacCalibration.pin("HmacMD5", HmacBackend.JAVA, null);
+            fail("Unsupported algorithm not detected");
+        } catch (NoSuchAlgorithmException e) {
+            // good catch
+        }
+        try {
+            HmacCalibration.pin(Hmac.HMACSHA1, HmacBackend.JCE, "NoSuchProvider");
+            fail("Missing provider not detected");
+        } catch (NoSuchProviderException e) {
+            // good catch
+        }
+        try {
+            HmacCalibration.pin(Hmac.HMACSHA1, HmacBackend.AUTO, null);
+            fail("AUTO pinned");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+        try {
+            HmacCalibration.calibrate(0L, Hmac.HMACSHA1);
+            fail("Empty budget not detected");
+        } catch (IllegalArgumentException e) {
+            // good catch
+        }
+        assertTrue(HmacCalibration.calibrate(10L, "HmacNothing").isEmpty());
+    }
+}
@@ -0,0 +1,99 @@
+package com.amdelamar.jotp.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for Hmac backends
+ */
+@RunWith(JUnit4.class)
+public class HmacTest {
+
+    private static final byte[] SEED20 = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SEED32 = "12345678901234567890123456789012".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SEED64 = ("1234567890123456789012345678901234567890"
+            + "123456789012345678901234").getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void rfc4226Tests() throws InvalidKeyException, NoSuchAlgorithmException {
+        // RFC 4226 Appendix D
+        int[] expected = { 755224, 287082, 359152, 969429, 338314, 254676, 287922, 162583, 399871, 520489 };
+        for (HmacBackend backend : HmacBackend.values()) {
+            Hmac hmac = Hmac.getInstance(Hmac.HMACSHA1, SEED20, backend);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], hmac.truncate(i, -1) % 1000000);
+            }
+        }
+    }
+
+    @Test
+    public void rfc6238Tests() throws InvalidKeyException, NoSuchAlgorithmException {
+        // RFC 6238 Appendix B
+        long[] times = { 59L, 1111111109L, 1111111111L, 1234567890L, 2000000000L, 20000000000L };
+        int[] sha1 = { 94287082, 7081804, 14050471, 89005924, 69279037, 65353130 };
+        int[] sha256 = { 46119246, 68084774, 67062674, 91819424, 90698825, 77737706 };
+        int[] sha512 = { 90693936, 25091201, 99943326, 93441116, 38618901, 47863826 };
+
+        for (HmacBackend backend : HmacBackend.values()) {
+            Hmac h1 = Hmac.getInstance(Hmac.HMACSHA1, SEED20, backend);
+            Hmac h256 = Hmac.getInstance(Hmac.HMACSHA256, SEED32, backend);
+            Hmac h512 = Hmac.getInstance(Hmac.HMACSHA512, SEED64, backend);
+            for (int i = 0; i < times.length; i++) {
+                long step = times[i] / 30;
+                assertEquals(sha1[i], h1.truncate(step, -1) % 100000000);
+                assertEquals(sha256[i], h256.truncate(step, -1) % 100000000);
+                assertEquals(sha512[i], h512.truncate(step, -1) % 100000000);
+            }
+        }
+    }
+
+    @Test
+    public void matchesJceTests() throws InvalidKeyException, NoSuchAlgorithmException {
+        Random random = new Random(42);
+        for (String alg : new String[] { Hmac.HMACSHA1, Hmac.HMACSHA256, Hmac.HMACSHA512 }) {
+            // key lengths around the block sizes, including keys that must be hashed first
+            for (int len : new int[] { 1, 20, 63, 64, 65, 127, 128, 129, 300 }) {
+                byte[] key = new byte[len];
+                random.nextBytes(key);
+                Hmac hmac = Hmac.getInstance(alg, key, HmacBackend.JAVA);
+                Mac mac = Mac.getInstance(alg);
+                mac.init(new SecretKeySpec(key, "RAW"));
+
+                long message = random.nextLong();
+                assertArrayEquals(mac.doFinal(Utils.toBytes(message)), hmac.doFinal(message));
+            }
+        }
+    }
+
+    @Test
+    public void badKeyTests() throws NoSuchAlgorithmException {
+        for (HmacBackend backend : HmacBackend.values()) {
+            try {
+                Hmac.getInstance(Hmac.HMACSHA1, new byte[0], backend);
+                fail("empty key not detected");
+            } catch (InvalidKeyException e) {
+                // good catch
+            }
+        }
+
+        try {
+            Hmac.getInstance("HmacMD5", SEED20, HmacBackend.JAVA);
+            fail("unsupported algorithm not detected");
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            // good catch
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.amdelamar.jotp.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for MultiHmac
+ */
+@RunWith(JUnit4.class)
+public class MultiHmacTest {
+
+    private static final String[] ALGORITHMS = { Hmac.HMACSHA1, Hmac.HMACSHA256, Hmac.HMACSHA512 };
+
+    @Test
+    public void jceTests() throws Exception {
+        Random random = new Random(42);
+        // a mix of algorithms, backends, and key lengths, including keys longer than a block
+        int count = 101;
+        Hmac[] hmacs = new Hmac[count];
+        byte[][] keys = new byte[count][];
+        String[] algorithms = new String[count];
+        long[] messages = new long[count];
+        int[] truncations = new int[count];
+        for (int i = 0; i < count; i++) {
+            algorithms[i] = ALGORITHMS[random.nextInt(i % 7 == 0 ? 3 : 2)];
+            keys[i] = new byte[1 + random.nextInt(150)];
+            random.nextBytes(keys[i]);
+            hmacs[i] = Hmac.getInstance(algorithms[i], keys[i], i % 11 == 0 ? HmacBackend.JCE : HmacBackend.JAVA);
+            messages[i] = random.nextLong();
+            truncations[i] = i % 3 == 0 ? 0 : -1;
+        }
+
+        int[] out = new int[count];
+        MultiHmac.truncate(hmacs, messages, truncations, out, count);
+        for (int i = 0; i < count; i++) {
+            byte[] expected = Utils.hmac(algorithms[i], keys[i], Utils.toBytes(messages[i]));
+            assertEquals(Utils.truncate(expected, truncations[i]), out[i]);
+        }
+
+        // every batch size, so keys are left without a partner at each position
+        for (int n = 0; n < 12; n++) {
+            int[] partial = new int[count];
+            MultiHmac.truncate(hmacs, messages, truncations, partial, n);
+            for (int i = 0; i < n; i++) {
+                assertEquals(out[i], partial[i]);
+            }
+            assertEquals(0, partial[n]);
+        }
+    }
+
+    @Test
+    public void invalidTests() throws Exception {
+        Hmac hmac = Hmac.getInstance(Hmac.HMACSHA1, new byte[] { 1 }, HmacBackend.JAVA);
+        assertTrue(MultiHmac.isMultiBuffer(hmac));
+        assertFalse(MultiHmac.isMultiBuffer(Hmac.getInstance(Hmac.HMACSHA1, new byte[] { 1 }, HmacBackend.JCE)));
+        try {
+            MultiHmac.truncate(new Hmac[] { hmac }, new long[1], new int[1], new int[1], 2);
+            fail("Count past the arrays");
+        } catch (IllegalArgumentException e) {
+            // good
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.amdelamar.jotp.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for Utils
+ */
+@RunWith(JUnit4.class)
+public class UtilsTest {
+
+    @Test
+    public void cachedMacTests() throws InvalidKeyException, NoSuchAlgorithmException {
+        SecretKeySpec key1 = new SecretKeySpec("12345678901234567890".getBytes(StandardCharsets.US_ASCII), "RAW");
+        SecretKeySpec key2 = new SecretKeySpec("abcdefghijabcdefghij".getBytes(StandardCharsets.US_ASCII), "RAW");
+
+        // alternate keys and algorithms on the same thread
+        for (String alg : new String[] { "HmacSHA1", "HmacSHA256", "HmacSHA512" }) {
+            for (long i = 0; i < 4; i++) {
+                byte[] text = Utils.toBytes(i);
+                SecretKeySpec key = i % 2 == 0 ? key1 : key2;
+                assertArrayEquals(fresh(alg, key, text), Utils.hmac(alg, key, text));
+                assertArrayEquals(fresh(alg, key, text), Utils.hmac(alg, key.getEncoded(), text));
+            }
+        }
+    }
+
+    @Test
+    public void partialUpdateTests() throws InvalidKeyException, NoSuchAlgorithmException {
+        SecretKeySpec key = new SecretKeySpec("12345678901234567890".getBytes(StandardCharsets.US_ASCII), "RAW");
+        byte[] text = Utils.toBytes(1L);
+
+        // leftover input from a previous caller must not leak into the next hash
+        Utils.getMac("HmacSHA1", key).update((byte) 1);
+        assertArrayEquals(fresh("HmacSHA1", key, text), Utils.hmac("HmacSHA1", key, text));
+    }
+
+    @Test
+    public void truncateTests() {
+        // RFC 4226 Section 5.4 example
+        byte[] hash = { (byte) 0x1f, (byte) 0x86, (byte) 0x98, (byte) 0x69, (byte) 0x0e, (byte) 0x02,
+                (byte) 0xca, (byte) 0x16, (byte) 0x61, (byte) 0x85, (byte) 0x50, (byte) 0xef, (byte) 0x7f,
+                (byte) 0x19, (byte) 0xda, (byte) 0x8e, (byte) 0x94, (byte) 0x5b, (byte) 0x55, (byte) 0x5a };
+        assertEquals(0x50ef7f19, Utils.truncate(hash, -1));
+        assertEquals(0x1f869869, Utils.truncate(hash, 0));
+    }
+
+    @Test
+    public void formatTests() {
+        assertEquals(1000000, Utils.modulus(6));
+        assertEquals(Integer.MAX_VALUE, Utils.modulus(16));
+        assertEquals("000042", Utils.toString(42, 6));
+        assertEquals("123456", Utils.toString(123456, 6));
+
+        char[] chars = new char[8];
+        Utils.format(7, 6, chars, 1);
+        assertEquals("000007", new String(chars, 1, 6));
+
+        assertTrue(Utils.matches(7, 6, "000007"));
+        assertFalse(Utils.matches(7, 6, "000008"));
+        assertFalse(Utils.matches(7, 6, "00007"));
+    }
+
+    private static byte[] fresh(String alg, SecretKeySpec key, byte[] text)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        Mac mac = Mac.getInstance(alg);
+        mac.init(key);
+        return mac.doFinal(text);
+    }
+}